@@ -0,0 +1,522 @@
+#include <jni.h>
+#include <time.h>
+#include <stdlib.h>
+#include <string.h>
+#include <stdio.h>
+#include <unistd.h>
+#include <pthread.h>
+#include <iostream>
+
+#include "bdvlib.h"
+
+using namespace std;
+
+/*
+ * Benchmarks and stress tests for the BigDataViewer JNI wrappers.
+ *
+ * usage: bench latency <dataset> [iterations]
+ *        bench stress <dataset> [threads] [calls per thread]
+ *        bench setters <dataset> [seconds] [bound in microseconds]
+ *        bench scaling <dataset> [max viewers] [active viewers] [flags]
+ *        bench path <dataset> [frames]
+ *
+ * The dataset is an xml file or url, or a synthetic dataset spec that needs
+ * no files or servers, e.g. "synthetic" or "synthetic:setups=2,latency=500"
+ * (see bdv.SyntheticImgLoader.parseSpec for all keys).
+ *
+ * latency:
+ *   Prints the average per-call latency of cheap getters, once through the
+ *   BigDataViewer wrappers (using the JNI handles cached at bdvStartJvm) and once
+ *   replaying the lookups that every wrapper used to do per call
+ *   (FindClass + GetStaticMethodID). Both run on the main thread, which is
+ *   attached to the JVM, so attaching is not measured.
+ *
+ * stress:
+ *   Makes millions of calls from several native threads concurrently (these
+ *   stay attached to the JVM), then starts and finishes many short-lived
+ *   threads (these are detached when they exit). Checks that all calls return
+ *   consistent results.
+ *
+ * setters:
+ *   Opens an 8k (7680x4320) viewer and, for the given time, calls setTransform,
+ *   setTimepoint, and setLinearInterpolation in a loop, so that the viewer
+ *   renders full-size frames all the time. Measures the time of every setter
+ *   call and fails if the worst case exceeds the bound (default 10 ms). The
+ *   setters only post changes to the painter thread, so they should never
+ *   wait for rendering.
+ *
+ * scaling:
+ *   Opens 1, 2, 4, ... up to max viewers (default 256) of 320x240 pixels,
+ *   sharing one cache, with the given constructor flags (default 0; e.g. 6 =
+ *   BDV_SHARED_RENDERING | BDV_SHARED_PAINTER). For each viewer count, prints
+ *   thread count and resident memory while all viewers are idle. Then changes
+ *   the transform of (up to) the given number of active viewers (default 16)
+ *   at once, and prints the mean and maximum latency until each of them
+ *   delivers a frame rendered with the new transform.
+ *
+ * path:
+ *   Renders the given number of frames (default 100) of 800x600 pixels along
+ *   a camera path that moves through the dataset, and prints frames per
+ *   second for: setTransform() + waitForFrame() until the frame is complete,
+ *   renderPath() without prefetching, and renderPath() with prefetching of
+ *   the next frame. Each run uses a different part of the path (shifted in
+ *   z), so that it starts with data that is not cached.
+ */
+
+static double nowNanos()
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec * 1e9 + ts.tv_nsec;
+}
+
+static void report(const char* name, double startNanos, long calls)
+{
+	cout << name << ": " << (nowNanos() - startNanos) / calls << " ns/call" << endl;
+}
+
+/*
+ * Call the static int method BigDataViewerJni.<name>(id), resolving class and
+ * method on every call. This is what the wrappers used to do (besides
+ * attaching the thread).
+ */
+static int callUncached(JNIEnv* jniEnv, const char* name, int id)
+{
+	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
+	jmethodID methodID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, name, "(I)I");
+	int result = jniEnv->CallStaticIntMethod(BigDataViewerJniClass, methodID, id);
+	jniEnv->DeleteLocalRef(BigDataViewerJniClass);
+	return result;
+}
+
+static void benchLatency(BigDataViewer& bdv, int iterations)
+{
+	JavaVM* jvm;
+	jsize numJvms;
+	JNI_GetCreatedJavaVMs(&jvm, 1, &numJvms);
+
+	// the main thread created the JVM, so it is attached
+	JNIEnv* jniEnv;
+	if (jvm->GetEnv((void**)&jniEnv, JNI_VERSION_1_6) != JNI_OK)
+	{
+		cerr << "main thread is not attached to the JVM" << endl;
+		return;
+	}
+
+	const int id = bdv.getId();
+
+	// warm up
+	for (int i = 0; i < iterations / 10; ++i)
+	{
+		bdv.getNumSources();
+		callUncached(jniEnv, "getNumSources", id);
+	}
+
+	double start = nowNanos();
+	for (int i = 0; i < iterations; ++i)
+		bdv.getNumSources();
+	report("getNumSources    (cached)  ", start, iterations);
+
+	start = nowNanos();
+	for (int i = 0; i < iterations; ++i)
+		callUncached(jniEnv, "getNumSources", id);
+	report("getNumSources    (uncached)", start, iterations);
+
+	start = nowNanos();
+	for (int i = 0; i < iterations; ++i)
+		bdv.getNumTimepoints();
+	report("getNumTimepoints (cached)  ", start, iterations);
+
+	start = nowNanos();
+	for (int i = 0; i < iterations; ++i)
+		callUncached(jniEnv, "getNumTimepoints", id);
+	report("getNumTimepoints (uncached)", start, iterations);
+
+	start = nowNanos();
+	for (int i = 0; i < iterations; ++i)
+		delete[] bdv.getTransform();
+	report("getTransform     (cached)  ", start, iterations);
+}
+
+struct StressArgs
+{
+	BigDataViewer* bdv;
+	long calls;
+	int expectedNumSources;
+	int expectedNumTimepoints;
+	long errors;
+};
+
+static void* stressThread(void* p)
+{
+	StressArgs* args = (StressArgs*) p;
+	BigDataViewer* bdv = args->bdv;
+	for (long i = 0; i < args->calls; ++i)
+	{
+		switch (i % 4)
+		{
+		case 0:
+			if (bdv->getNumSources() != args->expectedNumSources)
+				++args->errors;
+			break;
+		case 1:
+			if (bdv->getNumTimepoints() != args->expectedNumTimepoints)
+				++args->errors;
+			break;
+		case 2:
+			bdv->isSourceVisible(0);
+			break;
+		case 3:
+			delete[] bdv->getTransform();
+			break;
+		}
+	}
+	return NULL;
+}
+
+static long runStressThreads(StressArgs* args, int numThreads)
+{
+	pthread_t* threads = new pthread_t[numThreads];
+	for (int t = 0; t < numThreads; ++t)
+		pthread_create(&threads[t], NULL, stressThread, &args[t]);
+	long errors = 0;
+	for (int t = 0; t < numThreads; ++t)
+	{
+		pthread_join(threads[t], NULL);
+		errors += args[t].errors;
+		args[t].errors = 0;
+	}
+	delete[] threads;
+	return errors;
+}
+
+static int stress(BigDataViewer& bdv, int numThreads, long callsPerThread)
+{
+	StressArgs* args = new StressArgs[numThreads];
+	for (int t = 0; t < numThreads; ++t)
+	{
+		args[t].bdv = &bdv;
+		args[t].calls = callsPerThread;
+		args[t].expectedNumSources = bdv.getNumSources();
+		args[t].expectedNumTimepoints = bdv.getNumTimepoints();
+		args[t].errors = 0;
+	}
+
+	// long-running threads, attached once
+	double start = nowNanos();
+	long errors = runStressThreads(args, numThreads);
+	long calls = numThreads * callsPerThread;
+	cout << calls << " calls from " << numThreads << " threads, " << errors << " errors" << endl;
+	report("long-lived threads ", start, calls);
+
+	// short-lived threads, each attached and detached on exit
+	const int rounds = 1000;
+	for (int t = 0; t < numThreads; ++t)
+		args[t].calls = 100;
+	start = nowNanos();
+	for (int r = 0; r < rounds; ++r)
+		errors += runStressThreads(args, numThreads);
+	calls = rounds * numThreads * 100L;
+	cout << rounds * numThreads << " short-lived threads, " << errors << " errors" << endl;
+	report("short-lived threads", start, calls);
+
+	delete[] args;
+	return errors == 0 ? 0 : 3;
+}
+
+static int benchSetters(BigDataViewer& bdv, double seconds, double boundMicros)
+{
+	double* t = bdv.getTransform();
+	const int numTimepoints = bdv.getNumTimepoints();
+
+	// warm up
+	for (int i = 0; i < 1000; ++i)
+		bdv.setTransform(t);
+
+	long calls = 0;
+	long exceeded = 0;
+	double maxMicros = 0;
+	double sumMicros = 0;
+	long framesSeen = 0;
+	const double end = nowNanos() + seconds * 1e9;
+	for (long i = 0; nowNanos() < end; ++i)
+	{
+		double start = nowNanos();
+		switch (i % 3)
+		{
+		case 0:
+			t[3] += (i % 2 == 0) ? 1 : -1;
+			bdv.setTransform(t);
+			break;
+		case 1:
+			bdv.setTimepoint((int) ((i / 3) % numTimepoints));
+			break;
+		case 2:
+			bdv.setLinearInterpolation((i / 3) % 2 == 0);
+			break;
+		}
+		double micros = (nowNanos() - start) / 1e3;
+		++calls;
+		sumMicros += micros;
+		if (micros > maxMicros)
+			maxMicros = micros;
+		if (micros > boundMicros)
+			++exceeded;
+
+		// count frames, but don't hold on to them
+		if (i % 100 == 0)
+		{
+			BigDataViewerBitmap* bitmap = bdv.getRenderedBitmap();
+			if (bitmap != NULL)
+			{
+				++framesSeen;
+				delete bitmap;
+			}
+		}
+	}
+	delete[] t;
+
+	cout << calls << " setter calls, " << framesSeen << " frames seen" << endl;
+	cout << "mean  " << sumMicros / calls << " us" << endl;
+	cout << "max   " << maxMicros << " us (bound " << boundMicros << " us, exceeded " << exceeded << " times)" << endl;
+	return maxMicros <= boundMicros ? 0 : 3;
+}
+
+/*
+ * Read a value (in the unit given there) from /proc/self/status.
+ */
+static long procStatus(const char* key)
+{
+	FILE* f = fopen("/proc/self/status", "r");
+	if (f == NULL)
+		return -1;
+	char line[256];
+	long value = -1;
+	size_t keyLength = strlen(key);
+	while (fgets(line, sizeof(line), f) != NULL)
+		if (strncmp(line, key, keyLength) == 0 && line[keyLength] == ':')
+		{
+			value = atol(line + keyLength + 1);
+			break;
+		}
+	fclose(f);
+	return value;
+}
+
+/*
+ * Records when the first frame with the expected translation arrives.
+ */
+struct FrameWaiter
+{
+	volatile double expectedTranslation;
+	volatile double requestTime;
+	volatile double frameTime;
+};
+
+static void frameArrived(void* userdata, const int* data, int width, int height, bool isComplete, const double* m3x4)
+{
+	FrameWaiter* waiter = (FrameWaiter*) userdata;
+	if (waiter->requestTime != 0 && waiter->frameTime == 0 && m3x4[3] == waiter->expectedTranslation)
+		waiter->frameTime = nowNanos();
+}
+
+static int benchScaling(const char* dataset, int maxViewers, int maxActive, int flags)
+{
+	double screenscales[] = { 1, 0.5, 0.25 };
+	const int numScreenScales = sizeof(screenscales)/sizeof(double);
+	BigDataViewer** viewers = new BigDataViewer*[maxViewers];
+	FrameWaiter* waiters = new FrameWaiter[maxViewers];
+	int numViewers = 0;
+	double* t = NULL;
+	int result = 0;
+
+	cout << "viewers  threads  rss(MB)  active  mean(ms)  max(ms)  missing" << endl;
+	for (int n = 1; n <= maxViewers; n *= 2)
+	{
+		while (numViewers < n)
+		{
+			BigDataViewer* bdv = numViewers == 0
+					? new BigDataViewer(dataset, 320, 240, screenscales, numScreenScales, 1, flags)
+					: new BigDataViewer(viewers[0], 320, 240, screenscales, numScreenScales, 1, flags);
+			waiters[numViewers].requestTime = 0;
+			waiters[numViewers].frameTime = 0;
+			bdv->setFrameListener(frameArrived, &waiters[numViewers]);
+			viewers[numViewers++] = bdv;
+		}
+		if (t == NULL)
+			t = viewers[0]->getTransform();
+
+		// let initial rendering finish
+		sleep(2);
+		const long threads = procStatus("Threads");
+		const long rssMB = procStatus("VmRSS") / 1024;
+
+		const int numActive = n < maxActive ? n : maxActive;
+		t[3] += 1;
+		for (int i = 0; i < numActive; ++i)
+		{
+			waiters[i].frameTime = 0;
+			waiters[i].expectedTranslation = t[3];
+			waiters[i].requestTime = nowNanos();
+			viewers[i]->setTransform(t);
+		}
+
+		const double timeout = nowNanos() + 30e9;
+		int missing = numActive;
+		while (missing > 0 && nowNanos() < timeout)
+		{
+			usleep(1000);
+			missing = 0;
+			for (int i = 0; i < numActive; ++i)
+				if (waiters[i].frameTime == 0)
+					++missing;
+		}
+
+		double sumMillis = 0;
+		double maxMillis = 0;
+		for (int i = 0; i < numActive; ++i)
+		{
+			if (waiters[i].frameTime == 0)
+				continue;
+			double millis = (waiters[i].frameTime - waiters[i].requestTime) / 1e6;
+			sumMillis += millis;
+			if (millis > maxMillis)
+				maxMillis = millis;
+			waiters[i].requestTime = 0;
+		}
+		const int received = numActive - missing;
+		cout << n << "\t " << threads << "\t  " << rssMB << "\t   " << numActive << "\t   "
+				<< (received > 0 ? sumMillis / received : 0) << "\t     " << maxMillis << "\t      " << missing << endl;
+		if (missing > 0)
+			result = 3;
+	}
+
+	for (int i = numViewers - 1; i >= 0; --i)
+		delete viewers[i];
+	delete[] viewers;
+	delete[] waiters;
+	delete[] t;
+	return result;
+}
+
+static void pathFrameRendered(void* userdata, const int* data, int width, int height, bool isComplete, const double* m3x4)
+{
+	++*((long*) userdata);
+}
+
+static void reportPath(const char* name, double startNanos, long frames)
+{
+	double seconds = (nowNanos() - startNanos) / 1e9;
+	cout << name << ": " << frames << " frames, " << frames / seconds << " frames/s" << endl;
+}
+
+static int benchPath(BigDataViewer& bdv, int numFrames)
+{
+	double* t = bdv.getTransform();
+	double* transforms = new double[12 * numFrames];
+	int result = 0;
+
+	for (int run = 0; run < 3; ++run)
+	{
+		for (int i = 0; i < numFrames; ++i)
+		{
+			double* frame = transforms + 12 * i;
+			for (int j = 0; j < 12; ++j)
+				frame[j] = t[j];
+			frame[3] += 4 * i;
+			frame[11] += 50 * run;
+		}
+
+		long frames = 0;
+		double start = nowNanos();
+		if (run == 0)
+		{
+			for (int i = 0; i < numFrames; ++i)
+			{
+				bdv.setTransform(transforms + 12 * i);
+				BigDataViewerBitmap* bitmap = bdv.waitForFrame(30000, true);
+				if (bitmap == NULL)
+					break;
+				++frames;
+				delete bitmap;
+			}
+			reportPath("setTransform + waitForFrame", start, frames);
+		}
+		else
+		{
+			bool prefetch = run == 2;
+			int rendered = bdv.renderPath(transforms, NULL, numFrames, pathFrameRendered, &frames, prefetch);
+			reportPath(prefetch ? "renderPath, prefetch" : "renderPath, no prefetch", start, frames);
+			if (rendered != numFrames || frames != numFrames)
+				result = 3;
+		}
+	}
+
+	delete[] transforms;
+	delete[] t;
+	return result;
+}
+
+int main(int argc, char ** argv)
+{
+	if (argc < 3 || (strcmp(argv[1], "latency") != 0 && strcmp(argv[1], "stress") != 0 && strcmp(argv[1], "setters") != 0 && strcmp(argv[1], "scaling") != 0 && strcmp(argv[1], "path") != 0))
+	{
+		cerr << "usage: " << argv[0] << " latency <dataset> [iterations]" << endl;
+		cerr << "       " << argv[0] << " stress <dataset> [threads] [calls per thread]" << endl;
+		cerr << "       " << argv[0] << " setters <dataset> [seconds] [bound in microseconds]" << endl;
+		cerr << "       " << argv[0] << " scaling <dataset> [max viewers] [active viewers] [flags]" << endl;
+		cerr << "       " << argv[0] << " path <dataset> [frames]" << endl;
+		return 1;
+	}
+
+	if (bdvStartJvm("-Xmx4G", "./jars/") != 0)
+	{
+		cerr << "could not start JVM" << endl;
+		return 2;
+	}
+
+	int result = 0;
+	if (strcmp(argv[1], "scaling") == 0)
+	{
+		const int maxViewers = argc > 3 ? atoi(argv[3]) : 256;
+		const int maxActive = argc > 4 ? atoi(argv[4]) : 16;
+		const int flags = argc > 5 ? atoi(argv[5]) : 0;
+		result = benchScaling(argv[2], maxViewers, maxActive, flags);
+	}
+	else if (strcmp(argv[1], "path") == 0)
+	{
+		double screenscales[] = { 1, 0.5, 0.25, 0.125 };
+		BigDataViewer bdv(argv[2], 800, 600, screenscales, sizeof(screenscales)/sizeof(double), 3);
+		const int numFrames = argc > 3 ? atoi(argv[3]) : 100;
+		result = benchPath(bdv, numFrames);
+	}
+	else if (strcmp(argv[1], "setters") == 0)
+	{
+		double screenscales[] = { 1, 0.5, 0.25, 0.125 };
+		BigDataViewer bdv(argv[2], 7680, 4320, screenscales, sizeof(screenscales)/sizeof(double), 8);
+		const double seconds = argc > 3 ? atof(argv[3]) : 30;
+		const double boundMicros = argc > 4 ? atof(argv[4]) : 10000;
+		result = benchSetters(bdv, seconds, boundMicros);
+	}
+	else
+	{
+		double screenscales[] = { 1, 0.5, 0.25 };
+		BigDataViewer bdv(argv[2], 400, 300, screenscales, sizeof(screenscales)/sizeof(double), 1);
+
+		if (strcmp(argv[1], "latency") == 0)
+		{
+			const int iterations = argc > 3 ? atoi(argv[3]) : 100000;
+			benchLatency(bdv, iterations);
+		}
+		else
+		{
+			const int numThreads = argc > 3 ? atoi(argv[3]) : 8;
+			const long callsPerThread = argc > 4 ? atol(argv[4]) : 500000;
+			result = stress(bdv, numThreads, callsPerThread);
+		}
+	}
+
+	bdvStopJvm();
+
+	return result;
+}
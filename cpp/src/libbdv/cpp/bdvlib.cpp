@@ -1,6 +1,9 @@
 #include "bdvlib.h"
 #include <jni.h>
 #include <dirent.h>
+#include <pthread.h>
+#include <stdint.h>
+#include <string.h>
 
 #include <string>
 #include <sstream>
@@ -18,443 +21,723 @@ using boost::ends_with;
 
 static JavaVM* theJvm = NULL;
 
-BigDataViewer::BigDataViewer (const char* sURL, int width, int height, double* screenscales, int screenscales_size, int num_rendering_threads)
+/*
+ * Class and method handles of the java side.
+ * These are resolved once by initJniHandles(), when the JVM is started
+ * (bdvStartJvm) or when the library is loaded into a running JVM (JNI_OnLoad).
+ * Classes are held as global references, so they are valid on every thread.
+ */
+static jclass BigDataViewerJniClass = NULL;
+static jclass ARGBRenderImageClass = NULL;
+static jclass NativeFrameListenerClass = NULL;
+
+static jmethodID constructFromUrlID = NULL;
+static jmethodID constructSharingCacheID = NULL;
+static jmethodID destructID = NULL;
+static jmethodID setTransformID = NULL;
+static jmethodID getTransformID = NULL;
+static jmethodID getNumTimepointsID = NULL;
+static jmethodID getNumSourcesID = NULL;
+static jmethodID isSourceVisibleID = NULL;
+static jmethodID getSourceParamsMinID = NULL;
+static jmethodID getSourceParamsMaxID = NULL;
+static jmethodID getSourceParamsColorID = NULL;
+static jmethodID resizeID = NULL;
+static jmethodID setTimepointID = NULL;
+static jmethodID setLinearInterpolationID = NULL;
+static jmethodID setSourceVisibleID = NULL;
+static jmethodID setSourceParamsID = NULL;
+static jmethodID leaseRenderedBitmapID = NULL;
+static jmethodID releaseRenderedBitmapID = NULL;
+static jmethodID waitForFrameID = NULL;
+static jmethodID setFrameListenerID = NULL;
+static jmethodID applyStateID = NULL;
+static jmethodID renderNowID = NULL;
+static jmethodID renderRegionID = NULL;
+static jmethodID prefetchRegionID = NULL;
+static jmethodID renderPathID = NULL;
+static jmethodID setMotionPredictionID = NULL;
+static jmethodID getPredictionStatsID = NULL;
+static jmethodID startPlaybackID = NULL;
+static jmethodID stopPlaybackID = NULL;
+static jmethodID getPlaybackStatsID = NULL;
+static jmethodID setIoBudgetID = NULL;
+static jmethodID getIoBudgetID = NULL;
+static jmethodID setAdaptiveIoBudgetID = NULL;
+static jmethodID getAdaptiveIoBudgetTimingID = NULL;
+static jmethodID setPrefetchCellsID = NULL;
+static jmethodID setFocusPointID = NULL;
+static jmethodID getStatsID = NULL;
+static jmethodID resetStatsID = NULL;
+static jmethodID setRenderBufferBudgetID = NULL;
+static jmethodID getRenderBufferOccupancyID = NULL;
+
+static jmethodID getWidthID = NULL;
+static jmethodID getHeightID = NULL;
+static jmethodID getDataID = NULL;
+static jmethodID getBufferID = NULL;
+static jmethodID isCompleteID = NULL;
+
+/*
+ * Native threads are attached to the JVM on their first call and stay attached
+ * until they exit. Attaching creates a java Thread object, which is much more
+ * expensive than the actual calls. The key's destructor detaches the thread.
+ * (Only threads that were attached by getJniEnv() carry a value, so threads
+ * that were attached elsewhere, e.g. the thread that created the JVM, are left
+ * alone.)
+ */
+static pthread_key_t attachedThreadKey;
+static pthread_once_t attachedThreadKeyOnce = PTHREAD_ONCE_INIT;
+
+static void detachThread(void* jniEnv)
 {
-	if (theJvm == NULL)
-		cerr << "start JVM first!" << endl;
+	if (theJvm != NULL)
+		theJvm->DetachCurrentThread();
+}
 
+static void createAttachedThreadKey()
+{
+	pthread_key_create(&attachedThreadKey, detachThread);
+}
+
+/*
+ * Get the JNIEnv of the current thread, attaching the thread to the JVM if
+ * necessary.
+ */
+static JNIEnv* getJniEnv()
+{
 	JNIEnv* jniEnv;
+	if (theJvm->GetEnv((void**)&jniEnv, JNI_VERSION_1_6) == JNI_OK)
+		return jniEnv;
+
 	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
+	pthread_once(&attachedThreadKeyOnce, createAttachedThreadKey);
+	pthread_setspecific(attachedThreadKey, jniEnv);
+	return jniEnv;
+}
+
+static jclass findClass(JNIEnv* jniEnv, const char* name)
+{
+	jclass localClass = jniEnv->FindClass(name);
+	if (localClass == NULL)
 	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return;
+		cerr << "Unable to locate class: " << name << endl;
+		return NULL;
 	}
-	jmethodID constructID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "construct", "(Ljava/lang/String;II[DI)I");
-	if (constructID == NULL)
+	jclass globalClass = (jclass) jniEnv->NewGlobalRef(localClass);
+	jniEnv->DeleteLocalRef(localClass);
+	return globalClass;
+}
+
+static bool findStaticMethod(JNIEnv* jniEnv, jmethodID& id, const char* name, const char* signature)
+{
+	id = jniEnv->GetStaticMethodID(BigDataViewerJniClass, name, signature);
+	if (id == NULL)
 	{
-		cerr << "Unable to locate method: construct()" << endl;
-		return;
+		cerr << "Unable to locate method: " << name << "()" << endl;
+		return false;
 	}
+	return true;
+}
 
-	jstring jUrl = jniEnv->NewStringUTF(sURL);
-	jdoubleArray array = jniEnv->NewDoubleArray( screenscales_size );
-	jniEnv->SetDoubleArrayRegion( array, 0, screenscales_size, screenscales );
-	__id = jniEnv->CallStaticIntMethod(BigDataViewerJniClass, constructID, jUrl, width, height, array, num_rendering_threads);
-
-	theJvm->DetachCurrentThread();
+static bool findMethod(JNIEnv* jniEnv, jclass clazz, jmethodID& id, const char* name, const char* signature)
+{
+	id = jniEnv->GetMethodID(clazz, name, signature);
+	if (id == NULL)
+	{
+		cerr << "Unable to locate method: " << name << "()" << endl;
+		return false;
+	}
+	return true;
 }
 
-BigDataViewer::BigDataViewer (const BigDataViewer* shareCacheWith, int width, int height, double* screenscales, int screenscales_size, int num_rendering_threads)
+/*
+ * Implementation of the native method NativeFrameListener.frameAvailable().
+ * Called on the painter thread, or on the thread calling
+ * BigDataViewer::renderPath(). Forwards the image to the callback that was
+ * set by BigDataViewer::setFrameListener() or given to renderPath().
+ */
+static void JNICALL frameAvailable(JNIEnv* jniEnv, jclass clazz, jlong callback, jlong userdata, jobject renderImage, jdoubleArray transform)
 {
-	if (theJvm == NULL)
-		cerr << "start JVM first!" << endl;
+	BigDataViewerFrameListener listener = (BigDataViewerFrameListener) (intptr_t) callback;
+	double m3x4[12];
+	jniEnv->GetDoubleArrayRegion(transform, 0, 12, m3x4);
+	int width = jniEnv->CallIntMethod(renderImage, getWidthID);
+	int height = jniEnv->CallIntMethod(renderImage, getHeightID);
+	bool isComplete = jniEnv->CallBooleanMethod(renderImage, isCompleteID);
 
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
+	jobject buffer = jniEnv->CallObjectMethod(renderImage, getBufferID);
+	if (buffer != NULL)
 	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return;
+		int* data = (int*) jniEnv->GetDirectBufferAddress(buffer);
+		jniEnv->DeleteLocalRef(buffer);
+		listener((void*) (intptr_t) userdata, data, width, height, isComplete, m3x4);
 	}
-	jmethodID constructID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "construct", "(III[DI)I");
-	if (constructID == NULL)
+	else
 	{
-		cerr << "Unable to locate method: construct()" << endl;
-		return;
+		jintArray dataArray = (jintArray) jniEnv->CallObjectMethod(renderImage, getDataID);
+		int* data = (int*) jniEnv->GetPrimitiveArrayCritical(dataArray, NULL);
+		listener((void*) (intptr_t) userdata, data, width, height, isComplete, m3x4);
+		jniEnv->ReleasePrimitiveArrayCritical(dataArray, data, JNI_ABORT);
+		jniEnv->DeleteLocalRef(dataArray);
 	}
+}
 
-	int shareCacheWithId = shareCacheWith->__id;
-	jdoubleArray array = jniEnv->NewDoubleArray( screenscales_size );
-	jniEnv->SetDoubleArrayRegion( array, 0, screenscales_size, screenscales );
-	__id = jniEnv->CallStaticIntMethod(BigDataViewerJniClass, constructID, shareCacheWithId, width, height, array, num_rendering_threads);
+static JNINativeMethod nativeFrameListenerMethods[] = {
+	{ (char*) "frameAvailable", (char*) "(JJLbdv/ARGBRenderImage;[D)V", (void*) frameAvailable }
+};
 
-	theJvm->DetachCurrentThread();
+static void releaseJniHandles(JNIEnv* jniEnv)
+{
+	if (BigDataViewerJniClass != NULL)
+		jniEnv->DeleteGlobalRef(BigDataViewerJniClass);
+	if (ARGBRenderImageClass != NULL)
+		jniEnv->DeleteGlobalRef(ARGBRenderImageClass);
+	if (NativeFrameListenerClass != NULL)
+		jniEnv->DeleteGlobalRef(NativeFrameListenerClass);
+	BigDataViewerJniClass = NULL;
+	ARGBRenderImageClass = NULL;
+	NativeFrameListenerClass = NULL;
 }
 
-BigDataViewer::~BigDataViewer()
+static bool initJniHandles(JNIEnv* jniEnv)
 {
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
+	BigDataViewerJniClass = findClass(jniEnv, "bdv/BigDataViewerJni");
+	ARGBRenderImageClass = findClass(jniEnv, "bdv/ARGBRenderImage");
+	NativeFrameListenerClass = findClass(jniEnv, "bdv/NativeFrameListener");
+	if (BigDataViewerJniClass == NULL || ARGBRenderImageClass == NULL || NativeFrameListenerClass == NULL)
 	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return;
-	}
-	jmethodID destructID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "destruct", "(I)V");
-	if (destructID == NULL)
-	{
-		cerr << "Unable to locate method: destruct()" << endl;
-		return;
+		releaseJniHandles(jniEnv);
+		return false;
 	}
 
-	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, destructID, __id);
-
-	theJvm->DetachCurrentThread();
+	bool ok = true;
+	ok &= findStaticMethod(jniEnv, constructFromUrlID, "construct", "(Ljava/lang/String;II[DII)I");
+	ok &= findStaticMethod(jniEnv, constructSharingCacheID, "construct", "(III[DII)I");
+	ok &= findStaticMethod(jniEnv, destructID, "destruct", "(I)V");
+	ok &= findStaticMethod(jniEnv, setTransformID, "setTransform", "(I[D)V");
+	ok &= findStaticMethod(jniEnv, getTransformID, "getTransform", "(I[D)V");
+	ok &= findStaticMethod(jniEnv, getNumTimepointsID, "getNumTimepoints", "(I)I");
+	ok &= findStaticMethod(jniEnv, getNumSourcesID, "getNumSources", "(I)I");
+	ok &= findStaticMethod(jniEnv, isSourceVisibleID, "isSourceVisible", "(II)Z");
+	ok &= findStaticMethod(jniEnv, getSourceParamsMinID, "getSourceParamsMin", "(II)I");
+	ok &= findStaticMethod(jniEnv, getSourceParamsMaxID, "getSourceParamsMax", "(II)I");
+	ok &= findStaticMethod(jniEnv, getSourceParamsColorID, "getSourceParamsColor", "(II)I");
+	ok &= findStaticMethod(jniEnv, resizeID, "resize", "(III)V");
+	ok &= findStaticMethod(jniEnv, setTimepointID, "setTimepoint", "(II)V");
+	ok &= findStaticMethod(jniEnv, setLinearInterpolationID, "setLinearInterpolation", "(IZ)V");
+	ok &= findStaticMethod(jniEnv, setSourceVisibleID, "setSourceVisible", "(IIZ)V");
+	ok &= findStaticMethod(jniEnv, setSourceParamsID, "setSourceParams", "(IIIII)V");
+	ok &= findStaticMethod(jniEnv, leaseRenderedBitmapID, "leaseRenderedBitmap", "(I)Lbdv/ARGBRenderImage;");
+	ok &= findStaticMethod(jniEnv, releaseRenderedBitmapID, "releaseRenderedBitmap", "(ILbdv/ARGBRenderImage;)V");
+	ok &= findStaticMethod(jniEnv, waitForFrameID, "waitForFrame", "(IJZ)Lbdv/ARGBRenderImage;");
+	ok &= findStaticMethod(jniEnv, setFrameListenerID, "setFrameListener", "(IJJ)V");
+	ok &= findStaticMethod(jniEnv, applyStateID, "applyState", "(ILjava/nio/ByteBuffer;)V");
+	ok &= findStaticMethod(jniEnv, renderNowID, "renderNow", "(ILjava/nio/ByteBuffer;IILjava/nio/ByteBuffer;)Z");
+	ok &= findStaticMethod(jniEnv, renderRegionID, "renderRegion", "(ILjava/nio/ByteBuffer;IIIIDLjava/nio/ByteBuffer;)Z");
+	ok &= findStaticMethod(jniEnv, prefetchRegionID, "prefetchRegion", "(IIIIID)V");
+	ok &= findStaticMethod(jniEnv, renderPathID, "renderPath", "(I[D[IZJJ)I");
+	ok &= findStaticMethod(jniEnv, setMotionPredictionID, "setMotionPrediction", "(II)V");
+	ok &= findStaticMethod(jniEnv, getPredictionStatsID, "getPredictionStats", "(I[J)V");
+	ok &= findStaticMethod(jniEnv, startPlaybackID, "startPlayback", "(IDZIII)V");
+	ok &= findStaticMethod(jniEnv, stopPlaybackID, "stopPlayback", "(I)V");
+	ok &= findStaticMethod(jniEnv, getPlaybackStatsID, "getPlaybackStats", "(I[J)V");
+	ok &= findStaticMethod(jniEnv, setIoBudgetID, "setIoBudget", "(I[J)V");
+	ok &= findStaticMethod(jniEnv, getIoBudgetID, "getIoBudget", "(I[J)I");
+	ok &= findStaticMethod(jniEnv, setAdaptiveIoBudgetID, "setAdaptiveIoBudget", "(IJ)V");
+	ok &= findStaticMethod(jniEnv, getAdaptiveIoBudgetTimingID, "getAdaptiveIoBudgetTiming", "(I[J)V");
+	ok &= findStaticMethod(jniEnv, setPrefetchCellsID, "setPrefetchCells", "(IZ)V");
+	ok &= findStaticMethod(jniEnv, setFocusPointID, "setFocusPoint", "(IDD)V");
+	ok &= findStaticMethod(jniEnv, getStatsID, "getStats", "(I[J)I");
+	ok &= findStaticMethod(jniEnv, resetStatsID, "resetStats", "(I)V");
+	ok &= findStaticMethod(jniEnv, setRenderBufferBudgetID, "setRenderBufferBudget", "(J)V");
+	ok &= findStaticMethod(jniEnv, getRenderBufferOccupancyID, "getRenderBufferOccupancy", "([J)I");
+
+	ok &= findMethod(jniEnv, ARGBRenderImageClass, getWidthID, "getWidth", "()I");
+	ok &= findMethod(jniEnv, ARGBRenderImageClass, getHeightID, "getHeight", "()I");
+	ok &= findMethod(jniEnv, ARGBRenderImageClass, getDataID, "getData", "()[I");
+	ok &= findMethod(jniEnv, ARGBRenderImageClass, getBufferID, "getBuffer", "()Ljava/nio/ByteBuffer;");
+	ok &= findMethod(jniEnv, ARGBRenderImageClass, isCompleteID, "isComplete", "()Z");
+
+	if (jniEnv->RegisterNatives(NativeFrameListenerClass, nativeFrameListenerMethods, 1) != 0)
+	{
+		cerr << "Unable to register native methods of bdv/NativeFrameListener" << endl;
+		ok = false;
+	}
+
+	if (!ok)
+		releaseJniHandles(jniEnv);
+	return ok;
 }
 
-
-void BigDataViewer::setTransform( double* m3x4 )
+BigDataViewer::BigDataViewer (const char* sURL, int width, int height, double* screenscales, int screenscales_size, int num_rendering_threads, int flags)
 {
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
+	if (theJvm == NULL || BigDataViewerJniClass == NULL)
 	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
+		cerr << "start JVM first!" << endl;
+		__id = -1;
 		return;
 	}
-	jmethodID setTransformID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "setTransform", "(I[D)V");
-	if (setTransformID == NULL)
+
+	JNIEnv* jniEnv = getJniEnv();
+	jstring jUrl = jniEnv->NewStringUTF(sURL);
+	jdoubleArray array = jniEnv->NewDoubleArray( screenscales_size );
+	jniEnv->SetDoubleArrayRegion( array, 0, screenscales_size, screenscales );
+	__id = jniEnv->CallStaticIntMethod(BigDataViewerJniClass, constructFromUrlID, jUrl, width, height, array, num_rendering_threads, flags);
+	jniEnv->DeleteLocalRef(array);
+	jniEnv->DeleteLocalRef(jUrl);
+}
+
+BigDataViewer::BigDataViewer (const BigDataViewer* shareCacheWith, int width, int height, double* screenscales, int screenscales_size, int num_rendering_threads, int flags)
+{
+	if (theJvm == NULL || BigDataViewerJniClass == NULL)
 	{
-		cerr << "Unable to locate method: setTransform()" << endl;
+		cerr << "start JVM first!" << endl;
+		__id = -1;
 		return;
 	}
 
+	JNIEnv* jniEnv = getJniEnv();
+	int shareCacheWithId = shareCacheWith->__id;
+	jdoubleArray array = jniEnv->NewDoubleArray( screenscales_size );
+	jniEnv->SetDoubleArrayRegion( array, 0, screenscales_size, screenscales );
+	__id = jniEnv->CallStaticIntMethod(BigDataViewerJniClass, constructSharingCacheID, shareCacheWithId, width, height, array, num_rendering_threads, flags);
+	jniEnv->DeleteLocalRef(array);
+}
+
+BigDataViewer::~BigDataViewer()
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, destructID, __id);
+}
+
+
+void BigDataViewer::setTransform( double* m3x4 )
+{
+	JNIEnv* jniEnv = getJniEnv();
 	jdoubleArray matrix = jniEnv->NewDoubleArray( 12 );
 	jniEnv->SetDoubleArrayRegion( matrix, 0, 12, m3x4 );
 	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, setTransformID, __id, matrix );
-
-	theJvm->DetachCurrentThread();
+	jniEnv->DeleteLocalRef(matrix);
 }
 
 double* BigDataViewer::getTransform()
 {
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
-	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return NULL;
-	}
-	jmethodID getTransformID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "getTransform", "(I[D)V");
-	if (getTransformID == NULL)
-	{
-		cerr << "Unable to locate method: getTransform()" << endl;
-		return NULL;
-	}
-
+	JNIEnv* jniEnv = getJniEnv();
 	jdoubleArray matrix = jniEnv->NewDoubleArray( 12 );
 	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, getTransformID, __id, matrix );
 	double* m3x4 = new double[12];
 	jniEnv->GetDoubleArrayRegion( matrix, 0, 12, m3x4 );
-
-	theJvm->DetachCurrentThread();
+	jniEnv->DeleteLocalRef(matrix);
 	return m3x4;
 }
 
 int BigDataViewer::getNumTimepoints()
 {
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
-	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return -1;
-	}
-	jmethodID getNumTimepointsID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "getNumTimepoints", "(I)I");
-	if (getNumTimepointsID == NULL)
-	{
-		cerr << "Unable to locate method: getNumTimepoints()" << endl;
-		return -1;
-	}
-
+	JNIEnv* jniEnv = getJniEnv();
 	int numTimepoints = jniEnv->CallStaticIntMethod(BigDataViewerJniClass, getNumTimepointsID, __id);
-
-	theJvm->DetachCurrentThread();
 	return numTimepoints;
 }
 
-int BigDataViewer::getNumSources()
+int BigDataViewer::getId() const
 {
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
-	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return -1;
-	}
-	jmethodID getNumSourcesID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "getNumSources", "(I)I");
-	if (getNumSourcesID == NULL)
-	{
-		cerr << "Unable to locate method: getNumSources()" << endl;
-		return -1;
-	}
+	return __id;
+}
 
+int BigDataViewer::getNumSources()
+{
+	JNIEnv* jniEnv = getJniEnv();
 	int numSources = jniEnv->CallStaticIntMethod(BigDataViewerJniClass, getNumSourcesID, __id);
-
-	theJvm->DetachCurrentThread();
 	return numSources;
 }
 
 bool BigDataViewer::isSourceVisible( int source )
 {
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
-	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return false;
-	}
-	jmethodID isSourceVisibleID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "isSourceVisible", "(II)Z");
-	if (isSourceVisibleID == NULL)
-	{
-		cerr << "Unable to locate method: isSourceVisible()" << endl;
-		return false;
-	}
-
+	JNIEnv* jniEnv = getJniEnv();
 
 	jboolean visible = jniEnv->CallStaticBooleanMethod(BigDataViewerJniClass, isSourceVisibleID, __id, source);
-
-	theJvm->DetachCurrentThread();
 	return visible;
 }
 
 int BigDataViewer::getSourceParamsMin( int source )
 {
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
-	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return -1;
-	}
-	jmethodID getSourceParamsMinID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "getSourceParamsMin", "(II)I");
-	if (getSourceParamsMinID == NULL)
-	{
-		cerr << "Unable to locate method: getSourceParamsMin()" << endl;
-		return -1;
-	}
+	JNIEnv* jniEnv = getJniEnv();
 	int min = jniEnv->CallStaticIntMethod(BigDataViewerJniClass, getSourceParamsMinID, __id, source);
-
-	theJvm->DetachCurrentThread();
 	return min;
 }
 
 int BigDataViewer::getSourceParamsMax( int source )
 {
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
-	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return -1;
-	}
-	jmethodID getSourceParamsMaxID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "getSourceParamsMax", "(II)I");
-	if (getSourceParamsMaxID == NULL)
-	{
-		cerr << "Unable to locate method: getSourceParamsMax()" << endl;
-		return -1;
-	}
-
+	JNIEnv* jniEnv = getJniEnv();
 	int max = jniEnv->CallStaticIntMethod(BigDataViewerJniClass, getSourceParamsMaxID, __id, source);
-
-	theJvm->DetachCurrentThread();
 	return max;
 }
 
 int BigDataViewer::getSourceParamsColor( int source )
 {
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
-	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return -1;
-	}
-	jmethodID getSourceParamsColorID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "getSourceParamsColor", "(II)I");
-	if (getSourceParamsColorID == NULL)
-	{
-		cerr << "Unable to locate method: getSourceParamsColor()" << endl;
-		return -1;
-	}
-
+	JNIEnv* jniEnv = getJniEnv();
 	int argb = jniEnv->CallStaticIntMethod(BigDataViewerJniClass, getSourceParamsColorID, __id, source);
-
-	theJvm->DetachCurrentThread();
 	return argb;
 }
 
-void BigDataViewer::setTimepoint( int timepoint )
+void BigDataViewer::resize( int width, int height )
 {
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
-	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return;
-	}
-	jmethodID setTimepointID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "setTimepoint", "(II)V");
-	if (setTimepointID == NULL)
-	{
-		cerr << "Unable to locate method: setTimepoint()" << endl;
-		return;
-	}
+	JNIEnv* jniEnv = getJniEnv();
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, resizeID, __id, width, height);
+}
 
+void BigDataViewer::setTimepoint( int timepoint )
+{
+	JNIEnv* jniEnv = getJniEnv();
 	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, setTimepointID, __id, timepoint);
-
-	theJvm->DetachCurrentThread();
 }
 
 void BigDataViewer::setLinearInterpolation( bool enableLinearInterpolation )
 {
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
-	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return;
-	}
-	jmethodID setLinearInterpolationID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "setLinearInterpolation", "(IZ)V");
-	if (setLinearInterpolationID == NULL)
-	{
-		cerr << "Unable to locate method: setLinearInterpolation()" << endl;
-		return;
-	}
-
+	JNIEnv* jniEnv = getJniEnv();
 	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, setLinearInterpolationID, __id, enableLinearInterpolation);
-
-	theJvm->DetachCurrentThread();
 }
 
 void BigDataViewer::setSourceVisible( int source, bool visible )
 {
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
-	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return;
-	}
-	jmethodID setSourceVisibleID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "setSourceVisible", "(IIZ)V");
-	if (setSourceVisibleID == NULL)
-	{
-		cerr << "Unable to locate method: setSourceVisible()" << endl;
-		return;
-	}
-
+	JNIEnv* jniEnv = getJniEnv();
 	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, setSourceVisibleID, __id, source, visible);
-
-	theJvm->DetachCurrentThread();
 }
 
 void BigDataViewer::setSourceParams( int source, int min, int max, int argb )
 {
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
+	JNIEnv* jniEnv = getJniEnv();
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, setSourceParamsID, __id, source, min, max, argb);
+}
+
+/*
+ * A BigDataViewerStateDelta immediately followed by its source updates, as
+ * the java side expects. Small batches are packed on the stack.
+ */
+class PackedStateDelta
+{
+public:
+	PackedStateDelta(const BigDataViewerStateDelta& delta, const BigDataViewerSourceUpdate* sourceUpdates)
 	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return;
+		int numSourceUpdates = sourceUpdates == NULL ? 0 : delta.numSourceUpdates;
+		size = sizeof(BigDataViewerStateDelta) + numSourceUpdates * sizeof(BigDataViewerSourceUpdate);
+		packed = size <= sizeof(stackBuffer) ? stackBuffer : new char[size];
+		memcpy(packed, &delta, sizeof(BigDataViewerStateDelta));
+		((BigDataViewerStateDelta*) packed)->numSourceUpdates = numSourceUpdates;
+		if (numSourceUpdates > 0)
+			memcpy(packed + sizeof(BigDataViewerStateDelta), sourceUpdates, numSourceUpdates * sizeof(BigDataViewerSourceUpdate));
 	}
-	jmethodID setSourceParamsID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "setSourceParams", "(IIIII)V");
-	if (setSourceParamsID == NULL)
+	~PackedStateDelta()
 	{
-		cerr << "Unable to locate method: setSourceParams()" << endl;
-		return;
+		if (packed != stackBuffer)
+			delete[] packed;
+	}
+	jobject newDirectByteBuffer(JNIEnv* jniEnv)
+	{
+		return jniEnv->NewDirectByteBuffer(packed, size);
 	}
+private:
+	char stackBuffer[sizeof(BigDataViewerStateDelta) + 16 * sizeof(BigDataViewerSourceUpdate)];
+	char* packed;
+	size_t size;
+};
 
-	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, setSourceParamsID, __id, source, min, max, argb);
+void BigDataViewer::applyState( const BigDataViewerStateDelta& delta, const BigDataViewerSourceUpdate* sourceUpdates )
+{
+	PackedStateDelta packed(delta, sourceUpdates);
+	JNIEnv* jniEnv = getJniEnv();
+	jobject buffer = packed.newDirectByteBuffer(jniEnv);
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, applyStateID, __id, buffer);
+	jniEnv->DeleteLocalRef(buffer);
+}
 
-	theJvm->DetachCurrentThread();
+bool BigDataViewer::renderNow( int* data, int width, int height )
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jobject target = jniEnv->NewDirectByteBuffer(data, 4 * (jlong) width * height);
+	bool success = jniEnv->CallStaticBooleanMethod(BigDataViewerJniClass, renderNowID, __id, target, width, height, (jobject) NULL);
+	jniEnv->DeleteLocalRef(target);
+	return success;
 }
 
+bool BigDataViewer::renderNow( int* data, int width, int height, const BigDataViewerStateDelta& delta, const BigDataViewerSourceUpdate* sourceUpdates )
+{
+	PackedStateDelta packed(delta, sourceUpdates);
+	JNIEnv* jniEnv = getJniEnv();
+	jobject target = jniEnv->NewDirectByteBuffer(data, 4 * (jlong) width * height);
+	jobject buffer = packed.newDirectByteBuffer(jniEnv);
+	bool success = jniEnv->CallStaticBooleanMethod(BigDataViewerJniClass, renderNowID, __id, target, width, height, buffer);
+	jniEnv->DeleteLocalRef(buffer);
+	jniEnv->DeleteLocalRef(target);
+	return success;
+}
+
+bool BigDataViewer::renderRegion( int* data, int x, int y, int width, int height, double screenScale )
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jobject target = jniEnv->NewDirectByteBuffer(data, 4 * (jlong) (int) (screenScale * width) * (int) (screenScale * height));
+	bool success = jniEnv->CallStaticBooleanMethod(BigDataViewerJniClass, renderRegionID, __id, target, x, y, width, height, screenScale, (jobject) NULL);
+	jniEnv->DeleteLocalRef(target);
+	return success;
+}
+
+bool BigDataViewer::renderRegion( int* data, int x, int y, int width, int height, double screenScale, const BigDataViewerStateDelta& delta, const BigDataViewerSourceUpdate* sourceUpdates )
+{
+	PackedStateDelta packed(delta, sourceUpdates);
+	JNIEnv* jniEnv = getJniEnv();
+	jobject target = jniEnv->NewDirectByteBuffer(data, 4 * (jlong) (int) (screenScale * width) * (int) (screenScale * height));
+	jobject buffer = packed.newDirectByteBuffer(jniEnv);
+	bool success = jniEnv->CallStaticBooleanMethod(BigDataViewerJniClass, renderRegionID, __id, target, x, y, width, height, screenScale, buffer);
+	jniEnv->DeleteLocalRef(buffer);
+	jniEnv->DeleteLocalRef(target);
+	return success;
+}
+
+void BigDataViewer::prefetchRegion( int x, int y, int width, int height, double screenScale )
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, prefetchRegionID, __id, x, y, width, height, screenScale);
+}
+
+/*
+ * Holds the lease on the java ARGBRenderImage of a BigDataViewerBitmap.
+ * For array-backed images, also holds the critical section on the array.
+ */
 class BigDataViewerBitmap::ArrayHandle
 {
 public:
-	ArrayHandle(jintArray dataArray, int* data, JNIEnv* jniEnv)
-		: dataArray(dataArray), data(data), jniEnv(jniEnv)
+	ArrayHandle(int viewerId, jobject renderImage, jintArray dataArray, int* data, JNIEnv* jniEnv)
+		: viewerId(viewerId), renderImage(renderImage), dataArray(dataArray), data(data), jniEnv(jniEnv)
 	{}
 	~ArrayHandle()
 	{
-		jniEnv->ReleasePrimitiveArrayCritical(dataArray, data, JNI_ABORT);
-		theJvm->DetachCurrentThread();
-	}
+		if (dataArray != NULL)
+		{
+			jniEnv->ReleasePrimitiveArrayCritical(dataArray, data, JNI_ABORT);
+			jniEnv->DeleteLocalRef(dataArray);
+		}
+		if (theJvm != NULL)
+		{
+			JNIEnv* env = getJniEnv();
+			env->CallStaticVoidMethod(BigDataViewerJniClass, releaseRenderedBitmapID, viewerId, renderImage);
+			env->DeleteGlobalRef(renderImage);
+		}
+	}
+	static BigDataViewerBitmap* createBitmap(JNIEnv* jniEnv, int viewerId, jobject localRenderImage);
+	int viewerId;
+	jobject renderImage;
 	jintArray dataArray;
 	int* data;
 	JNIEnv* jniEnv;
 };
 
-BigDataViewerBitmap* BigDataViewer::getRenderedBitmap()
+/*
+ * Create a BigDataViewerBitmap for a leased ARGBRenderImage.
+ */
+BigDataViewerBitmap* BigDataViewerBitmap::ArrayHandle::createBitmap(JNIEnv* jniEnv, int viewerId, jobject localRenderImage)
 {
-	JNIEnv* jniEnv;
-	theJvm->AttachCurrentThread((void**)&jniEnv, NULL);
-	jclass BigDataViewerJniClass = jniEnv->FindClass("bdv/BigDataViewerJni");
-	if (BigDataViewerJniClass == NULL)
-	{
-		cerr << "Unable to locate class: bdv/BigDataViewerJni" << endl;
-		return NULL;
-	}
-	jclass ARGBRenderImageClass = jniEnv->FindClass("bdv/ARGBRenderImage");
-	if (ARGBRenderImageClass == NULL)
-	{
-		cerr << "Unable to locate class: bdv/ARGBRenderImage" << endl;
-		return NULL;
-	}
-	jmethodID getRenderedBitmapID = jniEnv->GetStaticMethodID(BigDataViewerJniClass, "getRenderedBitmap", "(I)Lbdv/ARGBRenderImage;");
-	if (getRenderedBitmapID == NULL)
-	{
-		cerr << "Unable to locate method: getRenderedBitmap()" << endl;
-		return NULL;
-	}
-	jmethodID getWidthID = jniEnv->GetMethodID(ARGBRenderImageClass, "getWidth", "()I");
-	if (getWidthID == NULL)
-	{
-		cerr << "Unable to locate method: getWidth()" << endl;
+	if (localRenderImage == NULL)
 		return NULL;
-	}
-	jmethodID getHeightID = jniEnv->GetMethodID(ARGBRenderImageClass, "getHeight", "()I");
-	if (getHeightID == NULL)
-	{
-		cerr << "Unable to locate method: getHeight()" << endl;
-		return NULL;
-	}
-	jmethodID getDataID = jniEnv->GetMethodID(ARGBRenderImageClass, "getData", "()[I");
-	if (getDataID == NULL)
-	{
-		cerr << "Unable to locate method: getData()" << endl;
-		return NULL;
-	}
-	jmethodID isCompleteID = jniEnv->GetMethodID(ARGBRenderImageClass, "isComplete", "()Z");
-	if (isCompleteID == NULL)
+
+	jobject renderImage = jniEnv->NewGlobalRef(localRenderImage);
+	jniEnv->DeleteLocalRef(localRenderImage);
+	int width = jniEnv->CallIntMethod(renderImage, getWidthID);
+	int height = jniEnv->CallIntMethod(renderImage, getHeightID);
+	bool isComplete = jniEnv->CallBooleanMethod(renderImage, isCompleteID);
+
+	jobject buffer = jniEnv->CallObjectMethod(renderImage, getBufferID);
+	if (buffer != NULL)
 	{
-		cerr << "Unable to locate method: isComplete()" << endl;
-		return NULL;
+		// direct buffer: the address is stable for as long as we hold renderImage.
+		int* data = (int*) jniEnv->GetDirectBufferAddress(buffer);
+		jniEnv->DeleteLocalRef(buffer);
+		return new BigDataViewerBitmap(width, height, data, isComplete, new BigDataViewerBitmap::ArrayHandle(viewerId, renderImage, NULL, data, jniEnv));
 	}
-
-	jobject renderImage = jniEnv->CallStaticObjectMethod(BigDataViewerJniClass, getRenderedBitmapID, __id);
-	if (renderImage != NULL)
+	else
 	{
-		int width = jniEnv->CallIntMethod(renderImage, getWidthID);
-		int height = jniEnv->CallIntMethod(renderImage, getHeightID);
 		jintArray dataArray = (jintArray) jniEnv->CallObjectMethod(renderImage, getDataID);
-		bool isComplete = jniEnv->CallBooleanMethod(renderImage, isCompleteID);
 		jboolean isCopy;
 		int* data = (int*) jniEnv->GetPrimitiveArrayCritical(dataArray, &isCopy);
 //		cout << "isCopy = " << (isCopy ? "true" : "false" ) << endl;
-		return new BigDataViewerBitmap(width, height, data, isComplete, new BigDataViewerBitmap::ArrayHandle(dataArray, data, jniEnv));
-	}
-	else
-	{
-		theJvm->DetachCurrentThread();
-		return NULL;
+		return new BigDataViewerBitmap(width, height, data, isComplete, new BigDataViewerBitmap::ArrayHandle(viewerId, renderImage, dataArray, data, jniEnv));
 	}
 }
 
+BigDataViewerBitmap* BigDataViewer::getRenderedBitmap()
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jobject renderImage = jniEnv->CallStaticObjectMethod(BigDataViewerJniClass, leaseRenderedBitmapID, __id);
+	return BigDataViewerBitmap::ArrayHandle::createBitmap(jniEnv, __id, renderImage);
+}
+
+BigDataViewerBitmap* BigDataViewer::waitForFrame(long timeoutMs, bool requireComplete)
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jobject renderImage = jniEnv->CallStaticObjectMethod(BigDataViewerJniClass, waitForFrameID, __id, (jlong) timeoutMs, (jboolean) requireComplete);
+	return BigDataViewerBitmap::ArrayHandle::createBitmap(jniEnv, __id, renderImage);
+}
+
+void BigDataViewer::setFrameListener(BigDataViewerFrameListener callback, void* userdata)
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, setFrameListenerID, __id, (jlong) (intptr_t) callback, (jlong) (intptr_t) userdata);
+}
+
+int BigDataViewer::renderPath(const double* transforms, const int* timepoints, int numFrames, BigDataViewerFrameListener callback, void* userdata, bool prefetch)
+{
+	if (numFrames < 0)
+		return -1;
+	JNIEnv* jniEnv = getJniEnv();
+	jdoubleArray transformsArray = jniEnv->NewDoubleArray(12 * numFrames);
+	jniEnv->SetDoubleArrayRegion(transformsArray, 0, 12 * numFrames, transforms);
+	jintArray timepointsArray = NULL;
+	if (timepoints != NULL)
+	{
+		timepointsArray = jniEnv->NewIntArray(numFrames);
+		jniEnv->SetIntArrayRegion(timepointsArray, 0, numFrames, timepoints);
+	}
+	int numRendered = jniEnv->CallStaticIntMethod(BigDataViewerJniClass, renderPathID, __id, transformsArray, timepointsArray, (jboolean) prefetch, (jlong) (intptr_t) callback, (jlong) (intptr_t) userdata);
+	if (timepointsArray != NULL)
+		jniEnv->DeleteLocalRef(timepointsArray);
+	jniEnv->DeleteLocalRef(transformsArray);
+	return numRendered;
+}
+
+void BigDataViewer::setMotionPrediction(int numPredictedSteps)
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, setMotionPredictionID, __id, numPredictedSteps);
+}
+
+void BigDataViewer::getPredictionStats(long& numPredictions, long& numHits)
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jlongArray statsArray = jniEnv->NewLongArray(2);
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, getPredictionStatsID, __id, statsArray);
+	jlong stats[2];
+	jniEnv->GetLongArrayRegion(statsArray, 0, 2, stats);
+	jniEnv->DeleteLocalRef(statsArray);
+	numPredictions = (long) stats[0];
+	numHits = (long) stats[1];
+}
+
+void BigDataViewer::startPlayback(double fps, int firstTimepoint, int lastTimepoint, bool forward, int readAhead)
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, startPlaybackID, __id, fps, (jboolean) forward, firstTimepoint, lastTimepoint, readAhead);
+}
+
+void BigDataViewer::stopPlayback()
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, stopPlaybackID, __id);
+}
+
+void BigDataViewer::getPlaybackStats(long& numFramesShown, long& numFramesDropped)
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jlongArray statsArray = jniEnv->NewLongArray(2);
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, getPlaybackStatsID, __id, statsArray);
+	jlong stats[2];
+	jniEnv->GetLongArrayRegion(statsArray, 0, 2, stats);
+	jniEnv->DeleteLocalRef(statsArray);
+	numFramesShown = (long) stats[0];
+	numFramesDropped = (long) stats[1];
+}
+
+void BigDataViewer::setIoBudget(const long* budgetNanos, int numLevels)
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jlongArray budgetArray = jniEnv->NewLongArray(numLevels);
+	jlong* budget = jniEnv->GetLongArrayElements(budgetArray, NULL);
+	for (int i = 0; i < numLevels; ++i)
+		budget[i] = budgetNanos[i];
+	jniEnv->ReleaseLongArrayElements(budgetArray, budget, 0);
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, setIoBudgetID, __id, budgetArray);
+	jniEnv->DeleteLocalRef(budgetArray);
+}
+
+int BigDataViewer::getIoBudget(long* budgetNanos, int maxLevels)
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jlongArray budgetArray = jniEnv->NewLongArray(maxLevels);
+	int numLevels = jniEnv->CallStaticIntMethod(BigDataViewerJniClass, getIoBudgetID, __id, budgetArray);
+	jlong* budget = jniEnv->GetLongArrayElements(budgetArray, NULL);
+	for (int i = 0; i < maxLevels && i < numLevels; ++i)
+		budgetNanos[i] = (long) budget[i];
+	jniEnv->ReleaseLongArrayElements(budgetArray, budget, JNI_ABORT);
+	jniEnv->DeleteLocalRef(budgetArray);
+	return numLevels;
+}
+
+void BigDataViewer::setAdaptiveIoBudget(long targetNanos)
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, setAdaptiveIoBudgetID, __id, (jlong) targetNanos);
+}
+
+void BigDataViewer::getAdaptiveIoBudgetTiming(long& lastFrameNanos, long& lastIoNanos)
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jlongArray statsArray = jniEnv->NewLongArray(2);
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, getAdaptiveIoBudgetTimingID, __id, statsArray);
+	jlong stats[2];
+	jniEnv->GetLongArrayRegion(statsArray, 0, 2, stats);
+	jniEnv->DeleteLocalRef(statsArray);
+	lastFrameNanos = (long) stats[0];
+	lastIoNanos = (long) stats[1];
+}
+
+void BigDataViewer::setPrefetchCells(bool prefetchCells)
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, setPrefetchCellsID, __id, (jboolean) prefetchCells);
+}
+
+void BigDataViewer::setFocusPoint(double x, double y)
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, setFocusPointID, __id, (jdouble) x, (jdouble) y);
+}
+
+void BigDataViewer::getStats(BigDataViewerStats& stats)
+{
+	// BigDataViewerStats consists of int64_t only, in the order of RenderStats.getStats()
+	const int n = sizeof(BigDataViewerStats) / sizeof(jlong);
+	static_assert(sizeof(BigDataViewerStats) == n * sizeof(jlong) && sizeof(int64_t) == sizeof(jlong), "BigDataViewerStats must be laid out as an array of jlong");
+	JNIEnv* jniEnv = getJniEnv();
+	jlongArray statsArray = jniEnv->NewLongArray(n);
+	jniEnv->CallStaticIntMethod(BigDataViewerJniClass, getStatsID, __id, statsArray);
+	jniEnv->GetLongArrayRegion(statsArray, 0, n, (jlong*) &stats);
+	jniEnv->DeleteLocalRef(statsArray);
+	if (stats.numScreenScales > BDV_MAX_STATS_SCREEN_SCALES)
+		stats.numScreenScales = BDV_MAX_STATS_SCREEN_SCALES;
+}
+
+void BigDataViewer::resetStats()
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, resetStatsID, __id);
+}
+
+void bdvSetRenderBufferBudget(int64_t bytes)
+{
+	JNIEnv* jniEnv = getJniEnv();
+	jniEnv->CallStaticVoidMethod(BigDataViewerJniClass, setRenderBufferBudgetID, (jlong) bytes);
+}
+
+void bdvGetRenderBufferOccupancy(BigDataViewerArenaStats& stats)
+{
+	// BigDataViewerArenaStats consists of int64_t only, in the order of RenderBufferArena.getOccupancy()
+	const int n = sizeof(BigDataViewerArenaStats) / sizeof(jlong);
+	static_assert(sizeof(BigDataViewerArenaStats) == n * sizeof(jlong) && sizeof(int64_t) == sizeof(jlong), "BigDataViewerArenaStats must be laid out as an array of jlong");
+	JNIEnv* jniEnv = getJniEnv();
+	jlongArray statsArray = jniEnv->NewLongArray(n);
+	jniEnv->CallStaticIntMethod(BigDataViewerJniClass, getRenderBufferOccupancyID, statsArray);
+	jniEnv->GetLongArrayRegion(statsArray, 0, n, (jlong*) &stats);
+	jniEnv->DeleteLocalRef(statsArray);
+}
+
 BigDataViewerBitmap::~BigDataViewerBitmap()
 {
 	delete handle;
@@ -511,12 +794,46 @@ unsigned long bdvStartJvm (const char* memOption, const char* jarPath)
 	if (res != JNI_OK)
 		return 3;
 
+	if (!initJniHandles(jniEnv))
+		return 4;
+
 	return 0;
 }
 
+void bdvDetachCurrentThread()
+{
+	if (theJvm == NULL)
+		return;
+
+	pthread_once(&attachedThreadKeyOnce, createAttachedThreadKey);
+	if (pthread_getspecific(attachedThreadKey) != NULL)
+	{
+		pthread_setspecific(attachedThreadKey, NULL);
+		theJvm->DetachCurrentThread();
+	}
+}
+
 unsigned long bdvStopJvm()
 {
-    theJvm->DetachCurrentThread();
-    theJvm->DestroyJavaVM();
-    return 0;
+	JNIEnv* jniEnv = getJniEnv();
+	releaseJniHandles(jniEnv);
+	pthread_once(&attachedThreadKeyOnce, createAttachedThreadKey);
+	pthread_setspecific(attachedThreadKey, NULL);
+	theJvm->DetachCurrentThread();
+	theJvm->DestroyJavaVM();
+	theJvm = NULL;
+	return 0;
+}
+
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* reserved)
+{
+	JNIEnv* jniEnv;
+	if (vm->GetEnv((void**)&jniEnv, JNI_VERSION_1_6) != JNI_OK)
+		return JNI_ERR;
+
+	theJvm = vm;
+	if (!initJniHandles(jniEnv))
+		return JNI_ERR;
+
+	return JNI_VERSION_1_6;
 }
@@ -1,9 +1,33 @@
+#include <stdint.h>
 
 unsigned long bdvStartJvm(const char* memOption = 0, const char* jarPath = 0);
 
 unsigned long bdvStopJvm();
 
+/*
+ * Native threads are attached to the JVM when they first call a BigDataViewer
+ * method, and are detached automatically when they exit. Threads that are
+ * reused for other work (e.g., pooled threads) can call this to detach early.
+ */
+void bdvDetachCurrentThread();
 
+
+/*
+ * A rendered image, obtained by BigDataViewer::getRenderedBitmap().
+ *
+ * While the bitmap exists, the renderer does not write to its pixel data.
+ * (Refinements of the current frame, as missing data is loaded, are published
+ * as new images.) Deleting the bitmap releases it.
+ *
+ * If the BigDataViewer was constructed with BDV_DIRECT_BUFFERS, data points to
+ * off-heap memory. The bitmap may then be kept across other BigDataViewer
+ * calls and deleted on any thread.
+ *
+ * Otherwise, data points into a java array obtained by
+ * GetPrimitiveArrayCritical(). Until the bitmap is deleted, no BigDataViewer
+ * methods (or any other JNI functions) must be called, and the bitmap must be
+ * deleted on the thread that called getRenderedBitmap().
+ */
 class BigDataViewerBitmap
 {
 public:
@@ -23,15 +47,191 @@ private:
 };
 
 
+/*
+ * Callback for BigDataViewer::setFrameListener(). Parameters are:
+ * - the userdata pointer given to setFrameListener().
+ * - pixel data (ARGB) of the new or updated image.
+ * - width and height of the image.
+ * - whether the image is complete (full resolution, all data loaded).
+ * - the 3x4 viewer transform with which the image was rendered.
+ *
+ * The callback is invoked on the painter thread of the viewer, whenever a new
+ * image has been rendered or the current image has been updated. The data and
+ * m3x4 pointers are only valid until the callback returns. (Use
+ * BigDataViewer::getRenderedBitmap() to hold on to an image.) Rendering is
+ * stalled while the callback runs, so it should return quickly.
+ *
+ * If the BigDataViewer was not constructed with BDV_DIRECT_BUFFERS, data points
+ * into a java array obtained by GetPrimitiveArrayCritical(), and the callback
+ * must not call any BigDataViewer methods (or any other JNI functions).
+ */
+typedef void (*BigDataViewerFrameListener)(void* userdata, const int* data, int width, int height, bool isComplete, const double* m3x4);
+
+
+/*
+ * Flags of BigDataViewerStateDelta, selecting which fields are applied.
+ */
+#define BDV_SET_TRANSFORM 1
+#define BDV_SET_TIMEPOINT 2
+#define BDV_SET_INTERPOLATION 4
+
+/*
+ * Flags of BigDataViewerSourceUpdate, selecting which fields are applied.
+ */
+#define BDV_SET_VISIBLE 1
+#define BDV_SET_PARAMS 2
+
+/*
+ * A batch of changes for BigDataViewer::applyState().
+ * Only the fields selected by flags are applied.
+ */
+struct BigDataViewerStateDelta
+{
+	int flags;            // combination of BDV_SET_TRANSFORM, BDV_SET_TIMEPOINT, BDV_SET_INTERPOLATION
+	int timepoint;
+	int interpolation;    // 0 = nearest-neighbor, 1 = linear
+	int numSourceUpdates; // number of BigDataViewerSourceUpdate passed to applyState()
+	double transform[12]; // 3x4 viewer transform, as in setTransform()
+};
+
+/*
+ * Changes to one source, for BigDataViewer::applyState().
+ * Only the fields selected by flags are applied.
+ */
+struct BigDataViewerSourceUpdate
+{
+	int source;
+	int flags;            // combination of BDV_SET_VISIBLE, BDV_SET_PARAMS
+	int visible;          // 0 = hidden, 1 = visible
+	int min;              // display range and color, as in setSourceParams()
+	int max;
+	int argb;
+};
+
+
+/*
+ * Summary of a histogram in BigDataViewerStats. Times are in nanoseconds.
+ */
+struct BigDataViewerHistogram
+{
+	int64_t count;
+	int64_t p50;
+	int64_t p99;
+	int64_t max;
+};
+
+/*
+ * Maximum number of screen scales reported in BigDataViewerStats.
+ */
+#define BDV_MAX_STATS_SCREEN_SCALES 8
+
+/*
+ * Rendering metrics of a viewer, for BigDataViewer::getStats().
+ * The cache does not count hits and misses of individual cells. Instead, a
+ * frame that is complete on its first full-resolution pass (all data was
+ * cached) counts as a hit, and a frame that needed more passes as a miss.
+ */
+struct BigDataViewerStats
+{
+	int64_t numFrames;                         // new frames rendered
+	int64_t numCancelled;                      // rendering passes cancelled by a change
+	int64_t maxScreenScaleIndex;               // coarsest screen scale, rendered first after a change
+	int64_t numCompleteOnFirstPass;            // frame cache hits
+	int64_t numIncompleteOnFirstPass;          // frame cache misses
+	BigDataViewerHistogram timeToFirstFrame;    // from change to first image
+	BigDataViewerHistogram timeToCompleteFrame; // from change to complete full-resolution image
+	BigDataViewerHistogram ioWait;              // time each pass waited for IO (empty with shared threads)
+	BigDataViewerHistogram passesUntilValid;    // full-resolution passes until complete (not a time)
+	int64_t numScreenScales;
+	BigDataViewerHistogram renderTime[BDV_MAX_STATS_SCREEN_SCALES]; // per pass, for each screen scale
+};
+
+
+/*
+ * Occupancy of the render-buffer arena, for bdvGetRenderBufferOccupancy().
+ * Sizes are in bytes.
+ */
+struct BigDataViewerArenaStats
+{
+	int64_t budget;          // as set by bdvSetRenderBufferBudget()
+	int64_t allocated;       // buffers in use and kept for reuse
+	int64_t inUse;
+	int64_t idle;            // buffers kept for reuse
+	int64_t numAllocated;    // buffers allocated
+	int64_t numReused;       // requests served with a buffer kept for reuse
+	int64_t numDropped;      // buffers kept for reuse that were dropped to meet the budget
+	int64_t numDenied;       // requests denied because of the budget
+};
+
+/*
+ * All viewers acquire their screen images and per-source render buffers from
+ * one arena, and give them back when they are resized or deleted (and the
+ * per-source buffers whenever a frame is complete). Buffers that are given
+ * back are reused by viewers of the same size.
+ *
+ * bdvSetRenderBufferBudget() limits the memory of all these buffers (by
+ * default, it is unlimited). Buffers kept for reuse are dropped to meet the
+ * budget. If that is not enough, a viewer does not render until other viewers
+ * give back buffers. The occupancy is also available from JMX, as MBean
+ * bdv:type=RenderBufferArena.
+ */
+void bdvSetRenderBufferBudget(int64_t bytes);
+
+void bdvGetRenderBufferOccupancy(BigDataViewerArenaStats& stats);
+
+
+/*
+ * Flags for the BigDataViewer constructors.
+ *
+ * BDV_DIRECT_BUFFERS:
+ *   Render into off-heap memory (see BigDataViewerBitmap). Passing true as
+ *   flags is the same as BDV_DIRECT_BUFFERS.
+ * BDV_SHARED_RENDERING:
+ *   Render on a pool of threads that is shared by all viewers (and sized to
+ *   the number of cores), instead of num_rendering_threads threads of this
+ *   viewer. Viewers with pending work are served in turn.
+ *   num_rendering_threads then only determines into how many tasks rendering
+ *   is split.
+ * BDV_SHARED_PAINTER:
+ *   Drive rendering from a small pool of painter threads that is shared by
+ *   all viewers, instead of a painter thread per viewer. Idle viewers then
+ *   cost no threads.
+ * BDV_TILED_ACCUMULATION:
+ *   Render multiple visible sources tile by tile, summing them into the
+ *   screen image directly, instead of rendering each source into a full-size
+ *   image first. Memory then does not grow with the number of sources.
+ * BDV_PROGRESSIVE_RENDERING:
+ *   Render tile by tile, nearest to the focus point (see setFocusPoint())
+ *   first. Passes after the first pass of a frame (finer screen scales, and
+ *   refinement as data is loaded) are published a few times while they are
+ *   rendered, as incomplete frames on top of the previous pass, so that the
+ *   region of interest sharpens first. This also applies to a single visible
+ *   source, which then loses the per-pixel masks of the default renderer:
+ *   refinement passes re-render whole tiles that are not done, which costs
+ *   more while data is loading.
+ */
+#define BDV_DIRECT_BUFFERS 1
+#define BDV_SHARED_RENDERING 2
+#define BDV_SHARED_PAINTER 4
+#define BDV_TILED_ACCUMULATION 8
+#define BDV_PROGRESSIVE_RENDERING 16
+
+
 class BigDataViewer
 {
 public:
-	BigDataViewer(const char* sURL, int width, int height, double* screenscales, int screenscales_size, int num_rendering_threads);
+	BigDataViewer(const char* sURL, int width, int height, double* screenscales, int screenscales_size, int num_rendering_threads, int flags = 0);
 
-	BigDataViewer(const BigDataViewer* shareCacheWith, int width, int height, double* screenscales, int screenscales_size, int num_rendering_threads);
+	BigDataViewer(const BigDataViewer* shareCacheWith, int width, int height, double* screenscales, int screenscales_size, int num_rendering_threads, int flags = 0);
 
 	~BigDataViewer();
 
+	/*
+	 * The id of this viewer in BigDataViewerJni, which the static java
+	 * methods take as first argument.
+	 */
+	int getId() const;
+
 	void setTransform(double* m3x4);
 
 	double* getTransform();
@@ -48,6 +248,15 @@ public:
 
 	int getSourceParamsColor(int source);
 
+	/*
+	 * Change the canvas size to width x height. The transform, sources, and
+	 * cached data are kept, and a frame of the new size is rendered right
+	 * away, starting at the coarsest screen scale. This is much cheaper than
+	 * destroying and constructing the viewer when a client window is resized.
+	 * width and height must be positive, otherwise the call is ignored.
+	 */
+	void resize(int width, int height);
+
 	void setTimepoint(int timepoint);
 
 	void setLinearInterpolation(bool enableLinearInterpolation);
@@ -56,8 +265,172 @@ public:
 
 	void setSourceParams(int source, int min, int max, int argb);
 
+	/*
+	 * Apply several changes at once: the transform, timepoint, and
+	 * interpolation selected in delta, and delta.numSourceUpdates changes to
+	 * source visibility and parameters from the sourceUpdates array.
+	 * This is one JNI call, and triggers only one repaint (whereas each of the
+	 * individual setters triggers its own repaint).
+	 */
+	void applyState(const BigDataViewerStateDelta& delta, const BigDataViewerSourceUpdate* sourceUpdates = 0);
+
+	/*
+	 * Render the current state at full resolution into data, which must hold
+	 * width * height ARGB pixels, and return when done. Unlike the regular
+	 * progressive rendering, this does not render coarse previews first, and
+	 * waits until all data is loaded. Changes made before by the setters or
+	 * applyState() are included. width and height are usually the canvas
+	 * size (given to the constructor or resize()). Other sizes are scaled to show the same area.
+	 * Returns false if rendering failed.
+	 */
+	bool renderNow(int* data, int width, int height);
+
+	/*
+	 * Apply delta and sourceUpdates as applyState() does, then render as
+	 * renderNow(data, width, height) does.
+	 */
+	bool renderNow(int* data, int width, int height, const BigDataViewerStateDelta& delta, const BigDataViewerSourceUpdate* sourceUpdates = 0);
+
+	/*
+	 * Render the rectangle of the canvas at (x, y) of size width x height
+	 * into data, as renderNow() does. data must hold
+	 * (int) (screenScale * width) x (int) (screenScale * height) ARGB pixels.
+	 * Only the data visible in the rectangle is loaded, so this is cheaper
+	 * than renderNow() for small rectangles, e.g., a magnified inset
+	 * (screenScale > 1). Returns false if rendering failed.
+	 */
+	bool renderRegion(int* data, int x, int y, int width, int height, double screenScale);
+
+	/*
+	 * Apply delta and sourceUpdates as applyState() does, then render as
+	 * renderRegion(data, x, y, width, height, screenScale) does.
+	 */
+	bool renderRegion(int* data, int x, int y, int width, int height, double screenScale, const BigDataViewerStateDelta& delta, const BigDataViewerSourceUpdate* sourceUpdates = 0);
+
+	/*
+	 * Start loading the data needed for renderRegion() with the same
+	 * arguments in the background, and return immediately.
+	 */
+	void prefetchRegion(int x, int y, int width, int height, double screenScale);
+
 	BigDataViewerBitmap* getRenderedBitmap();
 
+	/*
+	 * Block until a new image has been rendered (or the current image has been
+	 * updated), and return it. Returns NULL if timeoutMs milliseconds elapse
+	 * first. A negative timeoutMs waits indefinitely.
+	 * If requireComplete is true, only return once a complete image (full
+	 * resolution, all data loaded) is available.
+	 */
+	BigDataViewerBitmap* waitForFrame(long timeoutMs, bool requireComplete = false);
+
+	/*
+	 * Set a callback to be invoked whenever a new image has been rendered or
+	 * the current image has been updated. Replaces the previously set
+	 * callback. A NULL callback removes the listener.
+	 */
+	void setFrameListener(BigDataViewerFrameListener callback, void* userdata);
+
+	/*
+	 * Render numFrames frames along a camera path (e.g., for a movie) at full
+	 * resolution, as renderNow() does, and pass each completed frame to
+	 * callback on the calling thread, in order. transforms holds 12 values
+	 * (3x4 viewer transform) per frame. timepoints holds the timepoint of
+	 * each frame, or is NULL to render all frames at the current timepoint.
+	 * If prefetch is true, the data for the next frame is loaded while the
+	 * current frame is rendered.
+	 * Frames are rendered into off-heap memory, so the callback may call other
+	 * BigDataViewer methods. data is only valid until the callback returns.
+	 * Returns the number of frames rendered, or -1 if numFrames is negative
+	 * or there is no render buffer budget left for the frame buffer.
+	 */
+	int renderPath(const double* transforms, const int* timepoints, int numFrames, BigDataViewerFrameListener callback, void* userdata, bool prefetch = true);
+
+	/*
+	 * While the view is moving, the next viewer transforms are extrapolated
+	 * from the recent transform changes, and data for them is prefetched with
+	 * low priority. Set how many transforms ahead to predict (default 2).
+	 * 0 disables prediction.
+	 */
+	void setMotionPrediction(int numPredictedSteps);
+
+	/*
+	 * Get how often the next transform was predicted, and how often the
+	 * prediction was a hit (all canvas corners within 16 pixels). The hit
+	 * rate is numHits / numPredictions.
+	 */
+	void getPredictionStats(long& numPredictions, long& numHits);
+
+	/*
+	 * Start time-lapse playback: show fps timepoints per second, looping
+	 * from firstTimepoint to lastTimepoint (inclusive; -1 is the last timepoint
+	 * of the dataset), forward or backward. Playback starts at the current
+	 * timepoint. Pacing happens on a java thread, so this returns immediately.
+	 * Data for the next readAhead timepoints is prefetched for the current
+	 * view. Other changes (e.g., setTransform()) can be made during playback.
+	 * Restarts playback if already playing.
+	 */
+	void startPlayback(double fps, int firstTimepoint = 0, int lastTimepoint = -1, bool forward = true, int readAhead = 4);
+
+	void stopPlayback();
+
+	/*
+	 * Get the number of timepoints for which a complete image was rendered in
+	 * time, and the number of timepoints that were dropped (no complete image
+	 * before the next timepoint was due), since playback was started.
+	 */
+	void getPlaybackStats(long& numFramesShown, long& numFramesDropped);
+
+	/*
+	 * Set the IO time budget: how long rendering a frame may block waiting for
+	 * data to load, per priority level (highest priority first), in
+	 * nanoseconds. The default is { 100000000, 10000000 } (100 ms, 10 ms).
+	 * Larger budgets give more complete first frames on slow datasets, but
+	 * make them late.
+	 */
+	void setIoBudget(const long* budgetNanos, int numLevels);
+
+	/*
+	 * Get the current IO time budget (up to maxLevels values) into
+	 * budgetNanos. Returns the number of priority levels of the budget.
+	 */
+	int getIoBudget(long* budgetNanos, int maxLevels);
+
+	/*
+	 * Adjust the IO time budget automatically, such that the first frame after
+	 * each change is rendered within targetNanos nanoseconds. 0 keeps the
+	 * budget fixed. Use getIoBudget() to see the chosen budget.
+	 */
+	void setAdaptiveIoBudget(long targetNanos);
+
+	/*
+	 * Get the render time and the IO time of the last frame that the adaptive
+	 * IO time budget was adjusted for (zeros if the budget is fixed).
+	 */
+	void getAdaptiveIoBudgetTiming(long& lastFrameNanos, long& lastIoNanos);
+
+	/*
+	 * Set whether to prefetch the data for a new frame before rendering it
+	 * (default true).
+	 */
+	void setPrefetchCells(bool prefetchCells);
+
+	/*
+	 * Set the point (in canvas coordinates) around which rendering starts, if
+	 * the viewer was constructed with BDV_PROGRESSIVE_RENDERING. NaN means the
+	 * center of the canvas (the default).
+	 */
+	void setFocusPoint(double x, double y);
+
+	/*
+	 * Get the rendering metrics of this viewer, accumulated since it was
+	 * constructed or since resetStats(). The same metrics are available from
+	 * JMX, as MBean bdv:type=RenderStats,id=<id>.
+	 */
+	void getStats(BigDataViewerStats& stats);
+
+	void resetStats();
+
 private:
 	int __id;
 };
@@ -0,0 +1,329 @@
+#include <jni.h>
+#include <time.h>
+#include <math.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <pthread.h>
+#include <algorithm>
+#include <iostream>
+#include <vector>
+
+#include "bdvlib.h"
+
+using namespace std;
+
+/*
+ * Load test with many viewers driven by many native clients, for sizing
+ * hosts.
+ *
+ * usage: loadtest <dataset> [viewers] [threads] [seconds] [interval in ms] [share cache] [flags] [width] [height]
+ *
+ * The dataset is an xml file or url, or a synthetic dataset spec that needs
+ * no files or servers, e.g. "synthetic:setups=3,timepoints=10,latency=500"
+ * (three overlapping 16-bit channels, ten timepoints, and 500 us to load each
+ * cell; see bdv.SyntheticImgLoader.parseSpec for all keys).
+ *
+ * Opens the given number of viewers (default 16) of width x height pixels
+ * (default 640x480) on the dataset, with the given constructor flags
+ * (default 0; e.g. 6 = BDV_SHARED_RENDERING | BDV_SHARED_PAINTER). If share
+ * cache is 1 (default), all viewers after the first are constructed with
+ * shareCacheWith the first one, otherwise every viewer opens the dataset on
+ * its own.
+ *
+ * Viewers are divided among the given number of native threads (default 4;
+ * at most one thread per viewer). For the given time (default 30 s), each
+ * thread takes its viewers in turn and makes a random change with
+ * applyState(): the transform is always rotated, zoomed, and shifted around
+ * the initial view, the timepoint is changed with probability 1/4, and the
+ * visibility of a random source (other than source 0) is toggled with
+ * probability 1/4. Then the thread sleeps for the given interval (default
+ * 33 ms), so each viewer is changed every interval * (viewers per thread) ms.
+ *
+ * For every change, the time to the first frame and to the first complete
+ * frame rendered with the new transform is recorded, unless the next change
+ * comes first. Prints frames per second (new frames rendered by all viewers),
+ * and percentiles of time-to-first-frame and time-to-complete-frame.
+ */
+
+static double nowNanos()
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec * 1e9 + ts.tv_nsec;
+}
+
+/*
+ * The change that a viewer is currently expected to render, and the times
+ * recorded for past changes. Written by the driving thread and by the frame
+ * listener (on the painter thread of the viewer).
+ */
+struct ViewerLoad
+{
+	BigDataViewer* bdv;
+	double initialTransform[12];
+	int numSources;
+	int numTimepoints;
+
+	pthread_mutex_t lock;
+	double expectedTransform[12];
+	double requestTime;    // 0 if no change is pending
+	bool firstFrameSeen;
+	long numChanges;
+	long numSuperseded;    // changes that got no complete frame before the next change
+	vector<double> timeToFirstFrame;
+	vector<double> timeToCompleteFrame;
+};
+
+static void frameArrived(void* userdata, const int* data, int width, int height, bool isComplete, const double* m3x4)
+{
+	ViewerLoad* load = (ViewerLoad*) userdata;
+	const double now = nowNanos();
+	pthread_mutex_lock(&load->lock);
+	if (load->requestTime != 0 && memcmp(m3x4, load->expectedTransform, 12 * sizeof(double)) == 0)
+	{
+		const double millis = (now - load->requestTime) / 1e6;
+		if (!load->firstFrameSeen)
+		{
+			load->timeToFirstFrame.push_back(millis);
+			load->firstFrameSeen = true;
+		}
+		if (isComplete)
+		{
+			load->timeToCompleteFrame.push_back(millis);
+			load->requestTime = 0;
+		}
+	}
+	pthread_mutex_unlock(&load->lock);
+}
+
+/*
+ * Set m3x4 to the transform t, rotated by angle and scaled by scale
+ * about the canvas point (cx, cy), then shifted by (dx, dy).
+ */
+static void transformAround(const double* t, double* m3x4, double angle, double scale, double cx, double cy, double dx, double dy)
+{
+	const double c = scale * cos(angle);
+	const double s = scale * sin(angle);
+	for (int j = 0; j < 4; ++j)
+	{
+		m3x4[j] = c * t[j] - s * t[4 + j];
+		m3x4[4 + j] = s * t[j] + c * t[4 + j];
+		m3x4[8 + j] = t[8 + j];
+	}
+	m3x4[3] += cx - (c * cx - s * cy) + dx;
+	m3x4[7] += cy - (s * cx + c * cy) + dy;
+}
+
+static double randomUniform(unsigned int* seed)
+{
+	return rand_r(seed) / (RAND_MAX + 1.0);
+}
+
+struct ClientArgs
+{
+	ViewerLoad* loads;
+	int numViewers;
+	int thread;
+	int numThreads;
+	int width;
+	int height;
+	double endNanos;
+	long intervalMicros;
+};
+
+static void* clientThread(void* p)
+{
+	ClientArgs* args = (ClientArgs*) p;
+	unsigned int seed = 1 + args->thread;
+	BigDataViewerStateDelta delta;
+	BigDataViewerSourceUpdate update;
+	for (int i = args->thread; nowNanos() < args->endNanos; )
+	{
+		ViewerLoad* load = &args->loads[i];
+
+		delta.flags = BDV_SET_TRANSFORM;
+		delta.numSourceUpdates = 0;
+		transformAround(load->initialTransform, delta.transform,
+				(randomUniform(&seed) - 0.5) * 0.7853981633974483,
+				0.75 + 0.5 * randomUniform(&seed),
+				args->width / 2.0, args->height / 2.0,
+				(randomUniform(&seed) - 0.5) * args->width / 2,
+				(randomUniform(&seed) - 0.5) * args->height / 2);
+		if (load->numTimepoints > 1 && randomUniform(&seed) < 0.25)
+		{
+			delta.flags |= BDV_SET_TIMEPOINT;
+			delta.timepoint = rand_r(&seed) % load->numTimepoints;
+		}
+		if (load->numSources > 1 && randomUniform(&seed) < 0.25)
+		{
+			update.source = 1 + rand_r(&seed) % (load->numSources - 1);
+			update.flags = BDV_SET_VISIBLE;
+			update.visible = load->bdv->isSourceVisible(update.source) ? 0 : 1;
+			delta.numSourceUpdates = 1;
+		}
+
+		pthread_mutex_lock(&load->lock);
+		if (load->requestTime != 0)
+			++load->numSuperseded;
+		memcpy(load->expectedTransform, delta.transform, 12 * sizeof(double));
+		load->requestTime = nowNanos();
+		load->firstFrameSeen = false;
+		++load->numChanges;
+		pthread_mutex_unlock(&load->lock);
+
+		load->bdv->applyState(delta, &update);
+
+		usleep(args->intervalMicros);
+
+		i += args->numThreads;
+		if (i >= args->numViewers)
+			i = args->thread;
+	}
+	return NULL;
+}
+
+static void printPercentiles(const char* name, vector<double>& millis)
+{
+	cout << name;
+	if (millis.empty())
+	{
+		cout << "no samples" << endl;
+		return;
+	}
+	sort(millis.begin(), millis.end());
+	const size_t n = millis.size();
+	cout << n << " samples, p50 " << millis[n * 50 / 100]
+			<< " ms, p90 " << millis[n * 90 / 100]
+			<< " ms, p99 " << millis[n * 99 / 100]
+			<< " ms, max " << millis[n - 1] << " ms" << endl;
+}
+
+static int loadTest(const char* dataset, int numViewers, int numThreads, double seconds, double intervalMillis, bool shareCache, int flags, int width, int height)
+{
+	double screenscales[] = { 1, 0.5, 0.25, 0.125 };
+	const int numScreenScales = sizeof(screenscales)/sizeof(double);
+	if (numThreads > numViewers)
+		numThreads = numViewers;
+
+	ViewerLoad* loads = new ViewerLoad[numViewers];
+	double openStart = nowNanos();
+	for (int i = 0; i < numViewers; ++i)
+	{
+		ViewerLoad* load = &loads[i];
+		load->bdv = (i == 0 || !shareCache)
+				? new BigDataViewer(dataset, width, height, screenscales, numScreenScales, 1, flags)
+				: new BigDataViewer(loads[0].bdv, width, height, screenscales, numScreenScales, 1, flags);
+		double* t = load->bdv->getTransform();
+		memcpy(load->initialTransform, t, 12 * sizeof(double));
+		delete[] t;
+		load->numSources = load->bdv->getNumSources();
+		load->numTimepoints = load->bdv->getNumTimepoints();
+		pthread_mutex_init(&load->lock, NULL);
+		load->requestTime = 0;
+		load->firstFrameSeen = false;
+		load->numChanges = 0;
+		load->numSuperseded = 0;
+		load->bdv->setFrameListener(frameArrived, load);
+	}
+	cout << numViewers << " viewers of " << width << "x" << height << " opened in " << (nowNanos() - openStart) / 1e9 << " s"
+			<< (shareCache ? ", sharing one cache" : ", separate caches") << ", flags " << flags << endl;
+
+	// let initial rendering finish, then count from here
+	sleep(2);
+	for (int i = 0; i < numViewers; ++i)
+		loads[i].bdv->resetStats();
+
+	ClientArgs* args = new ClientArgs[numThreads];
+	pthread_t* threads = new pthread_t[numThreads];
+	const double start = nowNanos();
+	for (int t = 0; t < numThreads; ++t)
+	{
+		args[t].loads = loads;
+		args[t].numViewers = numViewers;
+		args[t].thread = t;
+		args[t].numThreads = numThreads;
+		args[t].width = width;
+		args[t].height = height;
+		args[t].endNanos = start + seconds * 1e9;
+		args[t].intervalMicros = (long) (intervalMillis * 1000);
+		pthread_create(&threads[t], NULL, clientThread, &args[t]);
+	}
+	for (int t = 0; t < numThreads; ++t)
+		pthread_join(threads[t], NULL);
+	const double elapsedSeconds = (nowNanos() - start) / 1e9;
+
+	int64_t numFrames = 0;
+	int64_t numCancelled = 0;
+	long numChanges = 0;
+	long numSuperseded = 0;
+	vector<double> timeToFirstFrame;
+	vector<double> timeToCompleteFrame;
+	BigDataViewerStats stats;
+	for (int i = 0; i < numViewers; ++i)
+	{
+		ViewerLoad* load = &loads[i];
+		load->bdv->setFrameListener(NULL, NULL);
+		load->bdv->getStats(stats);
+		numFrames += stats.numFrames;
+		numCancelled += stats.numCancelled;
+		pthread_mutex_lock(&load->lock);
+		numChanges += load->numChanges;
+		numSuperseded += load->numSuperseded;
+		timeToFirstFrame.insert(timeToFirstFrame.end(), load->timeToFirstFrame.begin(), load->timeToFirstFrame.end());
+		timeToCompleteFrame.insert(timeToCompleteFrame.end(), load->timeToCompleteFrame.begin(), load->timeToCompleteFrame.end());
+		pthread_mutex_unlock(&load->lock);
+	}
+
+	cout << numThreads << " client threads, " << numChanges << " changes in " << elapsedSeconds << " s ("
+			<< numChanges / elapsedSeconds << " changes/s), " << numSuperseded << " superseded before complete" << endl;
+	cout << "frames/s              " << numFrames / elapsedSeconds << " (" << numFrames / elapsedSeconds / numViewers << " per viewer), "
+			<< numCancelled << " passes cancelled" << endl;
+	printPercentiles("time to first frame   ", timeToFirstFrame);
+	printPercentiles("time to complete frame", timeToCompleteFrame);
+
+	for (int i = numViewers - 1; i >= 0; --i)
+	{
+		delete loads[i].bdv;
+		pthread_mutex_destroy(&loads[i].lock);
+	}
+	delete[] loads;
+	delete[] args;
+	delete[] threads;
+	return timeToFirstFrame.empty() ? 3 : 0;
+}
+
+int main(int argc, char ** argv)
+{
+	if (argc < 2)
+	{
+		cerr << "usage: " << argv[0] << " <dataset> [viewers] [threads] [seconds] [interval in ms] [share cache] [flags] [width] [height]" << endl;
+		return 1;
+	}
+
+	const int numViewers = argc > 2 ? atoi(argv[2]) : 16;
+	const int numThreads = argc > 3 ? atoi(argv[3]) : 4;
+	const double seconds = argc > 4 ? atof(argv[4]) : 30;
+	const double intervalMillis = argc > 5 ? atof(argv[5]) : 33;
+	const bool shareCache = argc > 6 ? atoi(argv[6]) != 0 : true;
+	const int flags = argc > 7 ? atoi(argv[7]) : 0;
+	const int width = argc > 8 ? atoi(argv[8]) : 640;
+	const int height = argc > 9 ? atoi(argv[9]) : 480;
+	if (numViewers < 1 || numThreads < 1)
+	{
+		cerr << "need at least one viewer and one thread" << endl;
+		return 1;
+	}
+
+	if (bdvStartJvm("-Xmx4G", "./jars/") != 0)
+	{
+		cerr << "could not start JVM" << endl;
+		return 2;
+	}
+
+	int result = loadTest(argv[1], numViewers, numThreads, seconds, intervalMillis, shareCache, flags, width, height);
+
+	bdvStopJvm();
+
+	return result;
+}
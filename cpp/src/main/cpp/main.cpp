@@ -1,4 +1,3 @@
-#include <unistd.h>
 #include <png.h>
 #include <iostream>
 #include <sstream>
@@ -56,7 +55,11 @@ int main(int argc, char ** argv)
 		delete t;
 
 		/*
-		 * Set a new transform.
+		 * Set a new transform, and some other parameters.
+		 * There are individual setters for everything (setTransform(), setTimepoint(),
+		 * setSourceVisible(), setSourceParams(), ...), but each of those triggers a repaint.
+		 * applyState() makes all changes at once and triggers only one repaint.
+		 *
 		 * transform is represented as a double array with the 12 elements
 		 * of the upper 3x4 part of a 4x4 3D affine matrix. (without the final [0 0 0 1] row).
 		 */
@@ -64,51 +67,55 @@ int main(int argc, char ** argv)
 				0.48179778451100014, -0.015139443968170565, 0.38703521637412, -49.847175227038235,
 				0.01752952012083952, 0.6179334597195949, 0.0023498766862651197, -18.37203762649213,
 				-0.38693433215697026, 0.009143480324372823, 0.4820298600739718, 326.2586860796611 };
-		bdv.setTransform( t2 );
+		BigDataViewerStateDelta delta;
+		delta.flags = BDV_SET_TRANSFORM | BDV_SET_TIMEPOINT | BDV_SET_INTERPOLATION;
+		for ( int i = 0; i < 12; ++i )
+			delta.transform[ i ] = t2[ i ];
+		delta.timepoint = 5;
+		delta.interpolation = 1;
+		BigDataViewerSourceUpdate sourceUpdates[] = {
+				// source, flags, visible, min, max, argb
+				{ 0, BDV_SET_VISIBLE | BDV_SET_PARAMS, 1, 200, 1080, (int) 0xff00ff00 },
+				{ 1, BDV_SET_VISIBLE | BDV_SET_PARAMS, 1, 200, 1080, (int) 0xffff00ff },
+				{ 2, BDV_SET_VISIBLE | BDV_SET_PARAMS, 1, 200, 1080, (int) 0xff00ffff },
+				{ 3, BDV_SET_VISIBLE, 0, 0, 0, 0 },
+				{ 4, BDV_SET_VISIBLE, 0, 0, 0, 0 },
+				{ 5, BDV_SET_VISIBLE, 0, 0, 0, 0 } };
+		delta.numSourceUpdates = sizeof(sourceUpdates)/sizeof(BigDataViewerSourceUpdate);
+		bdv.applyState( delta, sourceUpdates );
 
 		/*
-		 * Set some other parameters...
-		 */
-		bdv.setLinearInterpolation(true);
-		bdv.setSourceVisible(0, true);
-		bdv.setSourceVisible(1, true);
-		bdv.setSourceVisible(2, true);
-		bdv.setSourceVisible(3, false);
-		bdv.setSourceVisible(4, false);
-		bdv.setSourceVisible(5, false);
-		bdv.setTimepoint(5);
-		bdv.setSourceParams(0, 200, 1080, 0xff00ff00);
-		bdv.setSourceParams(1, 200, 1080, 0xffff00ff);
-		bdv.setSourceParams(2, 200, 1080, 0xff00ffff);
-
-		/*
-		 * Poll rendered images and save them as png.
+		 * Wait for rendered images and save them as png, until the image is complete.
 		 * (Png writing is slightly wrong: red and blue channels are flipped. But who cares...)
 		 */
 		int imgNumber = 1;
-		for ( int i = 0; i < 500; ++i )
+		bool isComplete = false;
+		while ( !isComplete )
 		{
 			/*
-			 * This will return the latest rendered image
-			 * or NULL if there were no changes since the last call.
+			 * This blocks until a new image has been rendered (or the current image was updated)
+			 * and returns it, or returns NULL if there was no change within 5 seconds.
+			 * (bdv.getRenderedBitmap() does the same without waiting.)
+			 */
+			BigDataViewerBitmap* bitmap = bdv.waitForFrame( 5000 );
+			if ( bitmap == NULL )
+				break;
+
+			/*
+			 * If we got a bitmap, we are now in a critical section:
+			 * The waitForFrame() method obtains the data from the java array by GetPrimitiveArrayCritical().
+			 * Do not call any BigDataViewer methods (or any other JNI functions) until bitmap is deleted.
+			 * The BigDataViewerBitmap destructor triggers ReleasePrimitiveArrayCritical() to release the java array.
+			 * Also, "delete bitmap" must happen on the same thread that called waitForFrame().
+			 * (If the BigDataViewer is constructed with BDV_DIRECT_BUFFERS, bitmap->data is off-heap
+			 * memory instead. Then there is no critical section, and the bitmap may be kept around
+			 * across other calls, and deleted on any thread.)
 			 */
-			BigDataViewerBitmap* bitmap = bdv.getRenderedBitmap();
-			if ( bitmap != NULL )
-			{
-				/*
-				 * If we got a bitmap, we are now in a critical section:
-				 * The getRenderedBitmap() method obtains the data from the java array by GetPrimitiveArrayCritical().
-				 * Do not call any BigDataViewer methods (or any other JNI functions) until bitmap is deleted.
-				 * The BigDataViewerBitmap destructor triggers ReleasePrimitiveArrayCritical() to release the java array.
-				 * Also, "delete bitmap" must happen on the same thread that called getRenderedBitmap().
-				 */
-				ostringstream os;
-				os << "test" << (imgNumber++) << ".png";
-				write_png_file( const_cast<char*>(os.str().c_str()), bitmap->width, bitmap->height, bitmap->data);
-				delete bitmap;
-			}
-			// wait, try again...
-			usleep(10000);
+			ostringstream os;
+			os << "test" << (imgNumber++) << ".png";
+			write_png_file( const_cast<char*>(os.str().c_str()), bitmap->width, bitmap->height, bitmap->data);
+			isComplete = bitmap->isComplete;
+			delete bitmap;
 		}
 
 		/*
@@ -0,0 +1,93 @@
+package bdv;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bdv.viewer.Interpolation;
+import bdv.viewer.state.ViewerState;
+
+/**
+ * Time of one {@link HeadlessMultiResolutionRenderer#paint(ViewerState)} pass
+ * for 2 to 16 fused sources, summing full-size per-source images (the
+ * default) or {@link HeadlessMultiResolutionRenderer#setTiledAccumulation(boolean)
+ * tile by tile}.
+ * <p>
+ * Run with {@code -prof gc} to compare allocation. The per-source images come
+ * from the {@link RenderBufferArena}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class AccumulationBenchmark
+{
+	@Param( { "2", "4", "8", "16" } )
+	public int numSources;
+
+	@Param( { "false", "true" } )
+	public boolean tiledAccumulation;
+
+	@Param( { "1280x720" } )
+	public String canvasSize;
+
+	@Param( { "4" } )
+	public int numRenderingThreads;
+
+	private ExecutorService renderingExecutorService;
+
+	private HeadlessMultiResolutionRenderer renderer;
+
+	private ViewerState state;
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		final String[] wh = canvasSize.split( "x" );
+		final int width = Integer.parseInt( wh[ 0 ] );
+		final int height = Integer.parseInt( wh[ 1 ] );
+
+		final BenchmarkData.Data data = BenchmarkData.createData( numSources, new long[] { 256, 256, 64 }, 2 );
+		state = BenchmarkData.createState( data.sources, width, height, Interpolation.NEARESTNEIGHBOR );
+
+		renderingExecutorService = Executors.newFixedThreadPool( numRenderingThreads );
+		renderer = new HeadlessMultiResolutionRenderer(
+				new HeadlessRenderTarget( width, height ), new PaintBenchmark.NoPainter(),
+				new double[] { 1 }, 30 * 1000000l, true,
+				numRenderingThreads, renderingExecutorService, true, false, data.cache );
+		renderer.setPrefetchCells( false );
+		renderer.setTiledAccumulation( tiledAccumulation );
+		BenchmarkData.warmUp( renderer, state, width, height );
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown()
+	{
+		renderer.releaseBuffers();
+		RenderBufferArena.getInstance().trim();
+		renderingExecutorService.shutdown();
+	}
+
+	@Benchmark
+	public boolean paint()
+	{
+		renderer.requestRepaint();
+		return renderer.paint( state );
+	}
+}
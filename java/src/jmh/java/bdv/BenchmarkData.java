@@ -0,0 +1,103 @@
+package bdv;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import bdv.img.cache.Cache;
+import bdv.tools.InitializeViewerState;
+import bdv.tools.brightness.ConverterSetup;
+import bdv.viewer.DisplayMode;
+import bdv.viewer.Interpolation;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.state.SourceGroup;
+import bdv.viewer.state.ViewerState;
+import mpicbg.spim.data.generic.AbstractSpimData;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.ARGBType;
+
+/**
+ * In-process synthetic data for the benchmarks: multi-resolution sources of a
+ * {@link SyntheticImgLoader} dataset, and a {@link ViewerState} showing them
+ * fused.
+ * <p>
+ * The sources are the same volatile, cached sources that a viewer of an HDF5
+ * dataset renders, so the benchmarks go through cache lookups and the
+ * {@link bdv.viewer.render.VolatileHierarchyProjector}. Use
+ * {@link #warmUp(HeadlessMultiResolutionRenderer, ViewerState, int, int)} to
+ * load the data before measuring, so that passes do not wait for IO.
+ */
+final class BenchmarkData
+{
+	private BenchmarkData()
+	{}
+
+	/**
+	 * The sources of a synthetic dataset, and the cache they are loaded
+	 * through.
+	 */
+	static final class Data
+	{
+		final ArrayList< SourceAndConverter< ? > > sources;
+
+		final Cache cache;
+
+		Data( final ArrayList< SourceAndConverter< ? > > sources, final Cache cache )
+		{
+			this.sources = sources;
+			this.cache = cache;
+		}
+	}
+
+	/**
+	 * Create {@code numSources} sources of size {@code dimensions} (at full
+	 * resolution) with {@code numLevels} mipmap levels, each downsampled by 2
+	 * from the previous one.
+	 */
+	public static Data createData( final int numSources, final long[] dimensions, final int numLevels )
+	{
+		final AbstractSpimData< ? > spimData = SyntheticImgLoader.createSpimData( SyntheticImgLoader.options()
+				.dimensions( dimensions )
+				.numLevels( numLevels )
+				.numSetups( numSources )
+				.numFetcherThreads( Runtime.getRuntime().availableProcessors() ) );
+		final ArrayList< ConverterSetup > converterSetups = new ArrayList< ConverterSetup >();
+		final ArrayList< SourceAndConverter< ? > > sources = new ArrayList< SourceAndConverter< ? > >();
+		BigDataViewer.initSetups( spimData, converterSetups, sources );
+		for ( int i = 0; i < converterSetups.size(); ++i )
+		{
+			final ConverterSetup setup = converterSetups.get( i );
+			setup.setDisplayRange( 0, 65535 );
+			setup.setColor( new ARGBType( COLORS[ i % COLORS.length ] ) );
+		}
+		final Cache cache = ( ( ViewerImgLoader ) spimData.getSequenceDescription().getImgLoader() ).getCache();
+		return new Data( sources, cache );
+	}
+
+	/**
+	 * Create a {@link ViewerState} that shows all {@code sources} fused, with
+	 * a viewer transform that fits the data into a {@code width} &times;
+	 * {@code height} canvas.
+	 */
+	public static ViewerState createState( final List< SourceAndConverter< ? > > sources, final int width, final int height, final Interpolation interpolation )
+	{
+		final ViewerState state = new ViewerState( sources, new ArrayList< SourceGroup >(), 1 );
+		state.setCurrentSource( 0 );
+		state.setDisplayMode( DisplayMode.FUSED );
+		state.setInterpolation( interpolation );
+		final AffineTransform3D transform = InitializeViewerState.initTransform( width, height, false, state );
+		state.setViewerTransform( transform );
+		return state;
+	}
+
+	/**
+	 * Load the data that is needed to render {@code state} into the cache, by
+	 * {@link HeadlessMultiResolutionRenderer#renderNow(ViewerState, ARGBRenderImage)
+	 * rendering} it once at full resolution.
+	 */
+	public static void warmUp( final HeadlessMultiResolutionRenderer renderer, final ViewerState state, final int width, final int height )
+	{
+		renderer.renderNow( state, new ARGBRenderImage( width, height ) );
+	}
+
+	private static final int[] COLORS = new int[] { 0xffff00ff, 0xff00ff00, 0xff00ffff, 0xffffff00, 0xffff0000, 0xff0000ff };
+}
@@ -0,0 +1,112 @@
+package bdv;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bdv.viewer.Interpolation;
+import bdv.viewer.state.ViewerState;
+
+/**
+ * Time of one {@link HeadlessMultiResolutionRenderer#paint(ViewerState)}
+ * pass, for single and multiple (fused) sources, canvas sizes, screen scales,
+ * and interpolation methods.
+ * <p>
+ * The renderer has a single screen scale, so every pass renders a new frame
+ * at that scale. Repaint requests go to a painter that ignores them, and
+ * look-ahead prefetching is disabled, so only the pass itself is measured.
+ * The data is loaded into the cache before measuring.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class PaintBenchmark
+{
+	@Param( { "1", "4" } )
+	public int numSources;
+
+	@Param( { "640x480", "1280x720", "1920x1080" } )
+	public String canvasSize;
+
+	@Param( { "1", "0.5", "0.25" } )
+	public double screenScale;
+
+	@Param( { "NEARESTNEIGHBOR", "NLINEAR" } )
+	public Interpolation interpolation;
+
+	@Param( { "4" } )
+	public int numRenderingThreads;
+
+	private ExecutorService renderingExecutorService;
+
+	private HeadlessMultiResolutionRenderer renderer;
+
+	private ViewerState state;
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		final String[] wh = canvasSize.split( "x" );
+		final int width = Integer.parseInt( wh[ 0 ] );
+		final int height = Integer.parseInt( wh[ 1 ] );
+
+		final BenchmarkData.Data data = BenchmarkData.createData( numSources, new long[] { 512, 512, 128 }, 3 );
+		state = BenchmarkData.createState( data.sources, width, height, interpolation );
+
+		renderingExecutorService = Executors.newFixedThreadPool( numRenderingThreads );
+		renderer = new HeadlessMultiResolutionRenderer(
+				new HeadlessRenderTarget( width, height ), new NoPainter(),
+				new double[] { screenScale }, 30 * 1000000l, true,
+				numRenderingThreads, renderingExecutorService, true, false, data.cache );
+		renderer.setPrefetchCells( false );
+		BenchmarkData.warmUp( renderer, state, ( int ) ( screenScale * width ), ( int ) ( screenScale * height ) );
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown()
+	{
+		renderingExecutorService.shutdown();
+	}
+
+	@Benchmark
+	public boolean paint()
+	{
+		renderer.requestRepaint();
+		return renderer.paint( state );
+	}
+
+	/**
+	 * Ignores repaint requests. The benchmark calls {@code paint()} itself.
+	 */
+	static final class NoPainter implements Painter
+	{
+		@Override
+		public void requestRepaint()
+		{}
+
+		@Override
+		public void start()
+		{}
+
+		@Override
+		public void stop()
+		{}
+	}
+}
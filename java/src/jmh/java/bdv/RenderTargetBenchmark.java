@@ -0,0 +1,85 @@
+package bdv;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Double-buffer swap in {@link HeadlessRenderTarget}: publishing an image with
+ * {@code setRenderedImageAndTransform()} and taking it with
+ * {@link HeadlessRenderTarget#getLatestImage()}, uncontended on one thread,
+ * and with a renderer and a client thread competing for the lock.
+ */
+@State( Scope.Group )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class RenderTargetBenchmark
+{
+	private HeadlessRenderTarget target;
+
+	private final AffineTransform3D transform = new AffineTransform3D();
+
+	/**
+	 * Images cycled through by the publishing side, like the renderer's
+	 * triple-buffered screen images.
+	 */
+	private ARGBRenderImage[] images;
+
+	private int next;
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		target = new HeadlessRenderTarget( 640, 480 );
+		images = new ARGBRenderImage[ 3 ];
+		for ( int i = 0; i < images.length; ++i )
+			images[ i ] = new ARGBRenderImage( 640, 480 );
+		target.setRenderedImageAndTransform( images[ 0 ], transform, true );
+		target.getLatestImage();
+		next = 1;
+	}
+
+	@Benchmark
+	@Group( "swap" )
+	public ARGBRenderImage publishAndGetLatest()
+	{
+		publishNext();
+		return target.getLatestImage();
+	}
+
+	@Benchmark
+	@Group( "contended" )
+	public void publish()
+	{
+		publishNext();
+	}
+
+	@Benchmark
+	@Group( "contended" )
+	public ARGBRenderImage getLatest()
+	{
+		return target.getLatestImage();
+	}
+
+	private void publishNext()
+	{
+		target.setRenderedImageAndTransform( images[ next ], transform, true );
+		next = ( next + 1 ) % images.length;
+	}
+}
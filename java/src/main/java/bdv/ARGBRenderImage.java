@@ -1,16 +1,37 @@
 package bdv;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.IntAccess;
 import net.imglib2.img.basictypeaccess.array.IntArray;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.util.Fraction;
 
-public final class ARGBRenderImage extends ArrayImg< ARGBType, IntArray >
+/**
+ * An ARGB image that is rendered to by the
+ * {@link HeadlessMultiResolutionRenderer} and handed out to clients. Pixel data
+ * is stored either in an on-heap {@code int[]} array, or in a direct (off-heap)
+ * {@link ByteBuffer} in native byte order.
+ * <p>
+ * Clients that want to hold on to an image (e.g., native code working with a
+ * pointer to the pixel data) can {@link #lease()} it. A leased image is not
+ * recycled by the renderer for rendering new frames until it is
+ * {@link #release() released}.
+ */
+public final class ARGBRenderImage extends ArrayImg< ARGBType, IntAccess >
 {
 	final private int[] data;
 
+	final private ByteBuffer buffer;
+
 	boolean isComplete;
 
+	private final AtomicInteger leases;
+
 	public ARGBRenderImage( final int width, final int height )
 	{
 		this( width, height, new int[ width * height ] );
@@ -23,16 +44,70 @@ public final class ARGBRenderImage extends ArrayImg< ARGBType, IntArray >
 
 	public ARGBRenderImage( final int width, final int height, final int[] data )
 	{
-		super( new IntArray( data ), new long[]{ width, height }, new Fraction() );
+		this( width, height, new IntArray( data ), data, null );
+	}
+
+	/**
+	 * Create an image backed by a direct {@link ByteBuffer}. The buffer must
+	 * have native byte order and at least {@code 4 * width * height} bytes
+	 * capacity.
+	 */
+	public ARGBRenderImage( final int width, final int height, final ByteBuffer buffer )
+	{
+		this( width, height, new IntBufferAccess( buffer.asIntBuffer() ), null, buffer );
+	}
+
+	/**
+	 * Create an image that uses the same storage (array or buffer) as
+	 * {@code storage}. {@code width * height} must not exceed the size of
+	 * {@code storage}.
+	 */
+	public ARGBRenderImage( final int width, final int height, final ARGBRenderImage storage )
+	{
+		this( width, height, storage.update( null ), storage.data, storage.buffer );
+	}
+
+	private ARGBRenderImage( final int width, final int height, final IntAccess access, final int[] data, final ByteBuffer buffer )
+	{
+		super( access, new long[]{ width, height }, new Fraction() );
 		setLinkedType( new ARGBType( this ) );
 		this.data = data;
+		this.buffer = buffer;
+		leases = new AtomicInteger();
 	}
 
+	/**
+	 * Create an image backed by a newly allocated direct {@link ByteBuffer}.
+	 */
+	public static ARGBRenderImage createDirect( final int width, final int height )
+	{
+		final ByteBuffer buffer = ByteBuffer.allocateDirect( 4 * width * height ).order( ByteOrder.nativeOrder() );
+		return new ARGBRenderImage( width, height, buffer );
+	}
+
+	/**
+	 * @return the storage array, or {@code null} if this image is backed by a
+	 *         direct {@link ByteBuffer}.
+	 */
 	public int[] getData()
 	{
 		return data;
 	}
 
+	/**
+	 * @return the direct storage buffer, or {@code null} if this image is
+	 *         backed by an {@code int[]} array.
+	 */
+	public ByteBuffer getBuffer()
+	{
+		return buffer;
+	}
+
+	public boolean isDirect()
+	{
+		return buffer != null;
+	}
+
 	public int getWidth()
 	{
 		return ( int ) dimension( 0 );
@@ -47,4 +122,84 @@ public final class ARGBRenderImage extends ArrayImg< ARGBType, IntArray >
 	{
 		return isComplete;
 	}
+
+	/**
+	 * Copy the pixels of this image to {@code target}, which must have the
+	 * same size.
+	 */
+	void copyTo( final ARGBRenderImage target )
+	{
+		final int n = ( int ) size();
+		if ( data != null && target.data != null )
+			System.arraycopy( data, 0, target.data, 0, n );
+		else if ( buffer != null && target.buffer != null )
+		{
+			final IntBuffer src = buffer.asIntBuffer();
+			src.limit( n );
+			target.buffer.asIntBuffer().put( src );
+		}
+		else
+		{
+			final IntAccess src = update( null );
+			final IntAccess dst = target.update( null );
+			for ( int i = 0; i < n; ++i )
+				dst.setValue( i, src.getValue( i ) );
+		}
+	}
+
+	/**
+	 * Whether this image and {@code other} use the same storage (array or
+	 * buffer).
+	 */
+	boolean sharesStorageWith( final ARGBRenderImage other )
+	{
+		return data == other.data && buffer == other.buffer;
+	}
+
+	/**
+	 * Take a lease on this image. While leased, the renderer does not write
+	 * to this image (unless it is not double buffered).
+	 */
+	void lease()
+	{
+		leases.incrementAndGet();
+	}
+
+	/**
+	 * Give back a lease obtained by {@link #lease()}.
+	 */
+	void release()
+	{
+		leases.decrementAndGet();
+	}
+
+	boolean isLeased()
+	{
+		return leases.get() > 0;
+	}
+
+	/**
+	 * {@link IntAccess} to a (direct) {@link IntBuffer}.
+	 */
+	private static final class IntBufferAccess implements IntAccess
+	{
+		private final IntBuffer buffer;
+
+		public IntBufferAccess( final IntBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int getValue( final int index )
+		{
+			return buffer.get( index );
+		}
+
+		@Override
+		public void setValue( final int index, final int value )
+		{
+			buffer.put( index, value );
+		}
+	}
 }
@@ -0,0 +1,140 @@
+package bdv;
+
+/**
+ * Adjusts the IO time budget of a {@link HeadlessMultiResolutionRenderer} to
+ * hit a target latency for the first frame after a change.
+ * <p>
+ * The IO time budget is how long rendering may block waiting for data to load
+ * (see {@link bdv.img.cache.Cache#initIoTimeBudget(long[])}). A large budget
+ * gives more complete first frames on slow (e.g., network-backed) datasets,
+ * but makes them late. A small budget gives fast first frames, with more
+ * missing data. After each first frame, the measured render time and IO time
+ * are fed to {@link #update(long, long)}:
+ * <ul>
+ * <li>If the frame took longer than the target, and rendering waited for IO,
+ * the budget is reduced by the overshoot (at least by a quarter).</li>
+ * <li>If the frame was faster than the target, and rendering used up the
+ * budget waiting for IO, the budget is increased by half of the remaining
+ * headroom.</li>
+ * </ul>
+ * The budget is kept between {@link #MIN_BUDGET_NANOS} (or the target latency,
+ * if smaller) and the target latency. It is not reduced to 0, because then
+ * rendering would never wait for IO, and there would be no measurement to
+ * increase it again. The budgets for lower priorities keep their ratio to the
+ * first budget.
+ */
+public final class AdaptiveIoBudget
+{
+	/**
+	 * The smallest budget for the highest priority level, in nanoseconds.
+	 */
+	public static final long MIN_BUDGET_NANOS = 1000000l;
+
+	private final long targetNanos;
+
+	/**
+	 * Ratios of the budgets for each priority level to the budget for the
+	 * highest priority level.
+	 */
+	private final double[] ratios;
+
+	private volatile long[] budget;
+
+	private volatile long lastFrameNanos;
+
+	private volatile long lastIoNanos;
+
+	/**
+	 * @param targetNanos
+	 *            target latency for the first frame after a change.
+	 * @param initialBudget
+	 *            initial IO time budget per priority level, in nanoseconds.
+	 */
+	public AdaptiveIoBudget( final long targetNanos, final long[] initialBudget )
+	{
+		if ( targetNanos <= 0 )
+			throw new IllegalArgumentException( "target latency must be positive" );
+		if ( initialBudget.length == 0 )
+			throw new IllegalArgumentException( "budget must have at least one level" );
+		this.targetNanos = targetNanos;
+		ratios = new double[ initialBudget.length ];
+		for ( int i = 0; i < ratios.length; ++i )
+			ratios[ i ] = initialBudget[ 0 ] == 0 ? 1 : ( double ) initialBudget[ i ] / initialBudget[ 0 ];
+		budget = scaled( clamped( initialBudget[ 0 ] ) );
+		lastFrameNanos = 0;
+		lastIoNanos = 0;
+	}
+
+	/**
+	 * Adjust the budget after the first frame for a change was rendered.
+	 *
+	 * @param frameNanos
+	 *            time it took to render the frame.
+	 * @param ioNanos
+	 *            time that rendering the frame waited for IO.
+	 * @return the new budget.
+	 */
+	public long[] update( final long frameNanos, final long ioNanos )
+	{
+		lastFrameNanos = frameNanos;
+		lastIoNanos = ioNanos;
+		final long current = budget[ 0 ];
+		long next = current;
+		if ( frameNanos > targetNanos )
+		{
+			if ( ioNanos > 0 )
+				next = current - Math.max( current / 4, Math.min( ioNanos, frameNanos - targetNanos ) );
+		}
+		else if ( ioNanos > 0 && ioNanos >= current * 9 / 10 )
+		{
+			next = current + Math.max( 1000000l, ( targetNanos - frameNanos ) / 2 );
+		}
+		next = clamped( next );
+		if ( next != current )
+			budget = scaled( next );
+		return budget;
+	}
+
+	/**
+	 * @return the current IO time budget per priority level, in nanoseconds.
+	 */
+	public long[] getBudget()
+	{
+		return budget.clone();
+	}
+
+	public long getTargetNanos()
+	{
+		return targetNanos;
+	}
+
+	/**
+	 * @return render time of the last frame passed to
+	 *         {@link #update(long, long)}.
+	 */
+	public long getLastFrameNanos()
+	{
+		return lastFrameNanos;
+	}
+
+	/**
+	 * @return IO time of the last frame passed to {@link #update(long, long)}.
+	 */
+	public long getLastIoNanos()
+	{
+		return lastIoNanos;
+	}
+
+	private long clamped( final long first )
+	{
+		return Math.max( Math.min( MIN_BUDGET_NANOS, targetNanos ), Math.min( targetNanos, first ) );
+	}
+
+	private long[] scaled( final long first )
+	{
+		final long[] b = new long[ ratios.length ];
+		for ( int i = 0; i < b.length; ++i )
+			b[ i ] = ( long ) ( first * ratios[ i ] );
+		return b;
+	}
+}
@@ -1,35 +1,143 @@
 package bdv;
 
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import bdv.viewer.state.ViewerState;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import mpicbg.spim.data.SpimDataException;
+import net.imglib2.FinalDimensions;
+import net.imglib2.Interval;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Intervals;
 
+/**
+ * Static entry points for the native bdvlib. Viewers are identified by integer
+ * ids.
+ * <p>
+ * The setters for transform, timepoint, interpolation and
+ * {@link #applyState(int, ByteBuffer)} never block on rendering. They post
+ * the change to be applied by the painter thread before the next frame (see
+ * {@link HeadlessViewerPanel#postViewerTransform(AffineTransform3D)}). The
+ * getters reflect a change once it has been applied.
+ * <p>
+ * The {@link RenderStats} of each viewer are registered as MBean
+ * {@code bdv:type=RenderStats,id=<id>} with the platform MBean server. Each
+ * entry point is recorded as a {@link RenderEvents#JNI_CALL} event, and render
+ * events of a viewer carry its id. The {@link RenderBufferArena} shared by all
+ * viewers is registered as MBean {@code bdv:type=RenderBufferArena}.
+ */
 public final class BigDataViewerJni
 {
+	/**
+	 * Flag for {@code construct()}: render into direct (off-heap) buffers.
+	 */
+	public static final int DIRECT_BUFFERS = 1;
+
+	/**
+	 * Flag for {@code construct()}: render on the JVM-wide
+	 * {@link SharedRenderingExecutor} instead of a thread pool per viewer.
+	 */
+	public static final int SHARED_RENDERING_EXECUTOR = 2;
+
+	/**
+	 * Flag for {@code construct()}: paint on the JVM-wide
+	 * {@link SharedPainter} instead of a painter thread per viewer.
+	 */
+	public static final int SHARED_PAINTER = 4;
+
+	/**
+	 * Flag for {@code construct()}: render multiple sources tile by tile with
+	 * a {@link TiledAccumulateProjector}, without a full-size image per
+	 * source.
+	 */
+	public static final int TILED_ACCUMULATION = 8;
+
+	/**
+	 * Flag for {@code construct()}: render tile by tile, nearest to the
+	 * {@link #setFocusPoint(int, double, double) focus point} first, and
+	 * publish finer passes while they are rendered.
+	 */
+	public static final int PROGRESSIVE_RENDERING = 16;
+
 	private static final AtomicInteger idGenerator = new AtomicInteger();
 
 	private static final ConcurrentHashMap< Integer, HeadlessBigDataViewer > bdvs = new ConcurrentHashMap< Integer, HeadlessBigDataViewer >();
 
+	private static final ConcurrentHashMap< Integer, NativeFrameListener > frameListeners = new ConcurrentHashMap< Integer, NativeFrameListener >();
+
+	static
+	{
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean( RenderBufferArena.getInstance(), new ObjectName( "bdv:type=RenderBufferArena" ) );
+		}
+		catch ( final JMException e )
+		{
+			e.printStackTrace();
+		}
+	}
+
 	public static int construct(
 			final String fn,
 			final int width,
 			final int height,
 			final double[] screenscales,
 			final int numRenderingThreads )
+	{
+		return construct( fn, width, height, screenscales, numRenderingThreads, false );
+	}
+
+	public static int construct(
+			final String fn,
+			final int width,
+			final int height,
+			final double[] screenscales,
+			final int numRenderingThreads,
+			final boolean directBuffers )
+	{
+		return construct( fn, width, height, screenscales, numRenderingThreads, directBuffers ? DIRECT_BUFFERS : 0 );
+	}
+
+	/**
+	 * @param fn
+	 *            dataset xml file name or url, or a
+	 *            {@link SyntheticImgLoader#isSpec(String) synthetic dataset
+	 *            spec}.
+	 * @param flags
+	 *            combination of {@link #DIRECT_BUFFERS},
+	 *            {@link #SHARED_RENDERING_EXECUTOR}, {@link #SHARED_PAINTER},
+	 *            {@link #TILED_ACCUMULATION}, and
+	 *            {@link #PROGRESSIVE_RENDERING}.
+	 */
+	public static int construct(
+			final String fn,
+			final int width,
+			final int height,
+			final double[] screenscales,
+			final int numRenderingThreads,
+			final int flags )
 	{
 		final int id = idGenerator.incrementAndGet();
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
 		try
 		{
-			bdvs.put( id, HeadlessBigDataViewer.open( fn, width, height, screenscales, numRenderingThreads ) );
+			bdvs.put( id, HeadlessBigDataViewer.open( fn, options( width, height, screenscales, numRenderingThreads, flags ) ) );
+			initViewer( id );
 		}
 		catch ( final SpimDataException e )
 		{
 			e.printStackTrace();
 			return -1;
 		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "construct" );
+		}
 		return id;
 	}
 
@@ -39,154 +147,1040 @@ public final class BigDataViewerJni
 			final int height,
 			final double[] screenscales,
 			final int numRenderingThreads )
+	{
+		return construct( shareCacheWithId, width, height, screenscales, numRenderingThreads, false );
+	}
+
+	public static int construct(
+			final int shareCacheWithId,
+			final int width,
+			final int height,
+			final double[] screenscales,
+			final int numRenderingThreads,
+			final boolean directBuffers )
+	{
+		return construct( shareCacheWithId, width, height, screenscales, numRenderingThreads, directBuffers ? DIRECT_BUFFERS : 0 );
+	}
+
+	/**
+	 * @param flags
+	 *            combination of {@link #DIRECT_BUFFERS},
+	 *            {@link #SHARED_RENDERING_EXECUTOR}, {@link #SHARED_PAINTER},
+	 *            {@link #TILED_ACCUMULATION}, and
+	 *            {@link #PROGRESSIVE_RENDERING}.
+	 */
+	public static int construct(
+			final int shareCacheWithId,
+			final int width,
+			final int height,
+			final double[] screenscales,
+			final int numRenderingThreads,
+			final int flags )
 	{
 		final int id = idGenerator.incrementAndGet();
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
 		try
 		{
-			bdvs.put( id, HeadlessBigDataViewer.open( bdvs.get( shareCacheWithId ), width, height, screenscales, numRenderingThreads ) );
+			bdvs.put( id, HeadlessBigDataViewer.open( bdvs.get( shareCacheWithId ), options( width, height, screenscales, numRenderingThreads, flags ) ) );
+			initViewer( id );
 		}
 		catch ( final SpimDataException e )
 		{
 			e.printStackTrace();
 			return -1;
 		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "construct" );
+		}
 		return id;
 	}
 
+	private static HeadlessViewerPanel.Options options(
+			final int width,
+			final int height,
+			final double[] screenscales,
+			final int numRenderingThreads,
+			final int flags )
+	{
+		return HeadlessBigDataViewer.options( width, height, screenscales, numRenderingThreads )
+				.directBuffers( ( flags & DIRECT_BUFFERS ) != 0 )
+				.sharedRenderingExecutor( ( flags & SHARED_RENDERING_EXECUTOR ) != 0 )
+				.sharedPainter( ( flags & SHARED_PAINTER ) != 0 )
+				.tiledAccumulation( ( flags & TILED_ACCUMULATION ) != 0 )
+				.progressiveRendering( ( flags & PROGRESSIVE_RENDERING ) != 0 );
+	}
+
 	public static void destruct( final int id )
 	{
-		final HeadlessBigDataViewer bdv = bdvs.remove( id );
-		if ( bdv != null )
-			bdv.getViewer().stop();
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.remove( id );
+			frameListeners.remove( id );
+			if ( bdv != null )
+			{
+				unregisterRenderStats( id );
+				bdv.getViewer().stop();
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "destruct" );
+		}
+	}
+
+	private static ObjectName renderStatsName( final int id ) throws JMException
+	{
+		return new ObjectName( "bdv:type=RenderStats,id=" + id );
+	}
+
+	/**
+	 * Tag {@link RenderEvents} of a new viewer with its id, and register its
+	 * {@link RenderStats} MBean.
+	 */
+	private static void initViewer( final int id )
+	{
+		final HeadlessViewerPanel viewer = bdvs.get( id ).getViewer();
+		viewer.setViewerId( id );
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean( viewer.getRenderStats(), renderStatsName( id ) );
+		}
+		catch ( final JMException e )
+		{
+			e.printStackTrace();
+		}
+	}
+
+	private static void unregisterRenderStats( final int id )
+	{
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean( renderStatsName( id ) );
+		}
+		catch ( final JMException e )
+		{
+			e.printStackTrace();
+		}
 	}
 
 	public static void setTransform( final int id, final double[] m3x4 )
 	{
-		final HeadlessBigDataViewer bdv = bdvs.get( id );
-		if ( bdv != null )
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				final AffineTransform3D t = new AffineTransform3D();
+				t.set( m3x4 );
+				bdv.getViewer().postViewerTransform( t );
+			}
+		}
+		finally
 		{
-			final AffineTransform3D t = new AffineTransform3D();
-			t.set( m3x4 );
-			bdv.getViewer().setCurrentViewerTransform( t );
+			RenderEvents.endJniCall( event, id, "setTransform" );
 		}
 	}
 
 	public static void getTransform( final int id, final double[] m3x4 )
 	{
-		final HeadlessBigDataViewer bdv = bdvs.get( id );
-		if ( bdv != null )
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+				bdv.getViewer().getStateSnapshot().getViewerTransform( m3x4 );
+		}
+		finally
 		{
-			final ViewerState state = bdv.getViewer().getState();
-			final AffineTransform3D t = new AffineTransform3D();
- 			state.getViewerTransform( t );
- 			System.arraycopy( t.getRowPackedCopy(), 0, m3x4, 0, 12 );
+			RenderEvents.endJniCall( event, id, "getTransform" );
 		}
 	}
 
 	public static int getNumTimepoints( final int id )
 	{
-		final HeadlessBigDataViewer bdv = bdvs.get( id );
-		if ( bdv != null )
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
 		{
-			return bdv.getViewer().getState().getNumTimePoints();
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				return bdv.getViewer().getStateSnapshot().getNumTimepoints();
+			}
+			return 0;
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "getNumTimepoints" );
+		}
+	}
+
+	/**
+	 * Change the canvas size of a viewer, keeping its state and cache. Sizes
+	 * that are not positive are ignored. See
+	 * {@link HeadlessViewerPanel#resize(int, int)}.
+	 */
+	public static void resize( final int id, final int width, final int height )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				try
+				{
+					bdv.getViewer().resize( width, height );
+				}
+				catch ( final IllegalArgumentException e )
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "resize" );
 		}
-		return 0;
 	}
 
 	public static void setTimepoint( final int id, final int timepoint )
 	{
-		final HeadlessBigDataViewer bdv = bdvs.get( id );
-		if ( bdv != null )
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
 		{
-			bdv.getViewer().setTimepoint( timepoint );
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				bdv.getViewer().postTimepoint( timepoint );
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "setTimepoint" );
 		}
 	}
 
 	public static void setLinearInterpolation( final int id, final boolean enableLinearInterpolation )
 	{
-		final HeadlessBigDataViewer bdv = bdvs.get( id );
-		if ( bdv != null )
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				bdv.getViewer().postLinearInterpolation( enableLinearInterpolation );
+			}
+		}
+		finally
 		{
-			bdv.getViewer().setLinearInterpolation( enableLinearInterpolation );
+			RenderEvents.endJniCall( event, id, "setLinearInterpolation" );
 		}
 	}
 
 	public static int getNumSources( final int id )
 	{
-		final HeadlessBigDataViewer bdv = bdvs.get( id );
-		if ( bdv != null )
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				return bdv.getViewer().getStateSnapshot().numSources();
+			}
+			return 0;
+		}
+		finally
 		{
-			return bdv.getViewer().getState().numSources();
+			RenderEvents.endJniCall( event, id, "getNumSources" );
 		}
-		return 0;
 	}
 
 	public static void setSourceVisible( final int id, final int source, final boolean visible )
 	{
-		final HeadlessBigDataViewer bdv = bdvs.get( id );
-		if ( bdv != null )
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				bdv.getViewer().postSourceVisible( source, visible );
+			}
+		}
+		finally
 		{
-			bdv.getViewer().getVisibilityAndGrouping().setSourceActive( source, visible );
+			RenderEvents.endJniCall( event, id, "setSourceVisible" );
 		}
 	}
 
 	public static boolean isSourceVisible( final int id, final int source )
 	{
-		final HeadlessBigDataViewer bdv = bdvs.get( id );
-		if ( bdv != null )
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
 		{
-			return bdv.getViewer().getVisibilityAndGrouping().isSourceVisible( source );
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				return bdv.getViewer().getStateSnapshot().isSourceVisible( source );
+			}
+			return false;
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "isSourceVisible" );
 		}
-		return false;
 	}
 
 	public static void setSourceParams( final int id, final int source, final int min, final int max, final int argb )
 	{
-		final HeadlessBigDataViewer bdv = bdvs.get( id );
-		if ( bdv != null )
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
 		{
-			bdv.setSourceParams( source, min, max, argb );
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				bdv.postSourceParams( source, min, max, argb );
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "setSourceParams" );
 		}
 	}
 
 	public static int getSourceParamsMin( final int id, final int source )
 	{
-		final HeadlessBigDataViewer bdv = bdvs.get( id );
-		if ( bdv != null )
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				return bdv.getSourceParamsMin( source );
+			}
+			return 0;
+		}
+		finally
 		{
-			return bdv.getSourceParamsMin( source );
+			RenderEvents.endJniCall( event, id, "getSourceParamsMin" );
 		}
-		return 0;
 	}
 
 	public static int getSourceParamsMax( final int id, final int source )
 	{
-		final HeadlessBigDataViewer bdv = bdvs.get( id );
-		if ( bdv != null )
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				return bdv.getSourceParamsMax( source );
+			}
+			return 0;
+		}
+		finally
 		{
-			return bdv.getSourceParamsMax( source );
+			RenderEvents.endJniCall( event, id, "getSourceParamsMax" );
 		}
-		return 0;
 	}
 
 	public static int getSourceParamsColor( final int id, final int source )
 	{
-		final HeadlessBigDataViewer bdv = bdvs.get( id );
-		if ( bdv != null )
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				return bdv.getSourceParamsColor( source );
+			}
+			return 0;
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "getSourceParamsColor" );
+		}
+	}
+
+	/**
+	 * Apply a batch of changes with a single repaint.
+	 *
+	 * @param packedDelta
+	 *            the changes, packed as described in {@link ViewerStateDelta}.
+	 */
+	public static void applyState( final int id, final ByteBuffer packedDelta )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				try
+				{
+					bdv.postState( ViewerStateDelta.decode( packedDelta ) );
+				}
+				catch ( final IllegalArgumentException e )
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "applyState" );
+		}
+	}
+
+	/**
+	 * Render synchronously at full resolution into a caller-provided buffer.
+	 * See {@link HeadlessBigDataViewer#renderNow(ViewerStateDelta, ARGBRenderImage)}.
+	 *
+	 * @param target
+	 *            direct buffer of at least {@code 4 * width * height} bytes,
+	 *            receives ARGB pixels in native byte order.
+	 * @param packedDelta
+	 *            changes to apply before rendering (packed as described in
+	 *            {@link ViewerStateDelta}), or {@code null}.
+	 * @return whether rendering was successful. It is not if {@code target}
+	 *         is too small.
+	 */
+	public static boolean renderNow( final int id, final ByteBuffer target, final int width, final int height, final ByteBuffer packedDelta )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null && width > 0 && height > 0 && target.capacity() >= 4l * width * height )
+			{
+				try
+				{
+					final ViewerStateDelta delta = packedDelta == null ? null : ViewerStateDelta.decode( packedDelta );
+					final ARGBRenderImage img = new ARGBRenderImage( width, height, target.order( ByteOrder.nativeOrder() ) );
+					return bdv.renderNow( delta, img );
+				}
+				catch ( final IllegalArgumentException e )
+				{
+					e.printStackTrace();
+				}
+			}
+			return false;
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "renderNow" );
+		}
+	}
+
+	/**
+	 * Render the rectangle of the canvas at ({@code x}, {@code y}) of size
+	 * {@code width} x {@code height} synchronously into a caller-provided
+	 * buffer. The buffer receives {@code (int) (screenScale * width)} x
+	 * {@code (int) (screenScale * height)} pixels. See
+	 * {@link HeadlessBigDataViewer#renderRegion(ViewerStateDelta, Interval, ARGBRenderImage)}.
+	 *
+	 * @param target
+	 *            direct buffer of at least 4 bytes per target pixel, receives
+	 *            ARGB pixels in native byte order.
+	 * @param packedDelta
+	 *            changes to apply before rendering (packed as described in
+	 *            {@link ViewerStateDelta}), or {@code null}.
+	 * @return whether rendering was successful.
+	 */
+	public static boolean renderRegion( final int id, final ByteBuffer target, final int x, final int y, final int width, final int height, final double screenScale, final ByteBuffer packedDelta )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			final int targetWidth = ( int ) ( screenScale * width );
+			final int targetHeight = ( int ) ( screenScale * height );
+			if ( bdv != null && targetWidth > 0 && targetHeight > 0 && target.capacity() >= 4l * targetWidth * targetHeight )
+			{
+				try
+				{
+					final ViewerStateDelta delta = packedDelta == null ? null : ViewerStateDelta.decode( packedDelta );
+					final ARGBRenderImage img = new ARGBRenderImage( targetWidth, targetHeight, target.order( ByteOrder.nativeOrder() ) );
+					return bdv.renderRegion( delta, Intervals.createMinSize( x, y, width, height ), img );
+				}
+				catch ( final IllegalArgumentException e )
+				{
+					e.printStackTrace();
+				}
+			}
+			return false;
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "renderRegion" );
+		}
+	}
+
+	/**
+	 * Enqueue loading of the data needed to
+	 * {@link #renderRegion(int, ByteBuffer, int, int, int, int, double, ByteBuffer)
+	 * render} the given rectangle of the canvas in the current state. Changes
+	 * posted before are applied first, as by {@code renderRegion}. This
+	 * returns immediately.
+	 */
+	public static void prefetchRegion( final int id, final int x, final int y, final int width, final int height, final double screenScale )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				final int targetWidth = ( int ) ( screenScale * width );
+				final int targetHeight = ( int ) ( screenScale * height );
+				if ( targetWidth > 0 && targetHeight > 0 )
+					bdv.getViewer().prefetchRegion( Intervals.createMinSize( x, y, width, height ), new FinalDimensions( targetWidth, targetHeight ) );
+			}
+		}
+		finally
 		{
-			return bdv.getSourceParamsColor( source );
+			RenderEvents.endJniCall( event, id, "prefetchRegion" );
+		}
+	}
+
+	/**
+	 * Render frames along a camera path with a {@link CameraPathRenderer},
+	 * and hand each completed frame to a native callback (see
+	 * {@link #setFrameListener(int, long, long)}) on the calling thread.
+	 * Frames are rendered into a direct buffer (acquired from the
+	 * {@link RenderBufferArena}), so the callback is not in a critical
+	 * section.
+	 *
+	 * @param m3x4s
+	 *            row-packed 3x4 viewer transforms, 12 values per frame.
+	 * @param timepoints
+	 *            timepoint of each frame, or {@code null} to use the current
+	 *            timepoint.
+	 * @param prefetch
+	 *            whether to prefetch data for the next frame while rendering
+	 *            the current one.
+	 * @return the number of frames rendered, or -1 if {@code timepoints} is
+	 *         shorter than the number of transforms, or if the arena has no
+	 *         budget for the frame buffer.
+	 */
+	public static int renderPath( final int id, final double[] m3x4s, final int[] timepoints, final boolean prefetch, final long callback, final long userdata )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				final int numFrames = m3x4s.length / 12;
+				if ( timepoints != null && timepoints.length < numFrames )
+					return -1;
+				final AffineTransform3D[] transforms = new AffineTransform3D[ numFrames ];
+				final double[] m3x4 = new double[ 12 ];
+				for ( int i = 0; i < numFrames; ++i )
+				{
+					System.arraycopy( m3x4s, 12 * i, m3x4, 0, 12 );
+					transforms[ i ] = new AffineTransform3D();
+					transforms[ i ].set( m3x4 );
+				}
+				final HeadlessViewerPanel viewer = bdv.getViewer();
+				final int[] canvasSize = viewer.getDisplay().getCanvasSize();
+				final RenderBufferArena arena = RenderBufferArena.getInstance();
+				final ARGBRenderImage target = arena.acquireImage( canvasSize[ 0 ], canvasSize[ 1 ], true );
+				if ( target == null )
+					return -1;
+				try
+				{
+					final CameraPathRenderer renderer = new CameraPathRenderer( viewer, target );
+					renderer.setPrefetch( prefetch );
+					return renderer.render( transforms, timepoints, new NativeFrameListener( callback, userdata ) );
+				}
+				finally
+				{
+					arena.release( target );
+				}
+			}
+			return 0;
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "renderPath" );
+		}
+	}
+
+	/**
+	 * Set how many viewer transforms ahead to predict (and prefetch) while the
+	 * view is moving. 0 disables prediction. See {@link MotionPredictor}.
+	 */
+	public static void setMotionPrediction( final int id, final int numPredictedSteps )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				bdv.getViewer().getMotionPredictor().setNumPredictedSteps( numPredictedSteps );
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "setMotionPrediction" );
+		}
+	}
+
+	/**
+	 * Get the number of scored predictions and the number of hits of the
+	 * {@link MotionPredictor}.
+	 *
+	 * @param stats
+	 *            receives {@code { numPredictions, numHits }}.
+	 */
+	public static void getPredictionStats( final int id, final long[] stats )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				final MotionPredictor predictor = bdv.getViewer().getMotionPredictor();
+				stats[ 0 ] = predictor.getNumPredictions();
+				stats[ 1 ] = predictor.getNumHits();
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "getPredictionStats" );
+		}
+	}
+
+	/**
+	 * Start time-lapse playback. See {@link TimelapsePlayer}.
+	 *
+	 * @param fps
+	 *            timepoints per second.
+	 * @param forward
+	 *            whether to play forward or backward.
+	 * @param firstTimepoint
+	 *            first timepoint of the loop range.
+	 * @param lastTimepoint
+	 *            last timepoint of the loop range (inclusive), or -1 for the
+	 *            last timepoint of the dataset.
+	 * @param readAhead
+	 *            how many upcoming timepoints to prefetch.
+	 */
+	public static void startPlayback( final int id, final double fps, final boolean forward, final int firstTimepoint, final int lastTimepoint, final int readAhead )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				final TimelapsePlayer player = bdv.getViewer().getTimelapsePlayer();
+				player.stop();
+				player.setFps( fps );
+				player.setForward( forward );
+				player.setLoopRange( firstTimepoint, lastTimepoint );
+				player.setReadAhead( readAhead );
+				player.resetStatistics();
+				player.start();
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "startPlayback" );
+		}
+	}
+
+	public static void stopPlayback( final int id )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				bdv.getViewer().getTimelapsePlayer().stop();
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "stopPlayback" );
+		}
+	}
+
+	/**
+	 * Get playback statistics since playback was started.
+	 *
+	 * @param stats
+	 *            receives {@code { numFramesShown, numFramesDropped }}.
+	 */
+	public static void getPlaybackStats( final int id, final long[] stats )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				final TimelapsePlayer player = bdv.getViewer().getTimelapsePlayer();
+				stats[ 0 ] = player.getNumFramesShown();
+				stats[ 1 ] = player.getNumFramesDropped();
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "getPlaybackStats" );
+		}
+	}
+
+	/**
+	 * Set the IO time budget per priority level, in nanoseconds. See
+	 * {@link HeadlessMultiResolutionRenderer#setIoBudget(long[])}.
+	 */
+	public static void setIoBudget( final int id, final long[] budgetNanos )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				bdv.getViewer().setIoBudget( budgetNanos );
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "setIoBudget" );
+		}
+	}
+
+	/**
+	 * Get the current IO time budget.
+	 *
+	 * @param budgetNanos
+	 *            receives (up to its length) the budget per priority level, in
+	 *            nanoseconds.
+	 * @return the number of priority levels of the budget.
+	 */
+	public static int getIoBudget( final int id, final long[] budgetNanos )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				final long[] budget = bdv.getViewer().getIoBudget();
+				System.arraycopy( budget, 0, budgetNanos, 0, Math.min( budget.length, budgetNanos.length ) );
+				return budget.length;
+			}
+			return 0;
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "getIoBudget" );
+		}
+	}
+
+	/**
+	 * Adjust the IO time budget automatically to hit the given latency for the
+	 * first frame after a change, or keep it fixed if {@code targetNanos} is 0.
+	 * See {@link AdaptiveIoBudget}.
+	 */
+	public static void setAdaptiveIoBudget( final int id, final long targetNanos )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				bdv.getViewer().setAdaptiveIoBudget( targetNanos );
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "setAdaptiveIoBudget" );
+		}
+	}
+
+	/**
+	 * Get the times measured for the adaptive IO time budget.
+	 *
+	 * @param stats
+	 *            receives {@code { lastFrameNanos, lastIoNanos }}, or zeros if
+	 *            the budget is fixed.
+	 */
+	public static void getAdaptiveIoBudgetTiming( final int id, final long[] stats )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				final AdaptiveIoBudget adaptive = bdv.getViewer().getAdaptiveIoBudget();
+				stats[ 0 ] = adaptive == null ? 0 : adaptive.getLastFrameNanos();
+				stats[ 1 ] = adaptive == null ? 0 : adaptive.getLastIoNanos();
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "getAdaptiveIoBudgetTiming" );
+		}
+	}
+
+	public static void setPrefetchCells( final int id, final boolean prefetchCells )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				bdv.getViewer().setPrefetchCells( prefetchCells );
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "setPrefetchCells" );
+		}
+	}
+
+	/**
+	 * Set the point (in canvas coordinates) around which progressive rendering
+	 * starts. {@code NaN} means the center of the canvas.
+	 */
+	public static void setFocusPoint( final int id, final double x, final double y )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				bdv.getViewer().setFocusPoint( x, y );
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "setFocusPoint" );
+		}
+	}
+
+	/**
+	 * Get the rendering metrics of a viewer. See
+	 * {@link RenderStats#getStats(long[])} for the layout.
+	 *
+	 * @param stats
+	 *            receives as many values as fit.
+	 * @return the number of values of the full layout, or 0 if there is no
+	 *         viewer with the given id.
+	 */
+	public static int getStats( final int id, final long[] stats )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				return bdv.getViewer().getRenderStats().getStats( stats );
+			}
+			return 0;
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "getStats" );
+		}
+	}
+
+	public static void resetStats( final int id )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				bdv.getViewer().getRenderStats().reset();
+			}
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "resetStats" );
+		}
+	}
+
+	/**
+	 * Set the memory budget of the {@link RenderBufferArena} shared by all
+	 * viewers. See {@link RenderBufferArena#setBudget(long)}.
+	 */
+	public static void setRenderBufferBudget( final long bytes )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			RenderBufferArena.getInstance().setBudget( bytes );
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, 0, "setRenderBufferBudget" );
+		}
+	}
+
+	/**
+	 * Get the occupancy of the {@link RenderBufferArena} shared by all
+	 * viewers. See {@link RenderBufferArena#getOccupancy(long[])} for the
+	 * layout.
+	 *
+	 * @param values
+	 *            receives as many values as fit.
+	 * @return the number of values of the full layout.
+	 */
+	public static int getRenderBufferOccupancy( final long[] values )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			return RenderBufferArena.getInstance().getOccupancy( values );
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, 0, "getRenderBufferOccupancy" );
 		}
-		return 0;
 	}
 
 	public static ARGBRenderImage getRenderedBitmap( final int id )
 	{
-		final HeadlessBigDataViewer bdv = bdvs.get( id );
-		if ( bdv != null )
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				return bdv.getViewer().getLatestImage();
+			}
+			return null;
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "getRenderedBitmap" );
+		}
+	}
+
+	/**
+	 * Get the latest rendered image (or {@code null} if there was no change
+	 * since the last call), and take a lease on it. The image is not reused
+	 * for rendering until it is given back by
+	 * {@link #releaseRenderedBitmap(int, ARGBRenderImage)}.
+	 */
+	public static ARGBRenderImage leaseRenderedBitmap( final int id )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				return bdv.getViewer().leaseLatestImage();
+			}
+			return null;
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "leaseRenderedBitmap" );
+		}
+	}
+
+	/**
+	 * Block until a new image has been rendered (or the current one has been
+	 * updated), and take a lease on it as in {@link #leaseRenderedBitmap(int)}.
+	 *
+	 * @param timeoutMs
+	 *            maximum time to wait in milliseconds. If negative, wait
+	 *            indefinitely.
+	 * @param requireComplete
+	 *            if {@code true}, only return once a complete image is
+	 *            available.
+	 * @return the latest image, or {@code null} if the timeout elapsed.
+	 */
+	public static ARGBRenderImage waitForFrame( final int id, final long timeoutMs, final boolean requireComplete )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				try
+				{
+					return bdv.getViewer().waitForLatestImage( timeoutMs, requireComplete, true );
+				}
+				catch ( final InterruptedException e )
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+			return null;
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "waitForFrame" );
+		}
+	}
+
+	public static void releaseRenderedBitmap( final int id, final ARGBRenderImage img )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+				bdv.getViewer().releaseImage( img );
+			else
+				img.release();
+		}
+		finally
+		{
+			RenderEvents.endJniCall( event, id, "releaseRenderedBitmap" );
+		}
+	}
+
+	/**
+	 * Set the native frame listener of viewer {@code id}, replacing the
+	 * previous one (if any).
+	 *
+	 * @param callback
+	 *            address of the native callback function, or 0 to remove the
+	 *            frame listener.
+	 * @param userdata
+	 *            opaque pointer that is passed back to the callback.
+	 */
+	public static void setFrameListener( final int id, final long callback, final long userdata )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.JNI_CALL );
+		try
+		{
+			final HeadlessBigDataViewer bdv = bdvs.get( id );
+			if ( bdv != null )
+			{
+				final NativeFrameListener listener = callback == 0 ? null : new NativeFrameListener( callback, userdata );
+				final NativeFrameListener previous = listener == null ? frameListeners.remove( id ) : frameListeners.put( id, listener );
+				if ( listener != null )
+					bdv.getViewer().addFrameListener( listener );
+				if ( previous != null )
+					bdv.getViewer().removeFrameListener( previous );
+			}
+		}
+		finally
 		{
-			return bdv.getViewer().getLatestImage();
+			RenderEvents.endJniCall( event, id, "setFrameListener" );
 		}
-		return null;
 	}
 
 	public static void main( final String[] args ) throws SpimDataException
@@ -0,0 +1,114 @@
+package bdv;
+
+import net.imglib2.realtransform.AffineTransform3D;
+import bdv.viewer.state.ViewerState;
+
+/**
+ * Renders a sequence of frames (e.g., the keyframes of a movie) along a
+ * camera path, at full resolution and without progressive refinement.
+ * <p>
+ * Each frame is rendered with
+ * {@link HeadlessViewerPanel#renderNow(ViewerState, ARGBRenderImage)}, which
+ * blocks until all data is loaded. Before frame N is rendered, loading of the
+ * data for frame N+1 is {@link HeadlessViewerPanel#prefetch(ViewerState, net.imglib2.Dimensions) enqueued},
+ * so that the cache fetcher threads load it while frame N is rendered.
+ */
+public final class CameraPathRenderer
+{
+	private final HeadlessViewerPanel viewer;
+
+	private final ARGBRenderImage target;
+
+	private boolean prefetch;
+
+	/**
+	 * Create a renderer for frames of the same size as the display of
+	 * {@code viewer}.
+	 */
+	public CameraPathRenderer( final HeadlessViewerPanel viewer )
+	{
+		this( viewer, createTarget( viewer ) );
+	}
+
+	private static ARGBRenderImage createTarget( final HeadlessViewerPanel viewer )
+	{
+		final int[] canvasSize = viewer.getDisplay().getCanvasSize();
+		return new ARGBRenderImage( canvasSize[ 0 ], canvasSize[ 1 ] );
+	}
+
+	/**
+	 * Create a renderer that renders frames into {@code target}.
+	 */
+	public CameraPathRenderer( final HeadlessViewerPanel viewer, final ARGBRenderImage target )
+	{
+		this.viewer = viewer;
+		this.target = target;
+		prefetch = true;
+	}
+
+	/**
+	 * Whether to prefetch the data for the next frame while rendering the
+	 * current one (default {@code true}).
+	 */
+	public void setPrefetch( final boolean prefetch )
+	{
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * Render frames for the given transforms and timepoints, and hand each
+	 * completed frame to {@code consumer}. The consumer is called on the
+	 * calling thread. The same image is reused for all frames, so it is only
+	 * valid until the consumer returns.
+	 * <p>
+	 * Other state (visible sources, converter parameters, interpolation) is
+	 * taken from the viewer when rendering starts.
+	 *
+	 * @param transforms
+	 *            viewer transform of each frame.
+	 * @param timepoints
+	 *            timepoint of each frame, or {@code null} to render all frames
+	 *            at the current timepoint. Must not be shorter than
+	 *            {@code transforms}.
+	 * @param consumer
+	 *            receives completed frames, in order.
+	 * @return the number of frames rendered. This is less than the number of
+	 *         transforms if rendering was interrupted.
+	 */
+	public int render( final AffineTransform3D[] transforms, final int[] timepoints, final FrameListener consumer )
+	{
+		final int numFrames = transforms.length;
+		if ( timepoints != null && timepoints.length < numFrames )
+			throw new IllegalArgumentException( "fewer timepoints than transforms" );
+		final ViewerState template = viewer.getState();
+
+		ViewerState next = numFrames > 0 ? getFrameState( template, transforms, timepoints, 0 ) : null;
+		if ( prefetch && next != null )
+			viewer.prefetch( next, target );
+
+		for ( int i = 0; i < numFrames; ++i )
+		{
+			final ViewerState current = next;
+			if ( i + 1 < numFrames )
+			{
+				next = getFrameState( template, transforms, timepoints, i + 1 );
+				if ( prefetch )
+					viewer.prefetch( next, target );
+			}
+
+			if ( !viewer.renderNow( current, target ) )
+				return i;
+			consumer.frameAvailable( target, transforms[ i ] );
+		}
+		return numFrames;
+	}
+
+	private static ViewerState getFrameState( final ViewerState template, final AffineTransform3D[] transforms, final int[] timepoints, final int i )
+	{
+		final ViewerState state = template.copy();
+		state.setViewerTransform( transforms[ i ] );
+		if ( timepoints != null )
+			state.setCurrentTimepoint( timepoints[ i ] );
+		return state;
+	}
+}
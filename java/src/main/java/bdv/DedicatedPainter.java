@@ -0,0 +1,39 @@
+package bdv;
+
+import net.imglib2.ui.PainterThread;
+
+/**
+ * {@link Painter} with its own {@link PainterThread}.
+ */
+public final class DedicatedPainter implements Painter
+{
+	private final PainterThread painterThread;
+
+	public DedicatedPainter( final PainterThread.Paintable paintable )
+	{
+		this( new PainterThread( paintable ) );
+	}
+
+	public DedicatedPainter( final PainterThread painterThread )
+	{
+		this.painterThread = painterThread;
+	}
+
+	@Override
+	public void requestRepaint()
+	{
+		painterThread.requestRepaint();
+	}
+
+	@Override
+	public void start()
+	{
+		painterThread.start();
+	}
+
+	@Override
+	public void stop()
+	{
+		painterThread.interrupt();
+	}
+}
@@ -0,0 +1,26 @@
+package bdv;
+
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Is notified whenever the {@link HeadlessMultiResolutionRenderer} publishes a
+ * new image to the {@link HeadlessRenderTarget}, or (without double
+ * buffering) updates the current image in place as missing data is loaded.
+ * <p>
+ * Listeners are called on the painter thread. The image is not rendered to
+ * while the listener runs, but it may be reused for rendering as soon as the
+ * listener returns (unless it is leased). Listeners should return quickly,
+ * because rendering is stalled while they run.
+ */
+public interface FrameListener
+{
+	/**
+	 * @param image
+	 *            the new or updated image. Use
+	 *            {@link ARGBRenderImage#isComplete()} to check whether it is
+	 *            rendered at full resolution with all data loaded.
+	 * @param transform
+	 *            the viewer transform with which the image was rendered.
+	 */
+	public void frameAvailable( final ARGBRenderImage image, final AffineTransform3D transform );
+}
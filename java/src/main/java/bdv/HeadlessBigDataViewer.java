@@ -24,6 +24,7 @@ import bdv.viewer.VisibilityAndGrouping;
 import mpicbg.spim.data.SpimDataException;
 import mpicbg.spim.data.generic.AbstractSpimData;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import net.imglib2.Interval;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.ARGBType;
 
@@ -74,6 +75,36 @@ public final class HeadlessBigDataViewer
 			final int height,
 			final double[] screenscales,
 			final int numRenderingThreads )
+	{
+		this( converterSetups, sources, spimData, numTimepoints, cache, options( width, height, screenscales, numRenderingThreads ) );
+	}
+
+	/**
+	 *
+	 * @param converterSetups
+	 *            list of {@link ConverterSetup} that control min/max and color
+	 *            of sources.
+	 * @param sources
+	 *            list of pairs of source of some type and converter from that
+	 *            type to ARGB.
+	 * @param spimData
+	 *            may be null. The {@link AbstractSpimData} of the dataset (if
+	 *            there is one).
+	 * @param numTimepoints
+	 *            the number of timepoints in the dataset.
+	 * @param cache
+	 *            handle to cache. This is used to control io timing.
+	 * @param optional
+	 *            optional parameters for the {@link HeadlessViewerPanel}
+	 *            (canvas size, screen scales, etc).
+	 */
+	public HeadlessBigDataViewer(
+			final ArrayList< ConverterSetup > converterSetups,
+			final ArrayList< SourceAndConverter< ? > > sources,
+			final AbstractSpimData< ? > spimData,
+			final int numTimepoints,
+			final Cache cache,
+			final HeadlessViewerPanel.Options optional )
 	{
 		this.spimData = spimData;
 		setupAssignments = new SetupAssignments( converterSetups, 0, 65535 );
@@ -83,7 +114,20 @@ public final class HeadlessBigDataViewer
 			for ( final ConverterSetup setup : setupAssignments.getConverterSetups() )
 				setupAssignments.moveSetupToGroup( setup, group );
 		}
-		viewer = new HeadlessViewerPanel( sources, numTimepoints, cache, HeadlessViewerPanel.options().width( width ).height( height ).screenScales( screenscales ).numRenderingThreads( numRenderingThreads ) );
+		viewer = new HeadlessViewerPanel( sources, numTimepoints, cache, optional );
+	}
+
+	/**
+	 * Create {@link HeadlessViewerPanel.Options} with the given canvas size,
+	 * screen scales, and number of rendering threads.
+	 */
+	public static HeadlessViewerPanel.Options options(
+			final int width,
+			final int height,
+			final double[] screenscales,
+			final int numRenderingThreads )
+	{
+		return HeadlessViewerPanel.options().width( width ).height( height ).screenScales( screenscales ).numRenderingThreads( numRenderingThreads );
 	}
 
 	public static HeadlessBigDataViewer open(
@@ -92,6 +136,13 @@ public final class HeadlessBigDataViewer
 			final int height,
 			final double[] screenscales,
 			final int numRenderingThreads )
+	{
+		return open( spimData, options( width, height, screenscales, numRenderingThreads ) );
+	}
+
+	public static HeadlessBigDataViewer open(
+			final AbstractSpimData< ? > spimData,
+			final HeadlessViewerPanel.Options optional )
 	{
 		if ( WrapBasicImgLoader.wrapImgLoaderIfNecessary( spimData ) )
 		{
@@ -106,9 +157,11 @@ public final class HeadlessBigDataViewer
 		final int numTimepoints = seq.getTimePoints().size();
 		final Cache cache = ( ( ViewerImgLoader ) seq.getImgLoader() ).getCache();
 
-		final HeadlessBigDataViewer bdv = new HeadlessBigDataViewer( converterSetups, sources, spimData, numTimepoints, cache, width, height, screenscales, numRenderingThreads );
+		final HeadlessBigDataViewer bdv = new HeadlessBigDataViewer( converterSetups, sources, spimData, numTimepoints, cache, optional );
 
 		WrapBasicImgLoader.removeWrapperIfPresent( spimData );
+		final int width = bdv.viewer.getDisplay().getWidth();
+		final int height = bdv.viewer.getDisplay().getHeight();
 		final AffineTransform3D initTransform = InitializeViewerState.initTransform( width, height, false, bdv.viewer.getState() );
 		bdv.viewer.setCurrentViewerTransform( initTransform );
 		return bdv;
@@ -121,13 +174,21 @@ public final class HeadlessBigDataViewer
 			final double[] screenscales,
 			final int numRenderingThreads )
 		throws SpimDataException
+	{
+		return open( shareCacheWith, options( width, height, screenscales, numRenderingThreads ) );
+	}
+
+	public static HeadlessBigDataViewer open(
+			final HeadlessBigDataViewer shareCacheWith,
+			final HeadlessViewerPanel.Options optional )
+		throws SpimDataException
 	{
 		final AbstractSpimData< ? > spimData = shareCacheWith.spimData;
-		final HeadlessBigDataViewer bdv = open( spimData, width, height, screenscales, numRenderingThreads );
+		final HeadlessBigDataViewer bdv = open( spimData, optional );
 		bdv.setupAssignments.restoreFromXml( shareCacheWith.setupAssignments.toXml() );
 		final VisibilityAndGrouping vg = bdv.getViewer().getVisibilityAndGrouping();
 		vg.setDisplayMode( DisplayMode.FUSED );
-		final int numSources = bdv.getViewer().getState().numSources();
+		final int numSources = bdv.getViewer().getStateSnapshot().numSources();
 		for ( int i = 0; i < numSources; ++i )
 			vg.setSourceActive( i, i == 0 );
 		return bdv;
@@ -141,18 +202,59 @@ public final class HeadlessBigDataViewer
 			final int numRenderingThreads )
 		throws SpimDataException
 	{
+		return open( xmlFilename, options( width, height, screenscales, numRenderingThreads ) );
+	}
+
+	/**
+	 * Open a dataset from an XML file (or URL).
+	 *
+	 * @param xmlFilename
+	 *            the XML file name or URL, or a
+	 *            {@link SyntheticImgLoader#isSpec(String) spec} of a
+	 *            synthetic dataset.
+	 */
+	public static HeadlessBigDataViewer open(
+			final String xmlFilename,
+			final HeadlessViewerPanel.Options optional )
+		throws SpimDataException
+	{
+		if ( SyntheticImgLoader.isSpec( xmlFilename ) )
+			return openSynthetic( xmlFilename, optional );
+
 		final SpimDataMinimal spimData = new XmlIoSpimDataMinimal().load( xmlFilename );
-		final HeadlessBigDataViewer bdv = open( spimData, width, height, screenscales, numRenderingThreads );
+		final HeadlessBigDataViewer bdv = open( spimData, optional );
 		if ( !bdv.tryLoadSettings( xmlFilename ) )
 			InitializeViewerState.initBrightness( 0.001, 0.999, bdv.viewer.getState(), bdv.setupAssignments );
 		final VisibilityAndGrouping vg = bdv.getViewer().getVisibilityAndGrouping();
 		vg.setDisplayMode( DisplayMode.FUSED );
-		final int numSources = bdv.getViewer().getState().numSources();
+		final int numSources = bdv.getViewer().getStateSnapshot().numSources();
 		for ( int i = 0; i < numSources; ++i )
 			vg.setSourceActive( i, i == 0 );
 		return bdv;
 	}
 
+	private static HeadlessBigDataViewer openSynthetic(
+			final String spec,
+			final HeadlessViewerPanel.Options optional )
+		throws SpimDataException
+	{
+		final SyntheticImgLoader.Options syntheticOptions;
+		try
+		{
+			syntheticOptions = SyntheticImgLoader.parseSpec( spec );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			throw new SpimDataException( e.getMessage() );
+		}
+		final HeadlessBigDataViewer bdv = open( SyntheticImgLoader.createSpimData( syntheticOptions ), optional );
+		for ( final ConverterSetup setup : bdv.setupAssignments.getConverterSetups() )
+			setup.setDisplayRange( 0, 65535 );
+		final VisibilityAndGrouping vg = bdv.getViewer().getVisibilityAndGrouping();
+		vg.setDisplayMode( DisplayMode.FUSED );
+		return bdv;
+	}
+
 	public HeadlessViewerPanel getViewer()
 	{
 		return viewer;
@@ -166,6 +268,17 @@ public final class HeadlessBigDataViewer
 		viewer.requestRepaint();
 	}
 
+	/**
+	 * Like {@link #setSourceParams(int, int, int, int)}, but the change is
+	 * applied on the painter thread, and this never blocks. See
+	 * {@link HeadlessViewerPanel#postSourceParams(ConverterSetup, int, int, int)}.
+	 */
+	public void postSourceParams( final int sourceIndex, final int min, final int max, final int argb )
+	{
+		final ConverterSetup converterSetup = setupAssignments.getConverterSetups().get( sourceIndex );
+		viewer.postSourceParams( converterSetup, min, max, argb );
+	}
+
 	public int getSourceParamsMin( final int sourceIndex )
 	{
 		final ConverterSetup converterSetup = setupAssignments.getConverterSetups().get( sourceIndex );
@@ -184,6 +297,55 @@ public final class HeadlessBigDataViewer
 		return converterSetup.getColor().get();
 	}
 
+	/**
+	 * Apply a batch of changes to viewer state and source parameters with a
+	 * single repaint. See
+	 * {@link HeadlessViewerPanel#applyState(ViewerStateDelta, java.util.List)}.
+	 */
+	public void applyState( final ViewerStateDelta delta )
+	{
+		viewer.applyState( delta, setupAssignments.getConverterSetups() );
+	}
+
+	/**
+	 * Like {@link #applyState(ViewerStateDelta)}, but the changes are applied
+	 * on the painter thread, and this never blocks. See
+	 * {@link HeadlessViewerPanel#postState(ViewerStateDelta, java.util.List)}.
+	 */
+	public void postState( final ViewerStateDelta delta )
+	{
+		viewer.postState( delta, setupAssignments.getConverterSetups() );
+	}
+
+	/**
+	 * Apply {@code delta} (if non-null), then render the resulting state at
+	 * full resolution into {@code target}, synchronously and blocking until
+	 * all data is loaded. See {@link HeadlessViewerPanel#renderNow(ARGBRenderImage)}.
+	 *
+	 * @return whether rendering was successful.
+	 */
+	public boolean renderNow( final ViewerStateDelta delta, final ARGBRenderImage target )
+	{
+		if ( delta != null )
+			applyState( delta );
+		return viewer.renderNow( target );
+	}
+
+	/**
+	 * Apply {@code delta} (if non-null), then render the rectangle
+	 * {@code region} of the canvas into {@code target}, synchronously and
+	 * blocking until all data is loaded. See
+	 * {@link HeadlessViewerPanel#renderRegion(Interval, ARGBRenderImage)}.
+	 *
+	 * @return whether rendering was successful.
+	 */
+	public boolean renderRegion( final ViewerStateDelta delta, final Interval region, final ARGBRenderImage target )
+	{
+		if ( delta != null )
+			applyState( delta );
+		return viewer.renderRegion( region, target );
+	}
+
 	protected void loadSettings( final String xmlFilename ) throws IOException, JDOMException
 	{
 		final SAXBuilder sax = new SAXBuilder();
@@ -6,10 +6,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 
 import bdv.img.cache.Cache;
+import bdv.img.cache.CacheHints;
+import bdv.img.cache.CacheIoTiming;
 import bdv.img.cache.CachedCellImg;
 import bdv.img.cache.LoadingStrategy;
 import bdv.viewer.Interpolation;
@@ -26,14 +30,16 @@ import bdv.viewer.render.VolatileHierarchyProjector;
 import bdv.viewer.render.VolatileProjector;
 import bdv.viewer.state.SourceState;
 import bdv.viewer.state.ViewerState;
+import net.imglib2.AbstractInterval;
 import net.imglib2.Dimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealRandomAccessible;
 import net.imglib2.Volatile;
 import net.imglib2.converter.Converter;
-import net.imglib2.display.screenimage.awt.ARGBScreenImage;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.RealViews;
 import net.imglib2.type.numeric.ARGBType;
@@ -80,14 +86,16 @@ import net.imglib2.ui.SimpleInterruptibleProjector;
  * desired).
  * <p>
  * Double buffering means that three {@link BufferedImage BufferedImages} are
- * created for every screen scale. After rendering the first one of them and
- * setting it to the {@link RenderTarget}, next time, rendering goes to the
- * second one, then to the third. The {@link RenderTarget} will always have a
- * complete image, which is not rendered to while it is potentially drawn to the
- * screen. When setting an image to the {@link RenderTarget}, the
- * {@link RenderTarget} will release one of the previously set images to be
- * rendered again. Thus, rendering will not interfere with painting the
- * {@link BufferedImage} to the canvas.
+ * created for every screen scale. After rendering the first one of them, it is
+ * set to the {@link RenderTarget}. Next time, rendering goes to the second
+ * one, then to the third. The {@link RenderTarget} will always have a complete
+ * image, which is not written to while it is potentially drawn to the screen
+ * (or read by a client): Before a pass refines an image that is still held by
+ * the {@link RenderTarget} or leased by a client, the image is copied to a
+ * free one, and the projector continues there. When setting an image to the
+ * {@link RenderTarget}, the {@link RenderTarget} will release one of the
+ * previously set images to be written again. Thus, rendering will not
+ * interfere with painting the {@link BufferedImage} to the canvas.
  * <p>
  * The renderer supports rendering of {@link Volatile} sources. In each
  * rendering pass, all currently valid data for the best fitting mipmap level
@@ -108,16 +116,29 @@ public final class HeadlessMultiResolutionRenderer
 	private final HeadlessRenderTarget display;
 
 	/**
-	 * Thread that triggers repainting of the display.
-	 * Requests for repainting are send there.
+	 * Triggers repainting of the display (on a {@link PainterThread} or a
+	 * {@link SharedPainter}). Requests for repainting are send there.
 	 */
-	private final PainterThread painterThread;
+	private final Painter painter;
 
 	/**
 	 * Currently active projector, used to re-paint the display. It maps the
-	 * source data to {@link #screenImages}.
+	 * source data to {@link #screenImages}. Volatile, because
+	 * {@link #cancelAndRequestRepaint()} reads it without locking.
 	 */
-	private VolatileProjector projector;
+	private volatile VolatileProjector projector;
+
+	/**
+	 * The screen image that the {@link #projector current projector} renders
+	 * to (through the {@link #projectorTarget}).
+	 */
+	private ARGBRenderImage projectorImage;
+
+	/**
+	 * The target of the {@link #projector current projector}, which refers to
+	 * the {@link #projectorImage}.
+	 */
+	private ProjectorTarget projectorTarget;
 
 	/**
 	 * The index of the screen scale of the {@link #projector current projector}.
@@ -140,6 +161,25 @@ public final class HeadlessMultiResolutionRenderer
 	 */
 	private final HashMap< ARGBRenderImage, Integer > bufferedImageToRenderId;
 
+	/**
+	 * Screen images that were handed back by the {@link #display} while
+	 * {@link ARGBRenderImage#isLeased() leased} by a client. Their double-buffer
+	 * index is returned to {@link #renderIdQueue} only after they are released.
+	 */
+	private final ArrayList< ARGBRenderImage > leasedImages;
+
+	/**
+	 * Whether {@link #paint(ViewerState)} gave up because all screen images
+	 * were leased. If so, a repaint is requested when an image is
+	 * {@link #releaseImage(ARGBRenderImage) released}.
+	 */
+	private boolean waitingForRelease;
+
+	/**
+	 * Whether {@link #screenImages} are backed by direct (off-heap) buffers.
+	 */
+	private final boolean directBuffers;
+
 	/**
 	 * Used to render an individual source. One image per screen resolution and
 	 * visible source. First index is screen scale, second index is index in
@@ -157,9 +197,116 @@ public final class HeadlessMultiResolutionRenderer
 	 * Used to render the image for display. Three images per screen resolution
 	 * if double buffering is enabled. First index is screen scale, second index
 	 * is double-buffer.
+	 * <p>
+	 * With double buffering, published images are never written to, so
+	 * clients can read them while the current frame is refined. See
+	 * {@link #moveProjectorImage()}.
 	 */
 	private final ARGBRenderImage[][] screenImages;
 
+	/**
+	 * The screen image that was last published to the {@link #display}.
+	 */
+	private ARGBRenderImage publishedImage;
+
+	/**
+	 * The {@link #screenImages} that own their storage (acquired from the
+	 * {@link #arena}). The others share the storage of one of these.
+	 */
+	private final ArrayList< ARGBRenderImage > screenImageStorage;
+
+	/**
+	 * Where {@link #screenImages}, {@link #renderImages}, and
+	 * {@link #renderMaskArrays} are acquired from, and released to.
+	 */
+	private final RenderBufferArena arena;
+
+	/**
+	 * Bytes of the screen images that {@link #checkResize(int, int)} acquired for
+	 * the current canvas size.
+	 */
+	private long screenImageBytes;
+
+	/**
+	 * Bytes of the {@link #renderImages} and {@link #renderMaskArrays} that
+	 * {@link #checkRenewScratchBuffers(ViewerState)} acquired for the visible
+	 * sources.
+	 */
+	private long scratchBytes;
+
+	/**
+	 * Whether it was logged that the buffers exceed the budget of the
+	 * {@link #arena}.
+	 */
+	private boolean warnedArenaBudget;
+
+	/**
+	 * Whether {@link #renderImages} and {@link #renderMaskArrays} were
+	 * released to the {@link #arena} after the {@link #projector current
+	 * projector} completed a frame. The projector cannot be used anymore.
+	 */
+	private boolean scratchReleased;
+
+	/**
+	 * Whether {@link #paint(ViewerState)} is rendering (outside the lock) into
+	 * the buffers. If so, {@link #releaseBuffers()} is deferred until it is
+	 * done.
+	 */
+	private boolean painting;
+
+	/**
+	 * Prefetches {@link #prefetch(ViewerState, Dimensions) requested} by other
+	 * threads. Prefetching sets the cache hints of the sources, which the
+	 * projector of the painter thread reads while mapping. Therefore, they are
+	 * run by the painter thread, before it renders the next pass.
+	 */
+	private final ConcurrentLinkedQueue< Runnable > postedPrefetches = new ConcurrentLinkedQueue< Runnable >();
+
+	/**
+	 * Whether {@link #postedPrefetches} changed the cache hints that the
+	 * {@link #projector current projector} was created with. If it is used
+	 * for another pass, it has to be re-created to reset them.
+	 */
+	private boolean renewCacheHints;
+
+	/**
+	 * Per-source images of {@link #render(ViewerState, AffineTransform3D, ARGBRenderImage)},
+	 * which are kept for the next call. Guarded by itself.
+	 */
+	private final ArrayList< ARGBRenderImage > renderNowImages = new ArrayList< ARGBRenderImage >();
+
+	/**
+	 * Whether {@link #releaseBuffers()} was deferred.
+	 */
+	private boolean releaseBuffersRequested;
+
+	/**
+	 * Whether multiple sources are rendered with a
+	 * {@link TiledAccumulateProjector} instead of into {@link #renderImages}.
+	 */
+	private boolean tiledAccumulation;
+
+	/**
+	 * Whether sources are rendered with a {@link TiledAccumulateProjector},
+	 * tiles nearest to the {@link #focusX focus point} first, and passes after
+	 * the first of a frame are shown progressively.
+	 */
+	private boolean progressiveRendering;
+
+	/**
+	 * Number of waves of tiles (each followed by a partial update) of a
+	 * {@link #progressiveRendering progressive} pass.
+	 */
+	private static final int PROGRESSIVE_WAVES = 4;
+
+	/**
+	 * Focus point of {@link #progressiveRendering progressive} rendering, in
+	 * {@link #display} coordinates. {@code NaN} means the center.
+	 */
+	private volatile double focusX = Double.NaN;
+
+	private volatile double focusY = Double.NaN;
+
 	/**
 	 * Scale factors from the {@link #display viewer canvas} to the
 	 * {@link #screenImages}.
@@ -237,15 +384,65 @@ public final class HeadlessMultiResolutionRenderer
 
 	/**
 	 * The timepoint for which last a projector was
-	 * {@link #createProjector(ViewerState, int, ARGBScreenImage) created}.
+	 * {@link #createProjector(ViewerState, int, RandomAccessibleInterval) created}.
 	 */
 	private int previousTimepoint;
 
-	// TODO: should be settable
-	private final long[] iobudget = new long[] { 100l * 1000000l,  10l * 1000000l };
+	/**
+	 * IO time budget per priority level, in nanoseconds. How long rendering a
+	 * frame may block waiting for data to load. See
+	 * {@link #setIoBudget(long[])}.
+	 */
+	private volatile long[] iobudget = new long[] { 100l * 1000000l,  10l * 1000000l };
+
+	/**
+	 * Whether to prefetch the cells that are needed for a new frame before
+	 * rendering it.
+	 */
+	private volatile boolean prefetchCells = true;
+
+	/**
+	 * If non-null, adjusts {@link #iobudget} after the first frame of each
+	 * change.
+	 */
+	private volatile AdaptiveIoBudget adaptiveIoBudget = null;
+
+	/**
+	 * Whether the painter and rendering threads are used by this renderer
+	 * only. The cache measures IO time per thread group, so otherwise the IO
+	 * time of a pass cannot be told apart from that of other viewers. See
+	 * {@link #setIoTimingPerViewer(boolean)}.
+	 */
+	private volatile boolean ioTimingPerViewer = true;
+
+	/**
+	 * Extrapolates the next viewer transforms while the transform changes.
+	 */
+	private final MotionPredictor motionPredictor;
+
+	/**
+	 * Timepoints that will be shown next (e.g., during time-lapse playback).
+	 * Data for these is prefetched for the current view.
+	 */
+	private volatile int[] readAheadTimepoints;
+
+	/**
+	 * Copies of the state that is being rendered, with the viewer transforms
+	 * predicted by {@link #motionPredictor}, or with the
+	 * {@link #readAheadTimepoints}. Data for these is prefetched (with low
+	 * priority) when projectors for a new frame are created.
+	 */
+	private final ArrayList< ViewerState > lookAheadStates;
 
-	// TODO: should be settable
-	private final boolean prefetchCells = true;
+	/**
+	 * Per-frame rendering metrics.
+	 */
+	private final RenderStats stats;
+
+	/**
+	 * Id of the viewer, attached to {@link RenderEvents}.
+	 */
+	private volatile int viewerId = -1;
 
 	/**
 	 * @param display
@@ -287,18 +484,72 @@ public final class HeadlessMultiResolutionRenderer
 			final ExecutorService renderingExecutorService,
 			final boolean useVolatileIfAvailable,
 			final Cache cache )
+	{
+		this( display, new DedicatedPainter( painterThread ), screenScales, targetRenderNanos, doubleBuffered, numRenderingThreads, renderingExecutorService, useVolatileIfAvailable, false, cache );
+	}
+
+	/**
+	 * @param display
+	 *            The canvas that will display the images we render.
+	 * @param painter
+	 *            Triggers repainting of the display. Requests for repainting
+	 *            are send there.
+	 * @param screenScales
+	 *            Scale factors from the viewer canvas to screen images of
+	 *            different resolutions. A scale factor of 1 means 1 pixel in
+	 *            the screen image is displayed as 1 pixel on the canvas, a
+	 *            scale factor of 0.5 means 1 pixel in the screen image is
+	 *            displayed as 2 pixel on the canvas, etc.
+	 * @param targetRenderNanos
+	 *            Target rendering time in nanoseconds. The rendering time for
+	 *            the coarsest rendered scale should be below this threshold.
+	 * @param doubleBuffered
+	 *            Whether to use double buffered rendering.
+	 * @param numRenderingThreads
+	 *            How many threads to use for rendering.
+	 * @param renderingExecutorService
+	 *            if non-null, this is used for rendering. Note, that it is
+	 *            still important to supply the numRenderingThreads parameter,
+	 *            because that is used to determine into how many sub-tasks
+	 *            rendering is split.
+	 * @param useVolatileIfAvailable
+	 *            whether volatile versions of sources should be used if
+	 *            available.
+	 * @param directBuffers
+	 *            whether screen images should be backed by direct (off-heap)
+	 *            buffers, such that native code can access them without
+	 *            pinning java arrays.
+	 * @param cache
+	 *            the cache controls IO budgeting and fetcher queue.
+	 */
+	public HeadlessMultiResolutionRenderer(
+			final HeadlessRenderTarget display,
+			final Painter painter,
+			final double[] screenScales,
+			final long targetRenderNanos,
+			final boolean doubleBuffered,
+			final int numRenderingThreads,
+			final ExecutorService renderingExecutorService,
+			final boolean useVolatileIfAvailable,
+			final boolean directBuffers,
+			final Cache cache )
 	{
 		this.display = display;
-		this.painterThread = painterThread;
+		this.painter = painter;
 		projector = null;
 		currentScreenScaleIndex = -1;
 		this.screenScales = screenScales.clone();
 		this.doubleBuffered = doubleBuffered;
 		renderIdQueue = new ArrayDeque< Integer >();
 		bufferedImageToRenderId = new HashMap< ARGBRenderImage, Integer >();
+		leasedImages = new ArrayList< ARGBRenderImage >();
+		waitingForRelease = false;
+		this.directBuffers = directBuffers;
 		renderImages = new ARGBRenderImage[ screenScales.length ][ 0 ];
 		renderMaskArrays = new byte[ 0 ][];
 		screenImages = new ARGBRenderImage[ screenScales.length ][ 3 ];
+		screenImageStorage = new ArrayList< ARGBRenderImage >();
+		arena = RenderBufferArena.getInstance();
 		screenScaleTransforms = new AffineTransform3D[ screenScales.length ];
 
 		this.targetRenderNanos = targetRenderNanos;
@@ -312,23 +563,31 @@ public final class HeadlessMultiResolutionRenderer
 		this.cache = cache;
 		newFrameRequest = false;
 		previousTimepoint = -1;
+		motionPredictor = new MotionPredictor();
+		readAheadTimepoints = new int[ 0 ];
+		lookAheadStates = new ArrayList< ViewerState >();
+		stats = new RenderStats( screenScales.length );
 	}
 
 	/**
-	 * Check whether the size of the display component was changed and
-	 * recreate {@link #screenImages} and {@link #screenScaleTransforms} accordingly.
+	 * Check whether the size of the display component was changed to
+	 * {@code componentW} &times; {@code componentH} and recreate
+	 * {@link #screenImages} and {@link #screenScaleTransforms} accordingly.
+	 * If the {@link #arena} denies the new screen images, {@link #screenImages}
+	 * remain {@code null}.
 	 *
 	 * @return whether the size was changed.
 	 */
-	private synchronized boolean checkResize()
+	private synchronized boolean checkResize( final int componentW, final int componentH )
 	{
-		final int componentW = display.getWidth();
-		final int componentH = display.getHeight();
 		if ( screenImages[ 0 ][ 0 ] == null || screenImages[ 0 ][ 0 ].dimension( 0 ) * screenScales[ 0 ] != componentW || screenImages[ 0 ][ 0 ].dimension( 1 )  * screenScales[ 0 ] != componentH )
 		{
+			releaseScreenImages();
+			screenImageBytes = ( doubleBuffered ? 3 : 1 ) * 4l * ( int ) ( screenScales[ 0 ] * componentW ) * ( int ) ( screenScales[ 0 ] * componentH );
 			renderIdQueue.clear();
 			renderIdQueue.addAll( Arrays.asList( 0, 1, 2 ) );
 			bufferedImageToRenderId.clear();
+			leasedImages.clear();
 			for ( int i = 0; i < screenScales.length; ++i )
 			{
 				final double screenToViewerScale = screenScales[ i ];
@@ -340,15 +599,26 @@ public final class HeadlessMultiResolutionRenderer
 					{
 						// reuse storage arrays of level 0 (highest resolution)
 						final ARGBRenderImage si = ( i == 0 ) ?
-								new ARGBRenderImage( w, h ) :
-								new ARGBRenderImage( w, h, screenImages[ 0 ][ b ].getData() );
+								acquireScreenImage( w, h ) :
+								new ARGBRenderImage( w, h, screenImages[ 0 ][ b ] );
+						if ( si == null )
+						{
+							releaseScreenImages();
+							return false;
+						}
 						screenImages[ i ][ b ] = si;
 						bufferedImageToRenderId.put( si, b );
 					}
 				}
 				else
 				{
-					screenImages[ i ][ 0 ] = new ARGBRenderImage( w, h );
+					final ARGBRenderImage si = acquireScreenImage( w, h );
+					if ( si == null )
+					{
+						releaseScreenImages();
+						return false;
+					}
+					screenImages[ i ][ 0 ] = si;
 				}
 				final AffineTransform3D scale = new AffineTransform3D();
 				final double xScale = ( double ) w / componentW;
@@ -365,6 +635,162 @@ public final class HeadlessMultiResolutionRenderer
 		return false;
 	}
 
+	private ARGBRenderImage acquireScreenImage( final int width, final int height )
+	{
+		final ARGBRenderImage si = acquireImage( width, height, directBuffers );
+		if ( si != null )
+			screenImageStorage.add( si );
+		return si;
+	}
+
+	/**
+	 * Acquire an image from the {@link #arena}. If it is denied because this
+	 * renderer alone needs more than the budget, allocate the image outside
+	 * the arena instead. (Waiting for other viewers to release buffers would
+	 * not help.)
+	 *
+	 * @return the image, or {@code null} if the arena denied it.
+	 */
+	private ARGBRenderImage acquireImage( final int width, final int height, final boolean direct )
+	{
+		final ARGBRenderImage img = arena.acquireImage( width, height, direct );
+		if ( img != null || !exceedsArenaBudget() )
+			return img;
+		return direct ? ARGBRenderImage.createDirect( width, height ) : new ARGBRenderImage( width, height );
+	}
+
+	/**
+	 * Acquire a {@code byte[]} from the {@link #arena}, like
+	 * {@link #acquireImage(int, int, boolean)}.
+	 *
+	 * @return the array, or {@code null} if the arena denied it.
+	 */
+	private byte[] acquireBytes( final int size )
+	{
+		final byte[] bytes = arena.acquireBytes( size );
+		if ( bytes != null || !exceedsArenaBudget() )
+			return bytes;
+		return new byte[ size ];
+	}
+
+	/**
+	 * Whether the screen images and scratch buffers of this renderer exceed
+	 * the budget of the {@link #arena}. The first time, this is logged.
+	 */
+	private boolean exceedsArenaBudget()
+	{
+		final long bytes = screenImageBytes + scratchBytes;
+		final long budget = arena.getBudget();
+		if ( bytes <= budget )
+			return false;
+		if ( !warnedArenaBudget )
+		{
+			warnedArenaBudget = true;
+			System.err.println( "WARNING: viewer " + viewerId + " needs " + bytes + " bytes of render buffers, more than the RenderBufferArena budget of " + budget + " bytes.\nAllocating them outside the arena." );
+		}
+		return true;
+	}
+
+	/**
+	 * Give the storage of all {@link #screenImages} back to the {@link #arena}
+	 * and clear {@link #screenImages}. Storage of images that are leased by a
+	 * client, or still held by the {@link #display} (which clients may read
+	 * until it is swapped out), is not reused, the arena just stops accounting
+	 * for it.
+	 */
+	private synchronized void releaseScreenImages()
+	{
+		for ( final ARGBRenderImage storage : screenImageStorage )
+		{
+			if ( isDisplayedOrLeased( storage ) )
+				arena.forget( storage );
+			else
+				arena.release( storage );
+		}
+		screenImageStorage.clear();
+		for ( final ARGBRenderImage[] images : screenImages )
+			Arrays.fill( images, null );
+		publishedImage = null;
+	}
+
+	/**
+	 * Whether the storage of {@code image} is held by the {@link #display} or
+	 * by a screen image that is leased by a client. It must not be written to
+	 * then.
+	 */
+	private synchronized boolean isDisplayedOrLeased( final ARGBRenderImage image )
+	{
+		if ( display.holdsStorageOf( image ) )
+			return true;
+		for ( final ARGBRenderImage[] images : screenImages )
+			for ( final ARGBRenderImage si : images )
+				if ( si != null && si.isLeased() && si.sharesStorageWith( image ) )
+					return true;
+		return false;
+	}
+
+	/**
+	 * Give {@link #renderImages} and {@link #renderMaskArrays} back to the
+	 * {@link #arena}.
+	 */
+	private synchronized void releaseScratchBuffers()
+	{
+		for ( final ARGBRenderImage renderImage : renderImages[ 0 ] )
+			arena.release( renderImage );
+		for ( final byte[] maskArray : renderMaskArrays )
+			arena.release( maskArray );
+		renderImages = new ARGBRenderImage[ screenScales.length ][ 0 ];
+		renderMaskArrays = new byte[ 0 ][];
+	}
+
+	/**
+	 * Give all images and buffers back to the {@link #arena}. Called when the
+	 * viewer is stopped. (If {@link #paint(ViewerState)} is called again, they
+	 * are acquired again.)
+	 */
+	public synchronized void releaseBuffers()
+	{
+		arena.cancelNotifyOnRelease( arenaRetry );
+		if ( painting )
+		{
+			releaseBuffersRequested = true;
+			return;
+		}
+		releaseScreenImages();
+		releaseScratchBuffers();
+		projector = null;
+		projectorImage = null;
+		projectorTarget = null;
+		scratchReleased = true;
+	}
+
+	/**
+	 * Return the double-buffer indices of {@link #leasedImages} that have been
+	 * released in the meantime to the {@link #renderIdQueue}.
+	 */
+	private void checkReleasedImages()
+	{
+		for ( final Iterator< ARGBRenderImage > it = leasedImages.iterator(); it.hasNext(); )
+		{
+			final ARGBRenderImage img = it.next();
+			if ( !img.isLeased() )
+			{
+				it.remove();
+				final Integer id = bufferedImageToRenderId.get( img );
+				if ( id != null )
+					renderIdQueue.add( id );
+			}
+		}
+	}
+
+	/**
+	 * Make sure there are {@link #renderImages} for {@code numVisibleSources}
+	 * of the current size, acquiring them from the {@link #arena} if
+	 * necessary.
+	 *
+	 * @return whether the images are available. (They are not if the arena
+	 *         denied them.)
+	 */
 	private boolean checkRenewRenderImages( final int numVisibleSources )
 	{
 		final int n = numVisibleSources > 1 ? numVisibleSources : 0;
@@ -373,6 +799,8 @@ public final class HeadlessMultiResolutionRenderer
 					( renderImages[ 0 ][ 0 ].dimension( 0 ) != screenImages[ 0 ][ 0 ].dimension( 0 ) ||
 					  renderImages[ 0 ][ 0 ].dimension( 1 ) != screenImages[ 0 ][ 0 ].dimension( 1 ) ) ) )
 		{
+			for ( final ARGBRenderImage renderImage : renderImages[ 0 ] )
+				arena.release( renderImage );
 			renderImages = new ARGBRenderImage[ screenScales.length ][ n ];
 			for ( int i = 0; i < screenScales.length; ++i )
 			{
@@ -381,29 +809,90 @@ public final class HeadlessMultiResolutionRenderer
 				for ( int j = 0; j < n; ++j )
 				{
 					renderImages[ i ][ j ] = ( i == 0 ) ?
-						new ARGBRenderImage( w, h ) :
-						new ARGBRenderImage( w, h, renderImages[ 0 ][ j ].getData() );
+						acquireImage( w, h, false ) :
+						new ARGBRenderImage( w, h, renderImages[ 0 ][ j ] );
+					if ( renderImages[ i ][ j ] == null )
+					{
+						for ( int k = 0; k < j; ++k )
+							arena.release( renderImages[ 0 ][ k ] );
+						renderImages = new ARGBRenderImage[ screenScales.length ][ 0 ];
+						return false;
+					}
 				}
 			}
-			return true;
 		}
-		return false;
+		return true;
 	}
 
+	/**
+	 * Make sure there are {@link #renderMaskArrays} for
+	 * {@code numVisibleSources} of the current size, acquiring them from the
+	 * {@link #arena} if necessary.
+	 *
+	 * @return whether the arrays are available. (They are not if the arena
+	 *         denied them.)
+	 */
 	private boolean checkRenewMaskArrays( final int numVisibleSources )
 	{
 		if ( numVisibleSources != renderMaskArrays.length ||
-				( numVisibleSources != 0 &&	( renderMaskArrays[ 0 ].length < screenImages[ 0 ][ 0 ].size() ) ) )
+				( numVisibleSources != 0 &&	( renderMaskArrays[ 0 ].length != screenImages[ 0 ][ 0 ].size() ) ) )
 		{
+			for ( final byte[] maskArray : renderMaskArrays )
+				arena.release( maskArray );
 			final int size = ( int ) screenImages[ 0 ][ 0 ].size();
 			renderMaskArrays = new byte[ numVisibleSources ][];
 			for ( int j = 0; j < numVisibleSources; ++j )
-				renderMaskArrays[ j ] = new byte[ size ];
-			return true;
+			{
+				renderMaskArrays[ j ] = acquireBytes( size );
+				if ( renderMaskArrays[ j ] == null )
+				{
+					for ( int k = 0; k < j; ++k )
+						arena.release( renderMaskArrays[ k ] );
+					renderMaskArrays = new byte[ 0 ][];
+					return false;
+				}
+			}
 		}
-		return false;
+		return true;
 	}
 
+	/**
+	 * Acquire {@link #renderImages} and {@link #renderMaskArrays} for the
+	 * visible sources of {@code state}.
+	 *
+	 * @return whether they are available. (They are not if the arena denied
+	 *         them.)
+	 */
+	private boolean checkRenewScratchBuffers( final ViewerState state )
+	{
+		synchronized ( state )
+		{
+			final int numVisibleSources = state.getVisibleSourceIndices().size();
+			if ( progressiveRendering || ( tiledAccumulation && numVisibleSources > 1 ) )
+			{
+				// TiledAccumulateProjector has its own (small) scratch buffers
+				scratchBytes = 0;
+				return checkRenewRenderImages( 0 ) && checkRenewMaskArrays( 0 );
+			}
+			final int numRenderImages = numVisibleSources > 1 ? numVisibleSources : 0;
+			scratchBytes = screenImages[ 0 ][ 0 ].size() * ( 4l * numRenderImages + numVisibleSources );
+			return checkRenewRenderImages( numVisibleSources ) && checkRenewMaskArrays( numVisibleSources );
+		}
+	}
+
+	/**
+	 * Requests a repaint when buffers are released to the {@link #arena},
+	 * after it denied buffers to {@link #paint(ViewerState)}.
+	 */
+	private final Runnable arenaRetry = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			painter.requestRepaint();
+		}
+	};
+
 	private final AffineTransform3D currentProjectorTransform = new AffineTransform3D();
 
 	/**
@@ -412,78 +901,164 @@ public final class HeadlessMultiResolutionRenderer
 	 */
 	public boolean paint( final ViewerState state )
 	{
-		if ( display.getWidth() <= 0 || display.getHeight() <= 0 )
-			return false;
+		runPostedPrefetches();
 
-		final boolean resized = checkResize();
+		final int[] canvasSize = display.getCanvasSize();
+		if ( canvasSize[ 0 ] <= 0 || canvasSize[ 1 ] <= 0 )
+			return false;
 
-		// the ARGBRenderImage that is rendered to (to paint to the canvas)
-		final ARGBRenderImage screenImage;
+		final boolean resized = checkResize( canvasSize[ 0 ], canvasSize[ 1 ] );
 
-		// the projector that paints to the screenImage.
+		// the projector that paints to the image.
 		final VolatileProjector p;
 
 		final boolean clearQueue;
 
 		final boolean createProjector;
 
+		// whether the projector image is published and continues on a copy
+		final boolean moveImage;
+
+		// partial updates of a progressive pass, or null
+		final PartialUpdates partialUpdates;
+
 		synchronized ( this )
 		{
+			checkReleasedImages();
+			if ( scratchReleased )
+				renewCacheHints = false;
+			createProjector = newFrameRequest || resized || ( requestedScreenScaleIndex != currentScreenScaleIndex ) || renewCacheHints;
+			if ( !createProjector && scratchReleased )
+			{
+				// The current frame is complete and its buffers are released.
+				return false;
+			}
+			if ( ( createProjector || doubleBuffered ) && renderIdQueue.isEmpty() )
+			{
+				// All screen images are leased by clients, there is none to
+				// publish the pass to. Try again when one of them is released.
+				waitingForRelease = true;
+				return false;
+			}
+			if ( screenImages[ 0 ][ 0 ] == null || ( createProjector && !checkRenewScratchBuffers( state ) ) )
+			{
+				// The arena is out of budget. Try again when other viewers
+				// release buffers.
+				arena.notifyOnRelease( arenaRetry );
+				return false;
+			}
+
 			// Rendering may be cancelled unless we are rendering at coarsest
 			// screen scale and coarsest mipmap level.
 			renderingMayBeCancelled = ( requestedScreenScaleIndex < maxScreenScaleIndex );
 
 			clearQueue = newFrameRequest;
 			if ( clearQueue )
+			{
 				cache.prepareNextFrame();
-			createProjector = newFrameRequest || resized || ( requestedScreenScaleIndex != currentScreenScaleIndex );
+				stats.frameStarted();
+			}
 			newFrameRequest = false;
 
 			if ( createProjector )
 			{
-				final int renderId = renderIdQueue.peek();
 				currentScreenScaleIndex = requestedScreenScaleIndex;
-				screenImage = screenImages[ currentScreenScaleIndex ][ renderId ];
+				final ARGBRenderImage image = screenImages[ currentScreenScaleIndex ][ renderIdQueue.peek() ];
+				final ProjectorTarget target = new ProjectorTarget( image );
 				synchronized ( state )
 				{
-					final int numVisibleSources = state.getVisibleSourceIndices().size();
-					checkRenewRenderImages( numVisibleSources );
-					checkRenewMaskArrays( numVisibleSources );
-					p = createProjector( state, currentScreenScaleIndex, screenImage );
+					if ( !checkRenewScratchBuffers( state ) )
+					{
+						// The visible sources changed since the check above,
+						// and the arena denied buffers for them.
+						newFrameRequest = true;
+						scratchReleased = true;
+						arena.notifyOnRelease( arenaRetry );
+						return false;
+					}
+					if ( clearQueue )
+						updateLookAheadStates( state );
+					p = createProjector( state, currentScreenScaleIndex, target );
 				}
 				projector = p;
+				projectorImage = image;
+				projectorTarget = target;
+				scratchReleased = false;
+				renewCacheHints = false;
+				moveImage = false;
 			}
 			else
 			{
-				screenImage = null;
 				p = projector;
+				moveImage = doubleBuffered && isDisplayedOrLeased( projectorImage );
+			}
+
+			// Passes after the first pass of a frame (finer screen scales, and
+			// refinement as data is loaded) are shown progressively.
+			if ( progressiveRendering && doubleBuffered && !clearQueue && p instanceof TiledAccumulateProjector )
+			{
+				partialUpdates = new PartialUpdates( projectorImage, createProjector, resized ? null : publishedImage );
+				( ( TiledAccumulateProjector ) p ).setPartialUpdates( PROGRESSIVE_WAVES, partialUpdates );
+			}
+			else
+			{
+				partialUpdates = null;
+				if ( p instanceof TiledAccumulateProjector )
+					( ( TiledAccumulateProjector ) p ).setPartialUpdates( 1, null );
 			}
 
 			requestedScreenScaleIndex = 0;
+			painting = true;
 		}
 
+		if ( moveImage )
+			moveProjectorImage();
+		if ( partialUpdates != null )
+			partialUpdates.prefill();
+
+		final CacheIoTiming cacheIoTiming = ioTimingPerViewer ? cache.getCacheIoTiming() : null;
+		final CacheIoTiming.IoStatistics iostat = cacheIoTiming == null ? null : cacheIoTiming.getThreadGroupIoStatistics();
+		final long ioStartNanos = iostat == null ? 0 : iostat.getIoNanoTime();
+		final AdaptiveIoBudget adaptive = adaptiveIoBudget;
+
 		// try rendering
+		final Object mapEvent = RenderEvents.begin( RenderEvents.MAP );
 		final boolean success = p.map( createProjector );
+		RenderEvents.end( mapEvent, viewerId, currentScreenScaleIndex, previousTimepoint );
 		final long rendertime = p.getLastFrameRenderNanoTime();
+		final long iotime = iostat == null ? -1 : iostat.getIoNanoTime() - ioStartNanos;
+
+		// adapt the IO budget to the first frame after a change
+		if ( clearQueue && adaptive != null && iostat != null && success )
+		{
+			synchronized ( this )
+			{
+				// unless the budget was set while rendering
+				if ( adaptive == adaptiveIoBudget )
+					iobudget = adaptive.update( rendertime, iotime );
+			}
+		}
+
+		// the image that is published to the display (if any)
+		final ARGBRenderImage shownImage = success ? projectorImage : null;
 
 		synchronized ( this )
 		{
+			painting = false;
 			final boolean isComplete = ( currentScreenScaleIndex == 0 ) && p.isValid();
 
+			stats.passRendered( currentScreenScaleIndex, createProjector, success, isComplete, rendertime, iotime );
+
 			// if rendering was not cancelled...
 			if ( success )
 			{
-				if ( createProjector )
+				final Object publishEvent = RenderEvents.begin( RenderEvents.PUBLISH );
+				if ( doubleBuffered || createProjector )
+					publishNewImage( shownImage, isComplete );
+				else
+					display.currentImageUpdated( isComplete );
+				if ( createProjector )
 				{
-					final ARGBRenderImage bi = display.setRenderedImageAndTransform( screenImage, currentProjectorTransform, isComplete );
-					if ( doubleBuffered )
-					{
-						renderIdQueue.pop();
-						final Integer id = bufferedImageToRenderId.get( bi );
-						if ( id != null )
-							renderIdQueue.add( id );
-					}
-
 					if ( currentScreenScaleIndex == maxScreenScaleIndex )
 					{
 						if ( rendertime > targetRenderNanos && maxScreenScaleIndex < screenScales.length - 1 )
@@ -496,13 +1071,19 @@ public final class HeadlessMultiResolutionRenderer
 						if ( rendertime < targetRenderNanos && maxScreenScaleIndex > 0 )
 							maxScreenScaleIndex--;
 					}
+					stats.setMaxScreenScaleIndex( maxScreenScaleIndex );
 //					System.out.println( String.format( "rendering:%4d ms", rendertime / 1000000 ) );
 //					System.out.println( "scale = " + currentScreenScaleIndex );
 //					System.out.println( "maxScreenScaleIndex = " + maxScreenScaleIndex + "  (" + screenImages[ maxScreenScaleIndex ][ 0 ].dimension( 0 ) + " x " + screenImages[ maxScreenScaleIndex ][ 0 ].dimension( 1 ) + ")" );
 				}
-				else
+				RenderEvents.end( publishEvent, viewerId, currentScreenScaleIndex, previousTimepoint );
+
+				// The per-source buffers are not needed until the next frame.
+				// Let other viewers use them in the meantime.
+				if ( isComplete )
 				{
-					display.currentImageUpdated( isComplete );
+					releaseScratchBuffers();
+					scratchReleased = true;
 				}
 
 				if ( currentScreenScaleIndex > 0 )
@@ -518,17 +1099,436 @@ public final class HeadlessMultiResolutionRenderer
 					requestRepaint( currentScreenScaleIndex );
 				}
 			}
+
+			if ( releaseBuffersRequested )
+			{
+				releaseBuffersRequested = false;
+				releaseBuffers();
+			}
+		}
+
+		// currentProjectorTransform is only modified on the painter thread, so
+		// it is safe to hand out outside the lock.
+		if ( shownImage != null )
+		{
+			final Object listenersEvent = RenderEvents.begin( RenderEvents.FRAME_LISTENERS );
+			display.notifyFrameListeners( shownImage, currentProjectorTransform );
+			RenderEvents.end( listenersEvent, viewerId, currentScreenScaleIndex, previousTimepoint );
+		}
+
+		return success;
+	}
+
+	/**
+	 * With double buffering, copy the {@link #projectorImage}, which was
+	 * published and is held by the {@link #display} or leased, to the next
+	 * free screen image (the head of {@link #renderIdQueue}), and let the
+	 * projector continue on the copy. Published images are thus never written
+	 * to. Called on the painter thread while {@link #painting}, before the
+	 * projector renders (when only the painter thread modifies
+	 * {@link #renderIdQueue}).
+	 */
+	private void moveProjectorImage()
+	{
+		final ARGBRenderImage published = projectorImage;
+		final ARGBRenderImage image;
+		synchronized ( this )
+		{
+			image = screenImages[ currentScreenScaleIndex ][ renderIdQueue.peek() ];
+			projectorImage = image;
+			projectorTarget.setImage( image );
+		}
+		published.copyTo( image );
+	}
+
+	/**
+	 * Publish a screen image to the {@link #display} and recycle the image
+	 * that it replaces.
+	 */
+	private synchronized void publishNewImage( final ARGBRenderImage screenImage, final boolean isComplete )
+	{
+		final ARGBRenderImage bi = display.setRenderedImageAndTransform( screenImage, currentProjectorTransform, isComplete );
+		publishedImage = screenImage;
+		if ( doubleBuffered )
+		{
+			renderIdQueue.remove( bufferedImageToRenderId.get( screenImage ) );
+			final Integer id = bufferedImageToRenderId.get( bi );
+			if ( id != null )
+			{
+				if ( bi.isLeased() )
+					leasedImages.add( bi );
+				else
+					renderIdQueue.add( id );
+			}
+		}
+	}
+
+	/**
+	 * Shows the tiles of a progressive pass rendered so far, by publishing the
+	 * {@link #projectorImage} after each wave of tiles. The remaining waves
+	 * continue on a copy (see {@link #moveProjectorImage()}). For a new
+	 * projector, its image is first filled with the image of the previous
+	 * (coarser) pass. All methods are called on the painter thread.
+	 */
+	private final class PartialUpdates implements TiledAccumulateProjector.PartialUpdateListener
+	{
+		/**
+		 * The image that a new projector renders to.
+		 */
+		private final ARGBRenderImage image;
+
+		/**
+		 * The published image of the previous pass, to {@link #prefill()}
+		 * {@link #image} from, or {@code null}.
+		 */
+		private final ARGBRenderImage previousImage;
+
+		/**
+		 * Whether partial updates are shown. The image of a new projector is
+		 * only shown before it is complete if it can be prefilled. Partial
+		 * updates need a second free screen image to continue on, otherwise
+		 * the pass is only published when it is done.
+		 */
+		private final boolean enabled;
+
+		/**
+		 * Called while holding the renderer lock.
+		 */
+		PartialUpdates( final ARGBRenderImage image, final boolean newProjector, final ARGBRenderImage previousImage )
+		{
+			enabled = ( !newProjector || previousImage != null ) && renderIdQueue.size() >= 2;
+			this.image = image;
+			this.previousImage = newProjector && enabled ? previousImage : null;
+		}
+
+		/**
+		 * Fill {@link #image} with {@link #previousImage}, scaled (nearest
+		 * neighbor).
+		 */
+		void prefill()
+		{
+			if ( previousImage == null )
+				return;
+			final int sw = ( int ) previousImage.dimension( 0 );
+			final int sh = ( int ) previousImage.dimension( 1 );
+			final int dw = ( int ) image.dimension( 0 );
+			final int dh = ( int ) image.dimension( 1 );
+			final RandomAccess< ARGBType > src = previousImage.randomAccess();
+			final RandomAccess< ARGBType > dst = image.randomAccess();
+			for ( int y = 0; y < dh; ++y )
+			{
+				src.setPosition( Math.min( ( int ) ( ( y + 0.5 ) * sh / dh ), sh - 1 ), 1 );
+				dst.setPosition( 0, 0 );
+				dst.setPosition( y, 1 );
+				for ( int x = 0; x < dw; ++x )
+				{
+					src.setPosition( Math.min( ( int ) ( ( x + 0.5 ) * sw / dw ), sw - 1 ), 0 );
+					dst.get().set( src.get() );
+					dst.fwd( 0 );
+				}
+			}
+		}
+
+		@Override
+		public void partialUpdate()
+		{
+			// Keep one free screen image to continue on.
+			if ( !enabled || renderIdQueue.size() < 2 )
+				return;
+			final Object publishEvent = RenderEvents.begin( RenderEvents.PUBLISH );
+			final ARGBRenderImage screenImage = projectorImage;
+			publishNewImage( screenImage, false );
+			RenderEvents.end( publishEvent, viewerId, currentScreenScaleIndex, previousTimepoint );
+			display.notifyFrameListeners( screenImage, currentProjectorTransform );
+			moveProjectorImage();
+		}
+	}
+
+	/**
+	 * The target of the {@link #projector current projector}: one of the
+	 * {@link #screenImages}, which can be switched to another screen image of
+	 * the same size between passes (and between waves of a
+	 * {@link TiledAccumulateProjector}). Projectors get new accesses to their
+	 * target for every pass (or wave), so they continue on the new image.
+	 */
+	private static final class ProjectorTarget extends AbstractInterval implements RandomAccessibleInterval< ARGBType >
+	{
+		private ARGBRenderImage image;
+
+		ProjectorTarget( final ARGBRenderImage image )
+		{
+			super( image );
+			this.image = image;
+		}
+
+		void setImage( final ARGBRenderImage image )
+		{
+			this.image = image;
+		}
+
+		@Override
+		public RandomAccess< ARGBType > randomAccess()
+		{
+			return image.randomAccess();
+		}
+
+		@Override
+		public RandomAccess< ARGBType > randomAccess( final Interval interval )
+		{
+			return image.randomAccess( interval );
+		}
+	}
+
+	/**
+	 * Render {@code state} at full resolution into {@code target},
+	 * synchronously on the calling thread (and the rendering threads). This
+	 * bypasses the painter thread and the screen scales: Sources are rendered
+	 * from their best mipmap level only, using non-volatile images, so
+	 * rendering blocks until all data is loaded. Nothing is displayed.
+	 * <p>
+	 * {@code target} is usually the size of the {@link #display}. Other sizes
+	 * are scaled to cover the same area.
+	 *
+	 * @param state
+	 *            the state to render. This should be a copy, not the live
+	 *            state of a viewer.
+	 * @param target
+	 *            the image to render to.
+	 * @return whether rendering was successful. (It is not if the calling
+	 *         thread was interrupted.)
+	 */
+	public boolean renderNow( final ViewerState state, final ARGBRenderImage target )
+	{
+		return render( state, getScreenScaleTransform( ( int ) target.dimension( 0 ), ( int ) target.dimension( 1 ) ), target );
+	}
+
+	/**
+	 * Render the rectangle {@code region} of the canvas of {@code state} into
+	 * {@code target}, like {@link #renderNow(ViewerState, ARGBRenderImage)}.
+	 * {@code region} is scaled to cover {@code target}, so the screen scale is
+	 * the size of {@code target} divided by the size of {@code region}.
+	 * Projectors are created for {@code target} only, and only the cells that
+	 * are visible in {@code region} are loaded. They are
+	 * {@link #prefetchRegion(ViewerState, Interval, Dimensions) prefetched}
+	 * first, so that the fetcher threads load them in parallel.
+	 *
+	 * @param state
+	 *            the state to render. This should be a copy, not the live
+	 *            state of a viewer.
+	 * @param region
+	 *            the rectangle to render, in canvas coordinates. It may
+	 *            extend beyond the canvas.
+	 * @param target
+	 *            the image to render to.
+	 * @return whether rendering was successful. (It is not if the calling
+	 *         thread was interrupted.)
+	 */
+	public boolean renderRegion( final ViewerState state, final Interval region, final ARGBRenderImage target )
+	{
+		final AffineTransform3D regionTransform = getRegionTransform( region, ( int ) target.dimension( 0 ), ( int ) target.dimension( 1 ) );
+		postPrefetch( state, regionTransform, target );
+		return render( state, regionTransform, target );
+	}
+
+	private boolean render( final ViewerState state, final AffineTransform3D screenScaleTransform, final ARGBRenderImage target )
+	{
+		final int width = ( int ) target.dimension( 0 );
+		final int height = ( int ) target.dimension( 1 );
+
+		final List< SourceState< ? > > sources = state.getSources();
+		final List< Integer > visibleSourceIndices = state.getVisibleSourceIndices();
+		final VolatileProjector projector;
+		if ( visibleSourceIndices.isEmpty() )
+			projector = new EmptyProjector< ARGBType >( target );
+		else if ( visibleSourceIndices.size() == 1 )
+		{
+			final int i = visibleSourceIndices.get( 0 );
+			projector = createBlockingProjector( state, sources.get( i ), i, screenScaleTransform, target );
+		}
+		else
+		{
+			// Per-source images are separate from renderImages, because these
+			// are used by the painter thread concurrently. Concurrent calls
+			// wait for each other to use them.
+			synchronized ( renderNowImages )
+			{
+				final ArrayList< VolatileProjector > sourceProjectors = new ArrayList< VolatileProjector >();
+				final ArrayList< ARGBRenderImage > sourceImages = new ArrayList< ARGBRenderImage >();
+				for ( final int i : visibleSourceIndices )
+				{
+					final ARGBRenderImage renderImage = getRenderNowImage( sourceImages.size(), width, height );
+					sourceProjectors.add( createBlockingProjector( state, sources.get( i ), i, screenScaleTransform, renderImage ) );
+					sourceImages.add( renderImage );
+				}
+				projector = new AccumulateProjectorARGB( sourceProjectors, sourceImages, target, numRenderingThreads, renderingExecutorService );
+				return map( projector, target );
+			}
 		}
+		return map( projector, target );
+	}
 
+	private static boolean map( final VolatileProjector projector, final ARGBRenderImage target )
+	{
+		final boolean success = projector.map( true );
+		target.isComplete = success;
 		return success;
 	}
 
+	/**
+	 * Get the {@code i}th image of {@link #renderNowImages}, (re-)allocating
+	 * it if it doesn't have the given size. Must be called holding the lock
+	 * on {@link #renderNowImages}.
+	 */
+	private ARGBRenderImage getRenderNowImage( final int i, final int width, final int height )
+	{
+		if ( i == renderNowImages.size() )
+			renderNowImages.add( null );
+		ARGBRenderImage image = renderNowImages.get( i );
+		if ( image == null || image.dimension( 0 ) != width || image.dimension( 1 ) != height )
+		{
+			image = new ARGBRenderImage( width, height );
+			renderNowImages.set( i, image );
+		}
+		return image;
+	}
+
+	/**
+	 * Enqueue loading of the data that is needed to
+	 * {@link #renderNow(ViewerState, ARGBRenderImage) render} {@code state}
+	 * into an image of size {@code target}. Cells are loaded by the fetcher
+	 * threads of the cache, this returns immediately. Only sources that have a
+	 * volatile version are prefetched.
+	 * <p>
+	 * The cells are enqueued by the painter thread, before it renders the
+	 * next pass, so {@code state} must not be modified afterwards. Note that
+	 * the painter thread clears the fetcher queue whenever it starts rendering
+	 * a new frame.
+	 */
+	public void prefetch( final ViewerState state, final Dimensions target )
+	{
+		postPrefetch( state, getScreenScaleTransform( ( int ) target.dimension( 0 ), ( int ) target.dimension( 1 ) ), target );
+	}
+
+	/**
+	 * Enqueue loading of the data that is needed to
+	 * {@link #renderRegion(ViewerState, Interval, ARGBRenderImage) render}
+	 * the rectangle {@code region} of the canvas of {@code state} into an
+	 * image of size {@code target}. Only the cells that are visible in
+	 * {@code region} are enqueued. See
+	 * {@link #prefetch(ViewerState, Dimensions)}.
+	 */
+	public void prefetchRegion( final ViewerState state, final Interval region, final Dimensions target )
+	{
+		postPrefetch( state, getRegionTransform( region, ( int ) target.dimension( 0 ), ( int ) target.dimension( 1 ) ), target );
+	}
+
+	private void postPrefetch( final ViewerState state, final AffineTransform3D screenScaleTransform, final Dimensions target )
+	{
+		postedPrefetches.add( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				prefetch( state, screenScaleTransform, target );
+			}
+		} );
+		painter.requestRepaint();
+	}
+
+	/**
+	 * Run the {@link #postedPrefetches}. Called on the painter thread, while
+	 * no projector is mapping.
+	 */
+	private void runPostedPrefetches()
+	{
+		boolean prefetched = false;
+		for ( Runnable prefetch = postedPrefetches.poll(); prefetch != null; prefetch = postedPrefetches.poll() )
+		{
+			prefetch.run();
+			prefetched = true;
+		}
+		if ( prefetched )
+		{
+			synchronized ( this )
+			{
+				renewCacheHints = true;
+			}
+		}
+	}
+
+	private void prefetch( final ViewerState state, final AffineTransform3D screenScaleTransform, final Dimensions target )
+	{
+		final List< SourceState< ? > > sources = state.getSources();
+		for ( final int i : state.getVisibleSourceIndices() )
+		{
+			final SourceState< ? > source = sources.get( i );
+			if ( source.asVolatile() != null )
+				prefetchBestLevel( state, source.asVolatile(), i, screenScaleTransform, target );
+		}
+	}
+
+	private static final CacheHints prefetchCacheHints = new CacheHints( LoadingStrategy.VOLATILE, 0, false );
+
+	private < T > void prefetchBestLevel(
+			final ViewerState viewerState,
+			final SourceState< T > source,
+			final int sourceIndex,
+			final AffineTransform3D screenScaleTransform,
+			final Dimensions target )
+	{
+		final Source< T > spimSource = source.getSpimSource();
+		final int bestLevel = viewerState.getBestMipMapLevel( screenScaleTransform, sourceIndex );
+		final SetCacheHints sls = SetCacheHints.class.isInstance( spimSource ) ?
+				( SetCacheHints ) spimSource : SetCacheHints.empty;
+		sls.setCacheHints( bestLevel, prefetchCacheHints );
+		tracedPrefetch( viewerState, spimSource, screenScaleTransform, bestLevel, target, -1 );
+	}
+
+	/**
+	 * Get the transform from canvas to an image of the given size, covering
+	 * the same area as the canvas.
+	 */
+	private AffineTransform3D getScreenScaleTransform( final int width, final int height )
+	{
+		return getRegionTransform( new FinalInterval( display.getWidth(), display.getHeight() ), width, height );
+	}
+
+	/**
+	 * Get the transform from canvas to an image of the given size, covering
+	 * the rectangle {@code region} of the canvas.
+	 */
+	private static AffineTransform3D getRegionTransform( final Interval region, final int width, final int height )
+	{
+		final AffineTransform3D scale = new AffineTransform3D();
+		final double xScale = ( double ) width / region.dimension( 0 );
+		final double yScale = ( double ) height / region.dimension( 1 );
+		scale.set( xScale, 0, 0 );
+		scale.set( yScale, 1, 1 );
+		scale.set( 0.5 * xScale - 0.5 - xScale * region.min( 0 ), 0, 3 );
+		scale.set( 0.5 * yScale - 0.5 - yScale * region.min( 1 ), 1, 3 );
+		return scale;
+	}
+
+	private < T > VolatileProjector createBlockingProjector(
+			final ViewerState viewerState,
+			final SourceState< T > source,
+			final int sourceIndex,
+			final AffineTransform3D screenScaleTransform,
+			final ARGBRenderImage target )
+	{
+		final int bestLevel = viewerState.getBestMipMapLevel( screenScaleTransform, sourceIndex );
+		return new SimpleVolatileProjector< T, ARGBType >(
+				getTransformedSource( viewerState, source.getSpimSource(), screenScaleTransform, bestLevel ),
+				source.getConverter(), target, numRenderingThreads, renderingExecutorService );
+	}
+
 	/**
 	 * Request a repaint of the display from the painter thread, with maximum
 	 * screen scale index and mipmap level.
 	 */
 	public synchronized void requestRepaint()
 	{
+		stats.changeRequested();
 		newFrameRequest = true;
 		requestRepaint( maxScreenScaleIndex );
 	}
@@ -545,20 +1545,93 @@ public final class HeadlessMultiResolutionRenderer
 			projector.cancel();
 		if ( screenScaleIndex > requestedScreenScaleIndex )
 			requestedScreenScaleIndex = screenScaleIndex;
-		painterThread.requestRepaint();
+		painter.requestRepaint();
+	}
+
+	/**
+	 * Request a new frame after the size of the {@link #display} was changed.
+	 * The current rendering is cancelled, because a frame of the old size is
+	 * not needed any more, and the new frame starts at the coarsest screen
+	 * scale. Screen and render images are replaced in the next
+	 * {@link #paint(ViewerState)}. The old ones go back to the {@link #arena},
+	 * which keeps them (within its budget) for a resize back to the old size.
+	 * Old screen images that a client has leased, or that the display still
+	 * holds, are not reused: The arena stops accounting for them, and they
+	 * are garbage collected when they are no longer used.
+	 */
+	public synchronized void requestResizeRepaint()
+	{
+		stats.changeRequested();
+		newFrameRequest = true;
+		if ( projector != null )
+			projector.cancel();
+		requestedScreenScaleIndex = screenScales.length - 1;
+		painter.requestRepaint();
+	}
+
+	/**
+	 * Cancel the current rendering (if it may be cancelled) and wake up the
+	 * painter thread, without taking the renderer monitor. Unlike
+	 * {@link #requestRepaint()}, this does not request a new frame by itself.
+	 * It is used by {@link HeadlessViewerPanel} for changes that are posted
+	 * to be applied on the painter thread, which then calls
+	 * {@link #requestRepaint()} from there. Callers never block on a
+	 * running {@link #paint(ViewerState)}.
+	 */
+	public void cancelAndRequestRepaint()
+	{
+		stats.changeRequested();
+		final VolatileProjector p = projector;
+		if ( renderingMayBeCancelled && p != null )
+			p.cancel();
+		painter.requestRepaint();
+	}
+
+	/**
+	 * Give back a lease on an image obtained from the {@link #display}. If
+	 * rendering was stalled because all screen images were leased, a repaint
+	 * is requested.
+	 */
+	public synchronized void releaseImage( final ARGBRenderImage img )
+	{
+		img.release();
+		if ( waitingForRelease && !img.isLeased() )
+		{
+			waitingForRelease = false;
+			painter.requestRepaint();
+		}
 	}
 
 	private VolatileProjector createProjector(
 			final ViewerState viewerState,
 			final int screenScaleIndex,
-			final ARGBRenderImage screenImage )
+			final RandomAccessibleInterval< ARGBType > screenImage )
 	{
+		final Object event = RenderEvents.begin( RenderEvents.PROJECTOR_CREATION );
 		cache.initIoTimeBudget( null ); // clear time budget such that prefetching doesn't wait for loading blocks.
 		final List< SourceState< ? > > sources = viewerState.getSources();
 		final List< Integer > visibleSourceIndices = viewerState.getVisibleSourceIndices();
 		VolatileProjector projector;
 		if ( visibleSourceIndices.isEmpty() )
 			projector = new EmptyProjector< ARGBType >( screenImage );
+		else if ( progressiveRendering || ( tiledAccumulation && visibleSourceIndices.size() > 1 ) )
+		{
+			final ArrayList< TiledAccumulateProjector.SourceLevels< ? > > sourceLevels = new ArrayList< TiledAccumulateProjector.SourceLevels< ? > >();
+			for ( final int i : visibleSourceIndices )
+				sourceLevels.add( createSourceLevels( viewerState, sources.get( i ), i, screenImage ) );
+			final TiledAccumulateProjector tiled = new TiledAccumulateProjector( sourceLevels, screenImage, TiledAccumulateProjector.DEFAULT_TILE_SIZE, numRenderingThreads, renderingExecutorService );
+			if ( progressiveRendering )
+			{
+				final double sx = ( double ) screenImage.dimension( 0 ) / display.getWidth();
+				final double sy = ( double ) screenImage.dimension( 1 ) / display.getHeight();
+				final double fx = focusX;
+				final double fy = focusY;
+				tiled.setFocus(
+						( Double.isNaN( fx ) ? 0.5 * display.getWidth() : fx ) * sx,
+						( Double.isNaN( fy ) ? 0.5 * display.getHeight() : fy ) * sy );
+			}
+			projector = tiled;
+		}
 		else if ( visibleSourceIndices.size() == 1 )
 		{
 			final int i = visibleSourceIndices.get( 0 );
@@ -568,6 +1641,7 @@ public final class HeadlessMultiResolutionRenderer
 		{
 			final ArrayList< VolatileProjector > sourceProjectors = new ArrayList< VolatileProjector >();
 			final ArrayList< ARGBRenderImage > sourceImages = new ArrayList< ARGBRenderImage >();
+			final AccumulationEvents accumulationEvents = event == null ? null : new AccumulationEvents( currentScreenScaleIndex, viewerState.getCurrentTimepoint() );
 			int j = 0;
 			for ( final int i : visibleSourceIndices )
 			{
@@ -577,17 +1651,327 @@ public final class HeadlessMultiResolutionRenderer
 				final VolatileProjector p = createSingleSourceProjector(
 						viewerState, sources.get( i ), i, currentScreenScaleIndex,
 						renderImage, maskArray );
-				sourceProjectors.add( p );
+				sourceProjectors.add( accumulationEvents == null ? p : accumulationEvents.source( p ) );
 				sourceImages.add( renderImage );
 			}
 			projector = new AccumulateProjectorARGB( sourceProjectors, sourceImages, screenImage, numRenderingThreads, renderingExecutorService );
+			if ( accumulationEvents != null )
+				projector = accumulationEvents.accumulate( projector );
 		}
 		previousTimepoint = viewerState.getCurrentTimepoint();
 		viewerState.getViewerTransform( currentProjectorTransform );
+		lookAheadStates.clear();
 		cache.initIoTimeBudget( iobudget );
+		RenderEvents.end( event, viewerId, currentScreenScaleIndex, previousTimepoint );
 		return projector;
 	}
 
+	/**
+	 * Records {@link RenderEvents#ACCUMULATE} events for an
+	 * {@link AccumulateProjectorARGB}. The accumulate projector first renders
+	 * the source projectors (one after another, on the painter thread), then
+	 * accumulates their images. The event is started again after each source
+	 * projector finishes, such that it covers only the accumulation.
+	 * Only used when events are recorded (tracing was enabled when the
+	 * projector was created).
+	 */
+	private final class AccumulationEvents
+	{
+		private final int screenScaleIndex;
+
+		private final int timepoint;
+
+		private Object event;
+
+		AccumulationEvents( final int screenScaleIndex, final int timepoint )
+		{
+			this.screenScaleIndex = screenScaleIndex;
+			this.timepoint = timepoint;
+		}
+
+		/**
+		 * Wrap a source projector of the accumulate projector.
+		 */
+		VolatileProjector source( final VolatileProjector p )
+		{
+			return new ForwardingProjector( p )
+			{
+				@Override
+				public boolean map( final boolean clearUntouchedTargetPixels )
+				{
+					final boolean success = p.map( clearUntouchedTargetPixels );
+					event = RenderEvents.begin( RenderEvents.ACCUMULATE );
+					return success;
+				}
+			};
+		}
+
+		/**
+		 * Wrap the accumulate projector.
+		 */
+		VolatileProjector accumulate( final VolatileProjector p )
+		{
+			return new ForwardingProjector( p )
+			{
+				@Override
+				public boolean map( final boolean clearUntouchedTargetPixels )
+				{
+					event = RenderEvents.begin( RenderEvents.ACCUMULATE );
+					final boolean success = p.map( clearUntouchedTargetPixels );
+					RenderEvents.end( event, viewerId, screenScaleIndex, timepoint );
+					event = null;
+					return success;
+				}
+			};
+		}
+	}
+
+	/**
+	 * {@link VolatileProjector} that forwards to another one.
+	 */
+	private static class ForwardingProjector implements VolatileProjector
+	{
+		private final VolatileProjector p;
+
+		ForwardingProjector( final VolatileProjector p )
+		{
+			this.p = p;
+		}
+
+		@Override
+		public boolean map( final boolean clearUntouchedTargetPixels )
+		{
+			return p.map( clearUntouchedTargetPixels );
+		}
+
+		@Override
+		public void cancel()
+		{
+			p.cancel();
+		}
+
+		@Override
+		public long getLastFrameRenderNanoTime()
+		{
+			return p.getLastFrameRenderNanoTime();
+		}
+
+		@Override
+		public boolean isValid()
+		{
+			return p.isValid();
+		}
+	}
+
+	/**
+	 * Set up {@link #lookAheadStates} for a new frame: Feed the viewer
+	 * transform of {@code viewerState} to the {@link #motionPredictor} and add
+	 * states for the predicted transforms, and add states for the
+	 * {@link #readAheadTimepoints}. Called only when the fetcher queue was
+	 * cleared, such that look-ahead requests are enqueued once per frame
+	 * (and not for each screen scale).
+	 */
+	private void updateLookAheadStates( final ViewerState viewerState )
+	{
+		lookAheadStates.clear();
+		if ( !prefetchCells )
+			return;
+		final AffineTransform3D viewerTransform = new AffineTransform3D();
+		viewerState.getViewerTransform( viewerTransform );
+		for ( final AffineTransform3D predicted : motionPredictor.update( viewerTransform, display.getWidth(), display.getHeight() ) )
+		{
+			final ViewerState predictedState = viewerState.copy();
+			predictedState.setViewerTransform( predicted );
+			lookAheadStates.add( predictedState );
+		}
+		for ( final int timepoint : readAheadTimepoints )
+		{
+			if ( timepoint == viewerState.getCurrentTimepoint() || timepoint < 0 || timepoint >= viewerState.getNumTimePoints() )
+				continue;
+			final ViewerState readAheadState = viewerState.copy();
+			readAheadState.setCurrentTimepoint( timepoint );
+			lookAheadStates.add( readAheadState );
+		}
+	}
+
+	/**
+	 * Set timepoints that will be shown next, in the order they will be shown.
+	 * Whenever a new frame is rendered, data for these timepoints is
+	 * prefetched for the current view (with low priority, after the data for
+	 * the current frame).
+	 *
+	 * @param timepoints
+	 *            timepoints to read ahead. An empty array disables read-ahead.
+	 */
+	public void setReadAheadTimepoints( final int[] timepoints )
+	{
+		readAheadTimepoints = timepoints.clone();
+	}
+
+	/**
+	 * Set the IO time budget: how long rendering a frame may block waiting for
+	 * data to load, per priority level (highest priority first). Takes effect
+	 * with the next frame. If the budget is
+	 * {@link #setAdaptiveIoBudget(long) adaptive}, this restarts adaptation
+	 * from the given budget.
+	 *
+	 * @param budget
+	 *            IO time budget per priority level, in nanoseconds.
+	 */
+	public synchronized void setIoBudget( final long[] budget )
+	{
+		iobudget = budget.clone();
+		final AdaptiveIoBudget adaptive = adaptiveIoBudget;
+		if ( adaptive != null )
+			adaptiveIoBudget = new AdaptiveIoBudget( adaptive.getTargetNanos(), iobudget );
+	}
+
+	/**
+	 * @return the current IO time budget per priority level, in nanoseconds.
+	 */
+	public long[] getIoBudget()
+	{
+		return iobudget.clone();
+	}
+
+	/**
+	 * Adjust the IO time budget automatically, to render the first frame after
+	 * each change within {@code targetNanos}. See {@link AdaptiveIoBudget}.
+	 * Adaptation starts from the current budget. The budget is only adapted
+	 * if {@link #setIoTimingPerViewer(boolean) IO time is measured per viewer}.
+	 *
+	 * @param targetNanos
+	 *            target latency in nanoseconds, or 0 to keep the budget fixed.
+	 */
+	public synchronized void setAdaptiveIoBudget( final long targetNanos )
+	{
+		adaptiveIoBudget = targetNanos > 0 ? new AdaptiveIoBudget( targetNanos, iobudget ) : null;
+	}
+
+	/**
+	 * Set whether the thread group of the painter and rendering threads is
+	 * used by this renderer only. The cache measures IO time per thread
+	 * group. If the threads are shared with other viewers, the IO time of
+	 * passes is not measured (it is reported as -1 to {@link RenderStats}),
+	 * and the IO time budget is not adapted.
+	 */
+	public void setIoTimingPerViewer( final boolean perViewer )
+	{
+		ioTimingPerViewer = perViewer;
+	}
+
+	/**
+	 * @return the controller of the adaptive IO time budget (to monitor the
+	 *         measured frame and IO times), or {@code null} if the budget is
+	 *         fixed.
+	 */
+	public AdaptiveIoBudget getAdaptiveIoBudget()
+	{
+		return adaptiveIoBudget;
+	}
+
+	/**
+	 * Set whether to prefetch the cells needed for a new frame (and predicted
+	 * or read-ahead frames) before rendering it.
+	 */
+	public void setPrefetchCells( final boolean prefetchCells )
+	{
+		this.prefetchCells = prefetchCells;
+	}
+
+	public boolean isPrefetchCells()
+	{
+		return prefetchCells;
+	}
+
+	/**
+	 * Set whether to render multiple visible sources tile by tile with a
+	 * {@link TiledAccumulateProjector}, instead of rendering each source into
+	 * a full-size image and summing those. This needs much less memory for
+	 * many sources, but pixels of incomplete tiles are rendered again in each
+	 * pass. Takes effect with the next frame.
+	 */
+	public synchronized void setTiledAccumulation( final boolean tiledAccumulation )
+	{
+		this.tiledAccumulation = tiledAccumulation;
+	}
+
+	public synchronized boolean isTiledAccumulation()
+	{
+		return tiledAccumulation;
+	}
+
+	/**
+	 * Set whether to render progressively: Sources are rendered tile by tile
+	 * with a {@link TiledAccumulateProjector}, tiles nearest to the
+	 * {@link #setFocusPoint(double, double) focus point} first. Passes after
+	 * the first pass of a frame (finer screen scales, and refinement as data
+	 * is loaded) are shown while they are rendered: The tiles rendered so far
+	 * are published a few times per pass (see
+	 * {@link HeadlessRenderTarget#getLatestImage()}), on top of the upscaled
+	 * image of the previous pass. Takes effect with the next frame.
+	 * <p>
+	 * This also applies to a single visible source, which is otherwise
+	 * rendered with a {@link VolatileHierarchyProjector}. That keeps a
+	 * per-pixel mask of the mipmap level each pixel was rendered from, so
+	 * refinement passes only render pixels that are not yet at the best
+	 * level. {@link TiledAccumulateProjector} has no such masks: Refinement
+	 * passes render all pixels of every tile that is not done again, which
+	 * costs more time while data is loading.
+	 */
+	public synchronized void setProgressiveRendering( final boolean progressiveRendering )
+	{
+		this.progressiveRendering = progressiveRendering;
+	}
+
+	public synchronized boolean isProgressiveRendering()
+	{
+		return progressiveRendering;
+	}
+
+	/**
+	 * Set the point (in canvas coordinates) around which
+	 * {@link #setProgressiveRendering(boolean) progressive} rendering starts.
+	 * {@code NaN} means the center of the canvas (the default). Takes effect
+	 * with the next frame (or finer screen scale).
+	 */
+	public void setFocusPoint( final double x, final double y )
+	{
+		focusX = x;
+		focusY = y;
+	}
+
+	/**
+	 * Set the viewer id that is attached to {@link RenderEvents} of this
+	 * renderer (default -1).
+	 */
+	public void setViewerId( final int id )
+	{
+		viewerId = id;
+	}
+
+	public int getViewerId()
+	{
+		return viewerId;
+	}
+
+	/**
+	 * Get the rendering metrics of this renderer.
+	 */
+	public RenderStats getRenderStats()
+	{
+		return stats;
+	}
+
+	/**
+	 * Get the predictor that extrapolates viewer transforms for prefetching.
+	 * Use it to tune prediction and to query the prediction hit rate.
+	 */
+	public MotionPredictor getMotionPredictor()
+	{
+		return motionPredictor;
+	}
+
 	private static class SimpleVolatileProjector< A, B > extends SimpleInterruptibleProjector< A, B > implements VolatileProjector
 	{
 		private boolean valid = false;
@@ -601,6 +1985,16 @@ public final class HeadlessMultiResolutionRenderer
 			super( source, converter, target, numThreads );
 		}
 
+		public SimpleVolatileProjector(
+				final RandomAccessible< A > source,
+				final Converter< ? super A, B > converter,
+				final RandomAccessibleInterval< B > target,
+				final int numThreads,
+				final ExecutorService executorService )
+		{
+			super( source, converter, target, numThreads, executorService );
+		}
+
 		@Override
 		public boolean map( final boolean clearUntouchedTargetPixels )
 		{
@@ -621,7 +2015,7 @@ public final class HeadlessMultiResolutionRenderer
 			final SourceState< T > source,
 			final int sourceIndex,
 			final int screenScaleIndex,
-			final ARGBRenderImage screenImage,
+			final RandomAccessibleInterval< ARGBType > screenImage,
 			final byte[] maskArray )
 	{
 		if ( useVolatileIfAvailable && source.asVolatile() != null )
@@ -643,8 +2037,23 @@ public final class HeadlessMultiResolutionRenderer
 			final SourceState< T > source,
 			final int sourceIndex,
 			final int screenScaleIndex,
-			final ARGBRenderImage screenImage,
+			final RandomAccessibleInterval< ARGBType > screenImage,
 			final byte[] maskArray )
+	{
+		final List< RandomAccessible< T > > renderList = createVolatileRenderList( viewerState, source, sourceIndex, screenImage );
+		return new VolatileHierarchyProjector< T, ARGBType >( renderList, source.getConverter(), screenImage, maskArray, numRenderingThreads, renderingExecutorService, cache.getCacheIoTiming() );
+	}
+
+	/**
+	 * Get the mipmap levels of {@code source} to render, in render order,
+	 * transformed to screen coordinates, and set their cache hints. Also
+	 * prefetches the data of the levels (if {@link #prefetchCells}).
+	 */
+	private < T extends Volatile< ? > > List< RandomAccessible< T > > createVolatileRenderList(
+			final ViewerState viewerState,
+			final SourceState< T > source,
+			final int sourceIndex,
+			final RandomAccessibleInterval< ARGBType > screenImage )
 	{
 		final AffineTransform3D screenScaleTransform = screenScaleTransforms[ currentScreenScaleIndex ];
 		final ArrayList< RandomAccessible< T > > renderList = new ArrayList< RandomAccessible< T > >();
@@ -673,7 +2082,29 @@ public final class HeadlessMultiResolutionRenderer
 					if ( l.getPrefetchCacheHints() == null || l.getPrefetchCacheHints().getLoadingStrategy() != LoadingStrategy.DONTLOAD )
 					{
 						sls.setCacheHints( l.getMipmapLevel(), l.getPrefetchCacheHints() );
-						prefetch( viewerState, spimSource, screenScaleTransform, l.getMipmapLevel(), screenImage );
+						tracedPrefetch( viewerState, spimSource, screenScaleTransform, l.getMipmapLevel(), screenImage, currentScreenScaleIndex );
+					}
+				}
+
+				// Prefetch the predicted next views and timepoints at the best
+				// level for full resolution, after everything else. Only levels
+				// in the list are used, such that their hints are reset for
+				// rendering below.
+				if ( !lookAheadStates.isEmpty() )
+				{
+					final CacheHints lookAheadCacheHints = new CacheHints( LoadingStrategy.VOLATILE, spimSource.getNumMipmapLevels() - 1, false );
+					for ( final ViewerState lookAheadState : lookAheadStates )
+					{
+						final int bestLevel = lookAheadState.getBestMipMapLevel( screenScaleTransforms[ 0 ], sourceIndex );
+						for ( final Level l : levels )
+						{
+							if ( l.getMipmapLevel() == bestLevel )
+							{
+								sls.setCacheHints( bestLevel, lookAheadCacheHints );
+								tracedPrefetch( lookAheadState, spimSource, screenScaleTransforms[ 0 ], bestLevel, screenImages[ 0 ][ 0 ], 0 );
+								break;
+							}
+						}
 					}
 				}
 			}
@@ -688,7 +2119,40 @@ public final class HeadlessMultiResolutionRenderer
 			if ( hints.renewHintsAfterPaintingOnce() )
 				newFrameRequest = true;
 		}
-		return new VolatileHierarchyProjector< T, ARGBType >( renderList, source.getConverter(), screenImage, maskArray, numRenderingThreads, renderingExecutorService, cache.getCacheIoTiming() );
+		return renderList;
+	}
+
+	/**
+	 * Get the levels of {@code source} to render with a
+	 * {@link TiledAccumulateProjector}.
+	 */
+	private < T > TiledAccumulateProjector.SourceLevels< ? > createSourceLevels(
+			final ViewerState viewerState,
+			final SourceState< T > source,
+			final int sourceIndex,
+			final RandomAccessibleInterval< ARGBType > screenImage )
+	{
+		if ( useVolatileIfAvailable && source.asVolatile() != null )
+		{
+			return createVolatileSourceLevels( viewerState, source.asVolatile(), sourceIndex, screenImage );
+		}
+		else
+		{
+			final AffineTransform3D screenScaleTransform = screenScaleTransforms[ currentScreenScaleIndex ];
+			final int bestLevel = viewerState.getBestMipMapLevel( screenScaleTransform, sourceIndex );
+			final List< RandomAccessible< T > > renderList = Collections.singletonList( getTransformedSource( viewerState, source.getSpimSource(), screenScaleTransform, bestLevel ) );
+			return new TiledAccumulateProjector.SourceLevels< T >( renderList, source.getConverter() );
+		}
+	}
+
+	private < T extends Volatile< ? > > TiledAccumulateProjector.SourceLevels< T > createVolatileSourceLevels(
+			final ViewerState viewerState,
+			final SourceState< T > source,
+			final int sourceIndex,
+			final RandomAccessibleInterval< ARGBType > screenImage )
+	{
+		final List< RandomAccessible< T > > renderList = createVolatileRenderList( viewerState, source, sourceIndex, screenImage );
+		return new TiledAccumulateProjector.SourceLevels< T >( renderList, source.getConverter() );
 	}
 
 	private static < T > RandomAccessible< T > getTransformedSource( final ViewerState viewerState, final Source< T > source, final AffineTransform3D screenScaleTransform, final int mipmapIndex )
@@ -707,6 +2171,23 @@ public final class HeadlessMultiResolutionRenderer
 		return RealViews.affine( img, sourceToScreen );
 	}
 
+	/**
+	 * {@link #prefetch(ViewerState, Source, AffineTransform3D, int, Dimensions)},
+	 * recording a {@link RenderEvents#PREFETCH} event.
+	 */
+	private < T > void tracedPrefetch(
+			final ViewerState viewerState,
+			final Source< T > source,
+			final AffineTransform3D screenScaleTransform,
+			final int mipmapIndex,
+			final Dimensions screenInterval,
+			final int screenScaleIndex )
+	{
+		final Object event = RenderEvents.begin( RenderEvents.PREFETCH );
+		prefetch( viewerState, source, screenScaleTransform, mipmapIndex, screenInterval );
+		RenderEvents.end( event, viewerId, screenScaleIndex, viewerState.getCurrentTimepoint() );
+	}
+
 	private static < T > void prefetch(
 			final ViewerState viewerState,
 			final Source< T > source,
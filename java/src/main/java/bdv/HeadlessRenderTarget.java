@@ -85,6 +85,12 @@ public final class HeadlessRenderTarget
 	 */
 	private final CopyOnWriteArrayList< TransformListener< AffineTransform3D > > paintedTransformListeners;
 
+	/**
+	 * These listeners will be notified whenever a new image is set or the
+	 * current image is updated by the renderer.
+	 */
+	private final CopyOnWriteArrayList< FrameListener > frameListeners;
+
 	/**
 	 * Whether an image is pending.
 	 */
@@ -98,12 +104,12 @@ public final class HeadlessRenderTarget
 	/**
 	 * The current canvas width.
 	 */
-	private final int width;
+	private int width;
 
 	/**
 	 * The current canvas height.
 	 */
-	private final int height;
+	private int height;
 
 	public HeadlessRenderTarget( final int width, final int height )
 	{
@@ -116,6 +122,7 @@ public final class HeadlessRenderTarget
 		pendingTransform = new AffineTransform3D();
 		paintedTransform = new AffineTransform3D();
 		paintedTransformListeners = new CopyOnWriteArrayList< TransformListener< AffineTransform3D > >();
+		frameListeners = new CopyOnWriteArrayList< FrameListener >();
 	}
 
 	/**
@@ -134,15 +141,28 @@ public final class HeadlessRenderTarget
 		pendingImage = img;
 		pendingImage.isComplete = isComplete;
 		pending = true;
+		notifyAll();
 		return tmp;
 	}
 
+	/**
+	 * Whether the {@link #paintedImage} or the {@link #pendingImage} shares
+	 * the storage of {@code storage}. Clients may read these (via
+	 * {@link #getLatestImage()}) until they are swapped out, so the storage
+	 * must not be reused before.
+	 */
+	synchronized boolean holdsStorageOf( final ARGBRenderImage storage )
+	{
+		return ( paintedImage != null && paintedImage.sharesStorageWith( storage ) ) ||
+				( pendingImage != null && pendingImage.sharesStorageWith( storage ) );
+	}
+
 	/**
 	 * Get the current canvas width.
 	 *
 	 * @return canvas width.
 	 */
-	public int getWidth()
+	public synchronized int getWidth()
 	{
 		return width;
 	}
@@ -152,11 +172,37 @@ public final class HeadlessRenderTarget
 	 *
 	 * @return canvas height.
 	 */
-	public int getHeight()
+	public synchronized int getHeight()
 	{
 		return height;
 	}
 
+	/**
+	 * Get the current canvas width and height, read together (they may be
+	 * {@link #setCanvasSize(int, int) changed} concurrently).
+	 *
+	 * @return canvas width and height.
+	 */
+	public synchronized int[] getCanvasSize()
+	{
+		return new int[] { width, height };
+	}
+
+	/**
+	 * Set the canvas size. The renderer picks up the new size when it paints
+	 * the next frame. Images that were already set keep their old size.
+	 *
+	 * @param width
+	 *            new canvas width.
+	 * @param height
+	 *            new canvas height.
+	 */
+	synchronized void setCanvasSize( final int width, final int height )
+	{
+		this.width = width;
+		this.height = height;
+	}
+
 	/**
 	 * Add a {@link TransformListener} to notify about viewer transformation
 	 * changes. Listeners will be notified when a new image has been rendered
@@ -206,6 +252,41 @@ public final class HeadlessRenderTarget
 		}
 	}
 
+	/**
+	 * Add a {@link FrameListener} to notify whenever a new image has been
+	 * rendered or the current image has been updated.
+	 *
+	 * @param listener
+	 *            the frame listener to add.
+	 */
+	public void addFrameListener( final FrameListener listener )
+	{
+		frameListeners.add( listener );
+	}
+
+	/**
+	 * Remove a {@link FrameListener}.
+	 *
+	 * @param listener
+	 *            the frame listener to remove.
+	 */
+	public void removeFrameListener( final FrameListener listener )
+	{
+		frameListeners.remove( listener );
+	}
+
+	/**
+	 * Notify {@link FrameListener}s that {@code img} has been
+	 * {@link #setRenderedImageAndTransform(ARGBRenderImage, AffineTransform3D, boolean)
+	 * set} or {@link #currentImageUpdated(boolean) updated}. This is called by
+	 * the renderer on the painter thread, without holding any locks.
+	 */
+	void notifyFrameListeners( final ARGBRenderImage img, final AffineTransform3D transform )
+	{
+		for ( final FrameListener listener : frameListeners )
+			listener.frameAvailable( img, transform );
+	}
+
 	/**
 	 * @return the latest {@link ARGBRenderImage} that was
 	 *         {@link #setRenderedImageAndTransform(ARGBRenderImage, AffineTransform3D)
@@ -214,33 +295,138 @@ public final class HeadlessRenderTarget
 	 */
 	ARGBRenderImage getLatestImage()
 	{
-		boolean notifyTransformListeners = false;
-		boolean imageUpdated = false;
-		ARGBRenderImage img = null;
+		return getLatestImage( false );
+	}
+
+	/**
+	 * Like {@link #getLatestImage()}, but the returned image (if any) is
+	 * {@link ARGBRenderImage#lease() leased}, such that the renderer does not
+	 * reuse it until it is {@link ARGBRenderImage#release() released}.
+	 *
+	 * @return the latest {@link ARGBRenderImage} that was
+	 *         {@link #setRenderedImageAndTransform(ARGBRenderImage, AffineTransform3D)
+	 *         set} by the renderer, or {@code null} if there was no change
+	 *         since the last call.
+	 */
+	ARGBRenderImage leaseLatestImage()
+	{
+		return getLatestImage( true );
+	}
+
+	/**
+	 * Wait until the renderer has {@link #setRenderedImageAndTransform(ARGBRenderImage, AffineTransform3D, boolean)
+	 * set} a new image or updated the current one, then return it as
+	 * {@link #getLatestImage()} would.
+	 *
+	 * @param timeoutMillis
+	 *            maximum time to wait in milliseconds. If negative, wait
+	 *            indefinitely.
+	 * @param requireComplete
+	 *            if {@code true}, wait until an image is available that is
+	 *            {@link ARGBRenderImage#isComplete() complete}.
+	 * @param lease
+	 *            whether to {@link ARGBRenderImage#lease() lease} the returned
+	 *            image.
+	 * @return the latest {@link ARGBRenderImage}, or {@code null} if the
+	 *         timeout elapsed before a (complete) new image became available.
+	 */
+	ARGBRenderImage waitForLatestImage( final long timeoutMillis, final boolean requireComplete, final boolean lease ) throws InterruptedException
+	{
+		final long deadline = System.nanoTime() + timeoutMillis * 1000000l;
+		final boolean notifyTransformListeners;
+		final ARGBRenderImage img;
 		synchronized ( this )
 		{
-			if ( pending )
+			while ( !isNewImageAvailable( requireComplete ) )
 			{
-				final ARGBRenderImage tmp = paintedImage;
-				paintedImage = pendingImage;
-				paintedTransform.set( pendingTransform );
-				pendingImage = tmp;
-				pending = false;
-				notifyTransformListeners = true;
-				imageUpdated = true;
+				if ( timeoutMillis < 0 )
+					wait();
+				else
+				{
+					final long remainingMillis = ( deadline - System.nanoTime() ) / 1000000l;
+					if ( remainingMillis <= 0 )
+						return null;
+					wait( remainingMillis );
+				}
 			}
-			else if ( currentImageUpdated )
-				imageUpdated = true;
-			currentImageUpdated = false;
-			img = paintedImage;
+			// Take the image that was checked, before the renderer can
+			// replace it with a newer (possibly incomplete) one.
+			notifyTransformListeners = pending;
+			img = takeLatestImage( lease );
 		}
-		if ( img != null )
+		if ( notifyTransformListeners )
+			notifyTransformListeners();
+		return img;
+	}
+
+	/**
+	 * Whether there is a new (or updated) image that {@link #getLatestImage()}
+	 * would return.
+	 *
+	 * @param requireComplete
+	 *            if {@code true}, the image also has to be complete.
+	 */
+	private synchronized boolean isNewImageAvailable( final boolean requireComplete )
+	{
+		if ( pending )
+			return !requireComplete || pendingImage.isComplete;
+		else if ( currentImageUpdated )
+			return !requireComplete || paintedImage.isComplete;
+		else
+			return false;
+	}
+
+	private ARGBRenderImage getLatestImage( final boolean lease )
+	{
+		final boolean notifyTransformListeners;
+		final ARGBRenderImage img;
+		synchronized ( this )
 		{
-			if ( notifyTransformListeners )
-				for ( final TransformListener< AffineTransform3D > listener : paintedTransformListeners )
-					listener.transformChanged( paintedTransform );
+			notifyTransformListeners = pending;
+			img = takeLatestImage( lease );
 		}
-		return imageUpdated ? img : null;
+		if ( notifyTransformListeners )
+			notifyTransformListeners();
+		return img;
+	}
+
+	/**
+	 * Make the pending image (if any) the painted image, and return the
+	 * painted image if it is new or updated. Must be called while holding the
+	 * lock on this.
+	 *
+	 * @param lease
+	 *            whether to {@link ARGBRenderImage#lease() lease} the returned
+	 *            image.
+	 * @return the new or updated image, or {@code null} if there was no change
+	 *         since the last call.
+	 */
+	private ARGBRenderImage takeLatestImage( final boolean lease )
+	{
+		boolean imageUpdated = false;
+		if ( pending )
+		{
+			final ARGBRenderImage tmp = paintedImage;
+			paintedImage = pendingImage;
+			paintedTransform.set( pendingTransform );
+			pendingImage = tmp;
+			pending = false;
+			imageUpdated = true;
+		}
+		else if ( currentImageUpdated )
+			imageUpdated = true;
+		currentImageUpdated = false;
+		if ( !imageUpdated || paintedImage == null )
+			return null;
+		if ( lease )
+			paintedImage.lease();
+		return paintedImage;
+	}
+
+	private void notifyTransformListeners()
+	{
+		for ( final TransformListener< AffineTransform3D > listener : paintedTransformListeners )
+			listener.transformChanged( paintedTransform );
 	}
 
 	synchronized void currentImageUpdated( final boolean isComplete )
@@ -254,5 +440,6 @@ public final class HeadlessRenderTarget
 			currentImageUpdated = true;
 			paintedImage.isComplete = isComplete;
 		}
+		notifyAll();
 	}
 }
@@ -4,10 +4,18 @@ import static bdv.viewer.VisibilityAndGrouping.Event.VISIBILITY_CHANGED;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import net.imglib2.Dimensions;
+import net.imglib2.Interval;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.ui.InteractiveDisplayCanvasComponent;
 import net.imglib2.ui.PainterThread;
 import net.imglib2.ui.TransformListener;
@@ -15,6 +23,7 @@ import net.imglib2.ui.TransformListener;
 import org.jdom2.Element;
 
 import bdv.img.cache.Cache;
+import bdv.tools.brightness.ConverterSetup;
 import bdv.viewer.DisplayMode;
 import bdv.viewer.Interpolation;
 import bdv.viewer.SourceAndConverter;
@@ -29,8 +38,9 @@ import bdv.viewer.state.XmlIoViewerState;
  * {@link InteractiveDisplayCanvasComponent canvas} and a time slider (if there
  * are multiple time-points). Maintains a {@link ViewerState render state}, the
  * renderer, and basic navigation help overlays. It has it's own
- * {@link PainterThread} for painting, which is started on construction (use
- * {@link #stop() to stop the PainterThread}.
+ * {@link PainterThread} for painting (or uses the {@link SharedPainter}, see
+ * {@link Options#sharedPainter(boolean)}), which is started on construction
+ * (use {@link #stop() to stop the PainterThread}.
  *
  * @author Tobias Pietzsch &lt;tobias.pietzsch@gmail.com&gt;
  */
@@ -38,7 +48,8 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 {
 	/**
 	 * Currently rendered state (visible sources, transformation, timepoint,
-	 * etc.) A copy can be obtained by {@link #getState()}.
+	 * etc.) A copy can be obtained by {@link #getState()}, an immutable
+	 * snapshot by {@link #getStateSnapshot()}.
 	 */
 	private final ViewerState state;
 
@@ -47,6 +58,11 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 	 */
 	private final HeadlessMultiResolutionRenderer imageRenderer;
 
+	/**
+	 * Plays back timepoints. Created stopped.
+	 */
+	private final TimelapsePlayer timelapsePlayer;
+
 	/**
 	 * TODO
 	 */
@@ -58,12 +74,24 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 	private final AffineTransform3D viewerTransform;
 
 	/**
-	 * Thread that triggers repainting of the display.
+	 * Triggers repainting of the display. Either a {@link DedicatedPainter}
+	 * with its own {@link PainterThread}, or a handle to the
+	 * {@link SharedPainter}.
+	 */
+	private final Painter painter;
+
+	/**
+	 * The thread group of the painter and rendering threads of this viewer.
+	 * The cache measures IO time (and applies the IO time budget) per thread
+	 * group. If this viewer uses the {@link SharedPainter} or the
+	 * {@link SharedRenderingExecutor}, this is the
+	 * {@link SharedRenderingExecutor#getThreadGroup() shared thread group}.
 	 */
-	private final PainterThread painterThread;
+	private final ThreadGroup threadGroup;
 
 	/**
-	 * The {@link ExecutorService} used for rendereing.
+	 * The {@link ExecutorService} used for rendereing. Either a thread pool of
+	 * this viewer, or a view of the {@link SharedRenderingExecutor}.
 	 */
 	private final ExecutorService renderingExecutorService;
 
@@ -73,6 +101,73 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 	 */
 	private final VisibilityAndGrouping visibilityAndGrouping;
 
+	/**
+	 * Set while a {@link ViewerStateDelta} is applied. Repaint requests
+	 * triggered by individual changes are dropped, because
+	 * {@link #applyState(ViewerStateDelta, List)} requests a single repaint
+	 * at the end.
+	 */
+	private volatile boolean applyingState;
+
+	/**
+	 * Immutable snapshot of {@link #state}, republished after every change.
+	 * Read by {@link #getStateSnapshot()} without locking.
+	 */
+	private volatile ViewerStateSnapshot stateSnapshot;
+
+	/**
+	 * Serializes publishing of {@link #stateSnapshot}. This is a separate lock
+	 * (not the panel monitor), because {@link #visibilityChanged(VisibilityAndGrouping.Event)}
+	 * is called with the {@link VisibilityAndGrouping} monitor held.
+	 */
+	private final Object stateSnapshotLock = new Object();
+
+	/**
+	 * Changes posted by {@link #postTimepoint(int)},
+	 * {@link #postLinearInterpolation(boolean)},
+	 * {@link #postSourceVisible(int, boolean)},
+	 * {@link #postSourceParams(ConverterSetup, int, int, int)}, and
+	 * {@link #postState(ViewerStateDelta, List)}. Any thread may add commands,
+	 * the painter thread applies them at the start of {@link #paint()}.
+	 */
+	private final ConcurrentLinkedQueue< Runnable > postedCommands = new ConcurrentLinkedQueue< Runnable >();
+
+	/**
+	 * Latest viewer transform posted by
+	 * {@link #postViewerTransform(AffineTransform3D)} (or {@code null}). A
+	 * transform that is posted before the painter thread got to apply the
+	 * previous one replaces it.
+	 */
+	private final AtomicReference< PostedTransform > postedTransform = new AtomicReference< PostedTransform >();
+
+	/**
+	 * Stamps transforms posted by {@link #postViewerTransform(AffineTransform3D)}
+	 * and {@link #postState(ViewerStateDelta, List)} in the order they are
+	 * posted. The slot and the command queue are drained independently, so a
+	 * posted transform is only applied if it is newer than the one applied
+	 * last.
+	 */
+	private final AtomicLong postSequence = new AtomicLong();
+
+	/**
+	 * Stamp of the posted transform that was applied last. Only accessed
+	 * while holding the panel monitor.
+	 */
+	private long appliedTransformSequence;
+
+	private static final class PostedTransform
+	{
+		final AffineTransform3D transform;
+
+		final long sequence;
+
+		PostedTransform( final AffineTransform3D transform, final long sequence )
+		{
+			this.transform = transform;
+			this.sequence = sequence;
+		}
+	}
+
 	/**
 	 * Optional parameters for {@link HeadlessViewerPanel}.
 	 */
@@ -92,6 +187,22 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 
 		private boolean useVolatileIfAvailable = true;
 
+		private boolean directBuffers = false;
+
+		private boolean sharedRenderingExecutor = false;
+
+		private boolean sharedPainter = false;
+
+		private long[] ioBudget = new long[] { 100l * 1000000l, 10l * 1000000l };
+
+		private boolean prefetchCells = true;
+
+		private long adaptiveIoBudgetTargetNanos = 0;
+
+		private boolean tiledAccumulation = false;
+
+		private boolean progressiveRendering = false;
+
 		public Options width( final int w )
 		{
 			width = w;
@@ -133,6 +244,98 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 			useVolatileIfAvailable = v;
 			return this;
 		}
+
+		/**
+		 * Whether rendered images should be backed by direct (off-heap)
+		 * buffers instead of java arrays.
+		 */
+		public Options directBuffers( final boolean d )
+		{
+			directBuffers = d;
+			return this;
+		}
+
+		/**
+		 * Whether to render on the JVM-wide
+		 * {@link SharedRenderingExecutor#getInstance() shared rendering
+		 * threads} instead of a thread pool of this viewer.
+		 * {@link #numRenderingThreads(int)} then only determines into how many
+		 * tasks rendering is split.
+		 */
+		public Options sharedRenderingExecutor( final boolean s )
+		{
+			sharedRenderingExecutor = s;
+			return this;
+		}
+
+		/**
+		 * Whether to paint on the JVM-wide {@link SharedPainter#getInstance()
+		 * shared painter threads} instead of a {@link PainterThread} of this
+		 * viewer.
+		 */
+		public Options sharedPainter( final boolean s )
+		{
+			sharedPainter = s;
+			return this;
+		}
+
+		/**
+		 * IO time budget per priority level (highest priority first), in
+		 * nanoseconds: how long rendering a frame may block waiting for data
+		 * to load. Default is 100 ms, 10 ms.
+		 */
+		public Options ioBudget( final long[] b )
+		{
+			ioBudget = b;
+			return this;
+		}
+
+		/**
+		 * Whether to prefetch the cells needed for a new frame before rendering
+		 * it.
+		 */
+		public Options prefetchCells( final boolean p )
+		{
+			prefetchCells = p;
+			return this;
+		}
+
+		/**
+		 * If positive, adjust the IO time budget automatically to render the
+		 * first frame after each change within the given time. Default is 0
+		 * (fixed budget). See {@link AdaptiveIoBudget}. This needs the IO time
+		 * of this viewer, so it has no effect with a
+		 * {@link #sharedPainter(boolean) shared painter} or
+		 * {@link #sharedRenderingExecutor(boolean) shared rendering threads}.
+		 */
+		public Options adaptiveIoBudget( final long targetNanos )
+		{
+			adaptiveIoBudgetTargetNanos = targetNanos;
+			return this;
+		}
+
+		/**
+		 * Whether to render multiple sources tile by tile, without a full-size
+		 * image per source. See
+		 * {@link HeadlessMultiResolutionRenderer#setTiledAccumulation(boolean)}.
+		 */
+		public Options tiledAccumulation( final boolean t )
+		{
+			tiledAccumulation = t;
+			return this;
+		}
+
+		/**
+		 * Whether to render tile by tile, center first, and show finer passes
+		 * while they are rendered. A single source is then rendered without
+		 * per-pixel mipmap masks, so refinement while loading costs more. See
+		 * {@link HeadlessMultiResolutionRenderer#setProgressiveRendering(boolean)}.
+		 */
+		public Options progressiveRendering( final boolean p )
+		{
+			progressiveRendering = p;
+			return this;
+		}
 	}
 
 	/**
@@ -172,28 +375,200 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 		if ( !sources.isEmpty() )
 			state.setCurrentSource( 0 );
 
-		painterThread = new PainterThread( this );
+		final boolean sharedThreads = optional.sharedPainter || optional.sharedRenderingExecutor;
+		threadGroup = sharedThreads
+				? SharedRenderingExecutor.getThreadGroup()
+				: new ThreadGroup( "bdv-viewer-" + viewerNumber.getAndIncrement() );
+		painter = optional.sharedPainter
+				? SharedPainter.getInstance().newPainter( this )
+				: new DedicatedPainter( new PainterThread( threadGroup, this ) );
 		viewerTransform = new AffineTransform3D();
 		renderTarget = new HeadlessRenderTarget( optional.width, optional.height );
 
-		renderingExecutorService = Executors.newFixedThreadPool( optional.numRenderingThreads );
+		renderingExecutorService = optional.sharedRenderingExecutor
+				? SharedRenderingExecutor.getInstance().newViewerExecutor()
+				: Executors.newFixedThreadPool( optional.numRenderingThreads, new RenderThreadFactory() );
 		imageRenderer = new HeadlessMultiResolutionRenderer(
-				renderTarget, painterThread,
+				renderTarget, painter,
 				optional.screenScales, optional.targetRenderNanos, optional.doubleBuffered,
-				optional.numRenderingThreads, renderingExecutorService, optional.useVolatileIfAvailable, cache );
+				optional.numRenderingThreads, renderingExecutorService, optional.useVolatileIfAvailable, optional.directBuffers, cache );
+		imageRenderer.setIoBudget( optional.ioBudget );
+		imageRenderer.setIoTimingPerViewer( !sharedThreads );
+		imageRenderer.setPrefetchCells( optional.prefetchCells );
+		imageRenderer.setTiledAccumulation( optional.tiledAccumulation );
+		imageRenderer.setProgressiveRendering( optional.progressiveRendering );
+		imageRenderer.setAdaptiveIoBudget( optional.adaptiveIoBudgetTargetNanos );
 
 		visibilityAndGrouping = new VisibilityAndGrouping( state );
 		visibilityAndGrouping.addUpdateListener( this );
 
-		painterThread.start();
+		publishStateSnapshot();
+
+		timelapsePlayer = new TimelapsePlayer( this );
+
+		painter.start();
 	}
 
 	@Override
 	public void paint()
 	{
+		applyPostedChanges();
 		imageRenderer.paint( state );
 	}
 
+	/**
+	 * Apply changes that were posted since the last {@link #paint()}, and
+	 * request a repaint if there were any. Called on the painter thread (and
+	 * by {@link #renderNow(ARGBRenderImage)}).
+	 */
+	private void applyPostedChanges()
+	{
+		if ( postedTransform.get() == null && postedCommands.isEmpty() )
+			return;
+
+		synchronized ( this )
+		{
+			applyingState = true;
+			try
+			{
+				for ( Runnable command = postedCommands.poll(); command != null; command = postedCommands.poll() )
+					command.run();
+				final PostedTransform posted = postedTransform.getAndSet( null );
+				if ( posted != null && posted.sequence > appliedTransformSequence )
+				{
+					appliedTransformSequence = posted.sequence;
+					viewerTransform.set( posted.transform );
+					state.setViewerTransform( posted.transform );
+				}
+			}
+			finally
+			{
+				applyingState = false;
+			}
+			publishStateSnapshot();
+		}
+		imageRenderer.requestRepaint();
+	}
+
+	private void post( final Runnable command )
+	{
+		postedCommands.add( command );
+		imageRenderer.cancelAndRequestRepaint();
+	}
+
+	/**
+	 * Set the viewer transform on the painter thread, before the next frame
+	 * is rendered. This never blocks. If multiple transforms are posted before
+	 * the painter thread gets to apply them, only the latest one is applied.
+	 * The {@link #getStateSnapshot() state} reflects the change once it is
+	 * applied.
+	 */
+	public void postViewerTransform( final AffineTransform3D viewerTransform )
+	{
+		final PostedTransform posted = new PostedTransform( viewerTransform.copy(), postSequence.incrementAndGet() );
+		PostedTransform current;
+		do
+		{
+			current = postedTransform.get();
+		}
+		while ( ( current == null || current.sequence < posted.sequence ) && !postedTransform.compareAndSet( current, posted ) );
+		imageRenderer.cancelAndRequestRepaint();
+	}
+
+	/**
+	 * Show the specified time-point, starting with the next frame rendered on
+	 * the painter thread. This never blocks. See
+	 * {@link #postViewerTransform(AffineTransform3D)}.
+	 */
+	public void postTimepoint( final int timepoint )
+	{
+		post( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				state.setCurrentTimepoint( timepoint );
+			}
+		} );
+	}
+
+	/**
+	 * Set the interpolation mode, starting with the next frame rendered on
+	 * the painter thread. This never blocks. See
+	 * {@link #postViewerTransform(AffineTransform3D)}.
+	 */
+	public void postLinearInterpolation( final boolean enableLinearInterpolation )
+	{
+		post( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				state.setInterpolation( enableLinearInterpolation ? Interpolation.NLINEAR : Interpolation.NEARESTNEIGHBOR );
+			}
+		} );
+	}
+
+	/**
+	 * Set the visibility of source {@code sourceIndex}, starting with the next
+	 * frame rendered on the painter thread. This never blocks. Indices out of
+	 * range are ignored. See {@link #postViewerTransform(AffineTransform3D)}.
+	 */
+	public void postSourceVisible( final int sourceIndex, final boolean visible )
+	{
+		post( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if ( sourceIndex >= 0 && sourceIndex < state.numSources() )
+					visibilityAndGrouping.setSourceActive( sourceIndex, visible );
+			}
+		} );
+	}
+
+	/**
+	 * Set the display range and color of {@code converterSetup}, starting
+	 * with the next frame rendered on the painter thread. This never blocks.
+	 * See {@link #postViewerTransform(AffineTransform3D)}.
+	 */
+	public void postSourceParams( final ConverterSetup converterSetup, final int min, final int max, final int argb )
+	{
+		post( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				converterSetup.setDisplayRange( min, max );
+				converterSetup.setColor( new ARGBType( argb ) );
+			}
+		} );
+	}
+
+	/**
+	 * Apply a batch of changes as {@link #applyState(ViewerStateDelta, List)}
+	 * does, but on the painter thread, before the next frame is rendered. This
+	 * never blocks. If the batch contains a transform, it replaces transforms
+	 * previously posted by {@link #postViewerTransform(AffineTransform3D)}.
+	 */
+	public void postState( final ViewerStateDelta delta, final List< ConverterSetup > converterSetups )
+	{
+		final long sequence = delta.setTransform() ? postSequence.incrementAndGet() : 0;
+		postedCommands.add( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				// Skip the transform if a newer one was applied already.
+				final boolean setTransform = delta.setTransform() && sequence > appliedTransformSequence;
+				if ( setTransform )
+					appliedTransformSequence = sequence;
+				applyStateUnsynchronized( delta, converterSetups, setTransform );
+			}
+		} );
+		imageRenderer.cancelAndRequestRepaint();
+	}
+
 	/**
 	 * Repaint as soon as possible.
 	 */
@@ -207,16 +582,20 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 	{
 		viewerTransform.set( transform );
 		state.setViewerTransform( transform );
+		publishStateSnapshot();
 		requestRepaint();
 	}
 
 	@Override
 	public void visibilityChanged( final VisibilityAndGrouping.Event e )
 	{
+		if ( !applyingState )
+			publishStateSnapshot();
 		switch ( e.id )
 		{
 		case VISIBILITY_CHANGED:
-			requestRepaint();
+			if ( !applyingState )
+				requestRepaint();
 			break;
 		}
 	}
@@ -231,12 +610,14 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 			state.setInterpolation( Interpolation.NLINEAR );
 		else
 			state.setInterpolation( Interpolation.NEARESTNEIGHBOR );
+		publishStateSnapshot();
 		requestRepaint();
 	}
 
 	public synchronized void setLinearInterpolation( final boolean enableLinearInterpolation )
 	{
 		state.setInterpolation( enableLinearInterpolation ? Interpolation.NLINEAR : Interpolation.NEARESTNEIGHBOR );
+		publishStateSnapshot();
 		requestRepaint();
 	}
 
@@ -268,16 +649,195 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 		if ( state.getCurrentTimepoint() != timepoint )
 		{
 			state.setCurrentTimepoint( timepoint );
+			publishStateSnapshot();
 			requestRepaint();
 		}
 	}
 
+	/**
+	 * Apply a batch of changes (transform, timepoint, interpolation, source
+	 * visibility, and source display ranges and colors) atomically, and
+	 * request a single repaint.
+	 *
+	 * @param delta
+	 *            the changes to apply.
+	 * @param converterSetups
+	 *            the {@link ConverterSetup}s that control display range and
+	 *            color of the sources, indexed like the sources.
+	 */
+	public synchronized void applyState( final ViewerStateDelta delta, final List< ConverterSetup > converterSetups )
+	{
+		applyingState = true;
+		try
+		{
+			applyStateUnsynchronized( delta, converterSetups );
+		}
+		finally
+		{
+			applyingState = false;
+		}
+		publishStateSnapshot();
+		requestRepaint();
+	}
+
+	/**
+	 * Apply {@code delta} to {@link #state} and {@code converterSetups}. The
+	 * caller holds the panel monitor and takes care of publishing the state
+	 * snapshot and requesting a repaint.
+	 */
+	private void applyStateUnsynchronized( final ViewerStateDelta delta, final List< ConverterSetup > converterSetups )
+	{
+		applyStateUnsynchronized( delta, converterSetups, delta.setTransform() );
+	}
+
+	private void applyStateUnsynchronized( final ViewerStateDelta delta, final List< ConverterSetup > converterSetups, final boolean setTransform )
+	{
+		if ( setTransform )
+		{
+			viewerTransform.set( delta.transform );
+			state.setViewerTransform( delta.transform );
+		}
+		if ( delta.setTimepoint() )
+			state.setCurrentTimepoint( delta.timepoint );
+		if ( delta.setInterpolation() )
+			state.setInterpolation( delta.linearInterpolation ? Interpolation.NLINEAR : Interpolation.NEARESTNEIGHBOR );
+
+		final int numSources = state.numSources();
+		for ( final ViewerStateDelta.SourceUpdate update : delta.sourceUpdates )
+		{
+			if ( update.source < 0 || update.source >= numSources )
+				continue;
+			if ( update.setVisible() )
+				visibilityAndGrouping.setSourceActive( update.source, update.visible );
+			if ( update.setParams() && update.source < converterSetups.size() )
+			{
+				final ConverterSetup converterSetup = converterSetups.get( update.source );
+				converterSetup.setDisplayRange( update.min, update.max );
+				converterSetup.setColor( new ARGBType( update.argb ) );
+			}
+		}
+	}
+
+	/**
+	 * Render the current state at full resolution into {@code target},
+	 * synchronously. Changes posted before (e.g.,
+	 * {@link #postViewerTransform(AffineTransform3D)}) are applied first.
+	 * This does not go through the painter thread and does not render coarse
+	 * screen scales first. It blocks until all data is loaded. See
+	 * {@link HeadlessMultiResolutionRenderer#renderNow(ViewerState, ARGBRenderImage)}.
+	 *
+	 * @param target
+	 *            the image to render to, usually of the size of the
+	 *            {@link #getDisplay() display}.
+	 * @return whether rendering was successful (it is not if the calling
+	 *         thread was interrupted).
+	 */
+	public boolean renderNow( final ARGBRenderImage target )
+	{
+		applyPostedChanges();
+		final ViewerState stateCopy;
+		synchronized ( this )
+		{
+			stateCopy = state.copy();
+		}
+		return imageRenderer.renderNow( stateCopy, target );
+	}
+
+	/**
+	 * Render {@code state} (e.g., a modified {@link #getState() copy} of the
+	 * current state) at full resolution into {@code target}, synchronously.
+	 * See {@link #renderNow(ARGBRenderImage)}.
+	 */
+	public boolean renderNow( final ViewerState state, final ARGBRenderImage target )
+	{
+		return imageRenderer.renderNow( state, target );
+	}
+
+	/**
+	 * Render the rectangle {@code region} of the canvas in the current state
+	 * into {@code target}, synchronously. Changes posted before are applied
+	 * first. {@code region} is scaled to cover {@code target}, so the screen
+	 * scale is the size of {@code target} divided by the size of
+	 * {@code region}. Cost depends on the size of {@code region} and
+	 * {@code target}, not on the size of the canvas. See
+	 * {@link HeadlessMultiResolutionRenderer#renderRegion(ViewerState, Interval, ARGBRenderImage)}.
+	 *
+	 * @param region
+	 *            the rectangle to render, in canvas coordinates.
+	 * @param target
+	 *            the image to render to.
+	 * @return whether rendering was successful (it is not if the calling
+	 *         thread was interrupted).
+	 */
+	public boolean renderRegion( final Interval region, final ARGBRenderImage target )
+	{
+		applyPostedChanges();
+		final ViewerState stateCopy;
+		synchronized ( this )
+		{
+			stateCopy = state.copy();
+		}
+		return imageRenderer.renderRegion( stateCopy, region, target );
+	}
+
+	/**
+	 * Render the rectangle {@code region} of the canvas of {@code state}
+	 * into {@code target}, synchronously. See
+	 * {@link #renderRegion(Interval, ARGBRenderImage)}.
+	 */
+	public boolean renderRegion( final ViewerState state, final Interval region, final ARGBRenderImage target )
+	{
+		return imageRenderer.renderRegion( state, region, target );
+	}
+
+	/**
+	 * Enqueue loading of the data needed to render the rectangle
+	 * {@code region} of the canvas in the current state into an image of size
+	 * {@code target}. Changes posted before are applied first, as by
+	 * {@link #renderRegion(Interval, ARGBRenderImage)}. This returns
+	 * immediately.
+	 */
+	public void prefetchRegion( final Interval region, final Dimensions target )
+	{
+		applyPostedChanges();
+		final ViewerState stateCopy;
+		synchronized ( this )
+		{
+			stateCopy = state.copy();
+		}
+		imageRenderer.prefetchRegion( stateCopy, region, target );
+	}
+
+	/**
+	 * Enqueue loading of the data needed to render the rectangle
+	 * {@code region} of the canvas of {@code state} into an image of size
+	 * {@code target}. This returns immediately. See
+	 * {@link HeadlessMultiResolutionRenderer#prefetchRegion(ViewerState, Interval, Dimensions)}.
+	 */
+	public void prefetchRegion( final ViewerState state, final Interval region, final Dimensions target )
+	{
+		imageRenderer.prefetchRegion( state, region, target );
+	}
+
+	/**
+	 * Enqueue loading of the data needed to render {@code state} at full
+	 * resolution into an image of size {@code target}. This returns
+	 * immediately. See
+	 * {@link HeadlessMultiResolutionRenderer#prefetch(ViewerState, Dimensions)}.
+	 */
+	public void prefetch( final ViewerState state, final Dimensions target )
+	{
+		imageRenderer.prefetch( state, target );
+	}
+
 	/**
 	 * Show the next time-point.
 	 */
 	public synchronized void nextTimePoint()
 	{
-		// TODO
+		final int timepoint = state.getCurrentTimepoint() + 1;
+		if ( timepoint < state.getNumTimePoints() )
+			setTimepoint( timepoint );
 	}
 
 	/**
@@ -285,7 +845,27 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 	 */
 	public synchronized void previousTimePoint()
 	{
-		// TODO
+		final int timepoint = state.getCurrentTimepoint() - 1;
+		if ( timepoint >= 0 )
+			setTimepoint( timepoint );
+	}
+
+	/**
+	 * Get the player for time-lapse playback of this viewer.
+	 */
+	public TimelapsePlayer getTimelapsePlayer()
+	{
+		return timelapsePlayer;
+	}
+
+	/**
+	 * Set timepoints that will be shown next. Data for these is prefetched for
+	 * the current view. See
+	 * {@link HeadlessMultiResolutionRenderer#setReadAheadTimepoints(int[])}.
+	 */
+	public void setReadAheadTimepoints( final int[] timepoints )
+	{
+		imageRenderer.setReadAheadTimepoints( timepoints );
 	}
 
 	/**
@@ -298,6 +878,25 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 		return state.copy();
 	}
 
+	/**
+	 * Get an immutable snapshot of the current state. This does not lock or
+	 * copy, so it is cheap enough to call for every query.
+	 *
+	 * @return snapshot of the current state.
+	 */
+	public ViewerStateSnapshot getStateSnapshot()
+	{
+		return stateSnapshot;
+	}
+
+	private void publishStateSnapshot()
+	{
+		synchronized ( stateSnapshotLock )
+		{
+			stateSnapshot = ViewerStateSnapshot.of( state );
+		}
+	}
+
 	/**
 	 * Get the display.
 	 *
@@ -308,6 +907,28 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 		return renderTarget;
 	}
 
+	/**
+	 * Change the size of the {@link #getDisplay() display}. The viewer
+	 * transform, sources, and cache are kept, so the canvas shows more or
+	 * less of the same view, anchored at the top-left corner. A new frame is
+	 * rendered immediately, starting at the coarsest screen scale. See
+	 * {@link HeadlessMultiResolutionRenderer#requestResizeRepaint()}.
+	 *
+	 * @param width
+	 *            new canvas width, positive.
+	 * @param height
+	 *            new canvas height, positive.
+	 * @throws IllegalArgumentException
+	 *             if {@code width} or {@code height} is not positive.
+	 */
+	public void resize( final int width, final int height )
+	{
+		if ( width <= 0 || height <= 0 )
+			throw new IllegalArgumentException( "invalid canvas size " + width + " x " + height );
+		renderTarget.setCanvasSize( width, height );
+		imageRenderer.requestResizeRepaint();
+	}
+
 	/**
 	 * Add a {@link TransformListener} to notify about viewer transformation
 	 * changes. Listeners will be notified when a new image has been painted
@@ -343,6 +964,30 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 		renderTarget.addTransformListener( listener, index );
 	}
 
+	/**
+	 * Add a {@link FrameListener} to notify whenever a new image has been
+	 * rendered or the current image has been updated. Listeners are called on
+	 * the painter thread.
+	 *
+	 * @param listener
+	 *            the frame listener to add.
+	 */
+	public void addFrameListener( final FrameListener listener )
+	{
+		renderTarget.addFrameListener( listener );
+	}
+
+	/**
+	 * Remove a {@link FrameListener}.
+	 *
+	 * @param listener
+	 *            the frame listener to remove.
+	 */
+	public void removeFrameListener( final FrameListener listener )
+	{
+		renderTarget.removeFrameListener( listener );
+	}
+
 	public synchronized Element stateToXml()
 	{
 		return new XmlIoViewerState().toXml( state );
@@ -352,6 +997,7 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 	{
 		final XmlIoViewerState io = new XmlIoViewerState();
 		io.restoreFromXml( parent.getChild( io.getTagName() ), state );
+		publishStateSnapshot();
 	}
 
 	/**
@@ -365,17 +1011,162 @@ public final class HeadlessViewerPanel implements TransformListener< AffineTrans
 	}
 
 	/**
-	 * Stop the {@link #painterThread} and unsubscribe as a cache consumer.
+	 * Stop the {@link #timelapsePlayer} and the {@link #painter}, give the
+	 * render buffers back to the {@link RenderBufferArena}, and unsubscribe as
+	 * a cache consumer.
 	 */
 	public void stop()
 	{
-		painterThread.interrupt();
+		timelapsePlayer.stop();
+		painter.stop();
+		imageRenderer.releaseBuffers();
 		renderingExecutorService.shutdown();
 	}
 
+	private static final AtomicInteger viewerNumber = new AtomicInteger( 1 );
+
+	/**
+	 * Creates the rendering threads of this viewer, in its
+	 * {@link #threadGroup}.
+	 */
+	private final class RenderThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger( 1 );
+
+		@Override
+		public Thread newThread( final Runnable r )
+		{
+			final Thread t = new Thread( threadGroup, r, threadGroup.getName() + "-rendering-" + threadNumber.getAndIncrement() );
+			t.setDaemon( true );
+			return t;
+		}
+	}
+
+	/**
+	 * Set the IO time budget per priority level, in nanoseconds. See
+	 * {@link HeadlessMultiResolutionRenderer#setIoBudget(long[])}.
+	 */
+	public void setIoBudget( final long[] budget )
+	{
+		imageRenderer.setIoBudget( budget );
+	}
+
+	/**
+	 * @return the current IO time budget per priority level, in nanoseconds.
+	 */
+	public long[] getIoBudget()
+	{
+		return imageRenderer.getIoBudget();
+	}
+
+	/**
+	 * Adjust the IO time budget automatically. See
+	 * {@link HeadlessMultiResolutionRenderer#setAdaptiveIoBudget(long)}.
+	 *
+	 * @param targetNanos
+	 *            target latency in nanoseconds, or 0 to keep the budget fixed.
+	 */
+	public void setAdaptiveIoBudget( final long targetNanos )
+	{
+		imageRenderer.setAdaptiveIoBudget( targetNanos );
+	}
+
+	/**
+	 * @return the controller of the adaptive IO time budget, or {@code null}
+	 *         if the budget is fixed.
+	 */
+	public AdaptiveIoBudget getAdaptiveIoBudget()
+	{
+		return imageRenderer.getAdaptiveIoBudget();
+	}
+
+	public void setPrefetchCells( final boolean prefetchCells )
+	{
+		imageRenderer.setPrefetchCells( prefetchCells );
+	}
+
+	/**
+	 * Set the point (in canvas coordinates) around which progressive
+	 * rendering starts. See
+	 * {@link HeadlessMultiResolutionRenderer#setFocusPoint(double, double)}.
+	 */
+	public void setFocusPoint( final double x, final double y )
+	{
+		imageRenderer.setFocusPoint( x, y );
+	}
+
+	/**
+	 * Set the viewer id that is attached to {@link RenderEvents} of this
+	 * viewer (default -1). {@link BigDataViewerJni} uses its viewer ids.
+	 */
+	public void setViewerId( final int id )
+	{
+		imageRenderer.setViewerId( id );
+	}
+
+	/**
+	 * Get the rendering metrics (render times, time to first and complete
+	 * frame, IO wait, ...) of this viewer.
+	 */
+	public RenderStats getRenderStats()
+	{
+		return imageRenderer.getRenderStats();
+	}
+
+	/**
+	 * Get the predictor that extrapolates the viewer transform for
+	 * prefetching while the view is moving. Use it to tune prediction and to
+	 * query the prediction hit rate.
+	 */
+	public MotionPredictor getMotionPredictor()
+	{
+		return imageRenderer.getMotionPredictor();
+	}
+
 	public ARGBRenderImage getLatestImage()
 	{
 		return renderTarget.getLatestImage();
 	}
 
+	/**
+	 * Get the latest rendered image (or {@code null} if there was no change
+	 * since the last call), and take a lease on it. The image will not be
+	 * written to until it is {@link #releaseImage(ARGBRenderImage) released}.
+	 * (Without {@link Options#doubleBuffered(boolean) double buffering}, the
+	 * current image is refined in place even while leased.)
+	 */
+	public ARGBRenderImage leaseLatestImage()
+	{
+		return renderTarget.leaseLatestImage();
+	}
+
+	/**
+	 * Wait until a new image has been rendered (or the current one has been
+	 * updated), then return it.
+	 *
+	 * @param timeoutMillis
+	 *            maximum time to wait in milliseconds. If negative, wait
+	 *            indefinitely.
+	 * @param requireComplete
+	 *            if {@code true}, wait until a complete image is available,
+	 *            i.e., one that is rendered at full resolution with all data
+	 *            loaded.
+	 * @param lease
+	 *            whether to take a lease on the returned image (see
+	 *            {@link #leaseLatestImage()}).
+	 * @return the latest image, or {@code null} if the timeout elapsed.
+	 */
+	public ARGBRenderImage waitForLatestImage( final long timeoutMillis, final boolean requireComplete, final boolean lease ) throws InterruptedException
+	{
+		return renderTarget.waitForLatestImage( timeoutMillis, requireComplete, lease );
+	}
+
+	/**
+	 * Give back a lease on an image obtained by {@link #leaseLatestImage()}.
+	 */
+	public void releaseImage( final ARGBRenderImage img )
+	{
+		imageRenderer.releaseImage( img );
+	}
+
 }
@@ -0,0 +1,127 @@
+package bdv;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values (e.g., nanoseconds), for
+ * percentiles.
+ * <p>
+ * Values below 8 are counted exactly. Larger values are counted in
+ * log-linear buckets: each power of two is split into 8 buckets, so reported
+ * percentiles are within 12.5% of the true value. Values of 2<sup>41</sup>
+ * (about 36 minutes in nanoseconds) or more are counted in the last bucket.
+ * <p>
+ * {@link #record(long)} may be called from any number of threads. Queries
+ * may run concurrently with recording, and are then only approximately
+ * consistent.
+ */
+public final class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int MAX_EXPONENT = 40;
+
+	private static final int NUM_BUCKETS = ( MAX_EXPONENT - SUB_BUCKET_BITS + 2 ) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts;
+
+	private final AtomicLong count;
+
+	private final AtomicLong max;
+
+	public LatencyHistogram()
+	{
+		counts = new AtomicLongArray( NUM_BUCKETS );
+		count = new AtomicLong();
+		max = new AtomicLong();
+	}
+
+	public void record( final long value )
+	{
+		final long v = Math.max( 0, value );
+		counts.incrementAndGet( bucketIndex( v ) );
+		count.incrementAndGet();
+		long m = max.get();
+		while ( v > m && !max.compareAndSet( m, v ) )
+			m = max.get();
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Get the value below which the given percentage of recorded values fall
+	 * (up to the bucket resolution).
+	 *
+	 * @param percentile
+	 *            percentile in [0, 100], e.g., 50 for the median.
+	 * @return the percentile, or 0 if nothing was recorded.
+	 */
+	public long getPercentile( final double percentile )
+	{
+		final long total = count.get();
+		if ( total == 0 )
+			return 0;
+		final long rank = Math.max( 1, ( long ) Math.ceil( percentile / 100 * total ) );
+		long seen = 0;
+		for ( int i = 0; i < NUM_BUCKETS; ++i )
+		{
+			seen += counts.get( i );
+			if ( seen >= rank )
+				return Math.min( bucketUpperBound( i ), max.get() );
+		}
+		return max.get();
+	}
+
+	public void reset()
+	{
+		for ( int i = 0; i < NUM_BUCKETS; ++i )
+			counts.set( i, 0 );
+		count.set( 0 );
+		max.set( 0 );
+	}
+
+	/**
+	 * Write {@code count, p50, p99, max} to {@code values} starting at
+	 * {@code offset}.
+	 */
+	void summarize( final long[] values, final int offset )
+	{
+		values[ offset ] = getCount();
+		values[ offset + 1 ] = getPercentile( 50 );
+		values[ offset + 2 ] = getPercentile( 99 );
+		values[ offset + 3 ] = getMax();
+	}
+
+	private static int bucketIndex( final long v )
+	{
+		if ( v < SUB_BUCKETS )
+			return ( int ) v;
+		final int exponent = 63 - Long.numberOfLeadingZeros( v );
+		if ( exponent > MAX_EXPONENT )
+			return NUM_BUCKETS - 1;
+		final int shift = exponent - SUB_BUCKET_BITS;
+		return ( shift + 1 ) * SUB_BUCKETS + ( int ) ( ( v >> shift ) - SUB_BUCKETS );
+	}
+
+	private static long bucketUpperBound( final int index )
+	{
+		if ( index < SUB_BUCKETS )
+			return index;
+		if ( index == NUM_BUCKETS - 1 )
+			return Long.MAX_VALUE;
+		final int shift = index / SUB_BUCKETS - 1;
+		final long lower = ( long ) ( SUB_BUCKETS + index % SUB_BUCKETS ) << shift;
+		return lower + ( 1l << shift ) - 1;
+	}
+}
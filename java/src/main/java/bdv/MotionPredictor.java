@@ -0,0 +1,234 @@
+package bdv;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Extrapolates the next viewer transforms from the recent changes of the
+ * viewer transform, such that data for the predicted views can be prefetched
+ * while the user is panning, zooming, or rotating.
+ * <p>
+ * The change between the last two transforms is assumed to continue: if
+ * {@code T1 = D * T0}, the predicted transforms are {@code D * T1},
+ * {@code D * D * T1}, etc. Changes that are more than
+ * {@link #setMaxIntervalMillis(long) some time} apart are not considered to
+ * be part of the same motion.
+ * <p>
+ * To tune the prediction, the predictor counts how often the next transform
+ * was predicted correctly. A prediction is a hit if no corner (or the center)
+ * of the canvas is off by more than the {@link #setHitTolerance(double) hit
+ * tolerance} (in canvas pixels).
+ * <p>
+ * {@link #update(AffineTransform3D, int, int)} is called on the painter thread.
+ * Statistics and parameters may be accessed from any thread.
+ */
+public final class MotionPredictor
+{
+	private static final AffineTransform3D[] NO_PREDICTIONS = new AffineTransform3D[ 0 ];
+
+	private volatile int numPredictedSteps;
+
+	private volatile double hitTolerance;
+
+	private volatile long maxIntervalNanos;
+
+	private final AtomicLong numPredictions;
+
+	private final AtomicLong numHits;
+
+	private final AffineTransform3D current;
+
+	private long currentNanos;
+
+	private boolean hasCurrent;
+
+	/**
+	 * The prediction for the next transform, or {@code null}.
+	 */
+	private AffineTransform3D predictedNext;
+
+	private final double[] canvasPoint;
+
+	private final double[] world;
+
+	private final double[] predictedPoint;
+
+	public MotionPredictor()
+	{
+		numPredictedSteps = 2;
+		hitTolerance = 16;
+		maxIntervalNanos = 500l * 1000000l;
+		numPredictions = new AtomicLong();
+		numHits = new AtomicLong();
+		current = new AffineTransform3D();
+		hasCurrent = false;
+		predictedNext = null;
+		canvasPoint = new double[ 3 ];
+		world = new double[ 3 ];
+		predictedPoint = new double[ 3 ];
+	}
+
+	/**
+	 * Record the current viewer transform and predict the next ones.
+	 *
+	 * @param viewerTransform
+	 *            the current viewer transform.
+	 * @param width
+	 *            canvas width, used to score predictions.
+	 * @param height
+	 *            canvas height, used to score predictions.
+	 * @return the predicted next transforms, nearest first. This is empty if
+	 *         the transform did not change since the last call, or if there is
+	 *         no recent motion to extrapolate.
+	 */
+	public AffineTransform3D[] update( final AffineTransform3D viewerTransform, final int width, final int height )
+	{
+		final long now = System.nanoTime();
+		if ( hasCurrent && equals( viewerTransform, current ) )
+			return NO_PREDICTIONS;
+
+		if ( predictedNext != null )
+		{
+			numPredictions.incrementAndGet();
+			if ( maxCanvasError( viewerTransform, predictedNext, width, height ) <= hitTolerance )
+				numHits.incrementAndGet();
+			predictedNext = null;
+		}
+
+		final boolean moving = hasCurrent && now - currentNanos <= maxIntervalNanos;
+		final AffineTransform3D previous = current.copy();
+		current.set( viewerTransform );
+		currentNanos = now;
+		hasCurrent = true;
+
+		final int steps = numPredictedSteps;
+		if ( !moving || steps <= 0 )
+			return NO_PREDICTIONS;
+
+		// previous-to-current change: current = delta * previous
+		final AffineTransform3D delta = previous.inverse();
+		delta.preConcatenate( current );
+
+		final AffineTransform3D[] predicted = new AffineTransform3D[ steps ];
+		final AffineTransform3D t = current.copy();
+		for ( int i = 0; i < steps; ++i )
+		{
+			t.preConcatenate( delta );
+			predicted[ i ] = t.copy();
+		}
+		predictedNext = predicted[ 0 ];
+		return predicted;
+	}
+
+	/**
+	 * Forget the recorded motion, e.g., when the transform was set to
+	 * something unrelated.
+	 */
+	public void reset()
+	{
+		hasCurrent = false;
+		predictedNext = null;
+	}
+
+	/**
+	 * Set how many transforms ahead to predict (default 2). 0 disables
+	 * prediction.
+	 */
+	public void setNumPredictedSteps( final int numPredictedSteps )
+	{
+		this.numPredictedSteps = numPredictedSteps;
+	}
+
+	public int getNumPredictedSteps()
+	{
+		return numPredictedSteps;
+	}
+
+	/**
+	 * Set the maximum error (in canvas pixels) of a prediction that counts as a
+	 * hit (default 16).
+	 */
+	public void setHitTolerance( final double hitTolerance )
+	{
+		this.hitTolerance = hitTolerance;
+	}
+
+	public double getHitTolerance()
+	{
+		return hitTolerance;
+	}
+
+	/**
+	 * Set the maximum time between two transform changes that are considered
+	 * part of the same motion (default 500 ms).
+	 */
+	public void setMaxIntervalMillis( final long millis )
+	{
+		maxIntervalNanos = millis * 1000000l;
+	}
+
+	/**
+	 * @return how many predictions were scored (i.e., how often the transform
+	 *         changed after a prediction was made).
+	 */
+	public long getNumPredictions()
+	{
+		return numPredictions.get();
+	}
+
+	/**
+	 * @return how many predictions were hits.
+	 */
+	public long getNumHits()
+	{
+		return numHits.get();
+	}
+
+	/**
+	 * @return fraction of predictions that were hits, or 0 if there were no
+	 *         predictions yet.
+	 */
+	public double getHitRate()
+	{
+		final long predictions = numPredictions.get();
+		return predictions == 0 ? 0 : ( double ) numHits.get() / predictions;
+	}
+
+	public void resetStatistics()
+	{
+		numPredictions.set( 0 );
+		numHits.set( 0 );
+	}
+
+	/**
+	 * Maximum distance (in canvas pixels) between where the canvas corners and
+	 * center of {@code actual} are shown by {@code predicted}.
+	 */
+	private double maxCanvasError( final AffineTransform3D actual, final AffineTransform3D predicted, final int width, final int height )
+	{
+		double max = 0;
+		for ( int i = 0; i < 5; ++i )
+		{
+			canvasPoint[ 0 ] = i == 4 ? 0.5 * width : ( i & 1 ) * width;
+			canvasPoint[ 1 ] = i == 4 ? 0.5 * height : ( i >> 1 ) * height;
+			canvasPoint[ 2 ] = 0;
+			actual.applyInverse( world, canvasPoint );
+			predicted.apply( world, predictedPoint );
+			final double dx = predictedPoint[ 0 ] - canvasPoint[ 0 ];
+			final double dy = predictedPoint[ 1 ] - canvasPoint[ 1 ];
+			final double dz = predictedPoint[ 2 ] - canvasPoint[ 2 ];
+			max = Math.max( max, Math.sqrt( dx * dx + dy * dy + dz * dz ) );
+		}
+		return max;
+	}
+
+	private static boolean equals( final AffineTransform3D a, final AffineTransform3D b )
+	{
+		for ( int r = 0; r < 3; ++r )
+			for ( int c = 0; c < 4; ++c )
+				if ( a.get( r, c ) != b.get( r, c ) )
+					return false;
+		return true;
+	}
+}
@@ -0,0 +1,45 @@
+package bdv;
+
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * {@link FrameListener} that forwards to a native callback registered through
+ * {@link BigDataViewerJni#setFrameListener(int, long, long)}. The native
+ * method is registered by bdvlib when the JVM is started or the library is
+ * loaded.
+ */
+final class NativeFrameListener implements FrameListener
+{
+	/**
+	 * Address of the native callback function.
+	 */
+	private final long callback;
+
+	/**
+	 * Opaque pointer that is passed back to the callback.
+	 */
+	private final long userdata;
+
+	/**
+	 * Row-packed 3x4 transform handed to the callback. Only used on the thread
+	 * that delivers frames (the painter thread, or the caller of
+	 * {@link BigDataViewerJni#renderPath}).
+	 */
+	private final double[] m3x4;
+
+	public NativeFrameListener( final long callback, final long userdata )
+	{
+		this.callback = callback;
+		this.userdata = userdata;
+		m3x4 = new double[ 12 ];
+	}
+
+	@Override
+	public void frameAvailable( final ARGBRenderImage image, final AffineTransform3D transform )
+	{
+		transform.toArray( m3x4 );
+		frameAvailable( callback, userdata, image, m3x4 );
+	}
+
+	private static native void frameAvailable( final long callback, final long userdata, final ARGBRenderImage image, final double[] m3x4 );
+}
@@ -0,0 +1,31 @@
+package bdv;
+
+import net.imglib2.ui.PainterThread;
+
+/**
+ * Triggers repainting of a {@link PainterThread.Paintable}. Repaint requests
+ * are collected, and {@link PainterThread.Paintable#paint()} is called as soon
+ * as possible (that is, immediately or after the currently running
+ * {@code paint()} has completed). {@code paint()} is never called
+ * concurrently.
+ *
+ * @see DedicatedPainter
+ * @see SharedPainter
+ */
+public interface Painter
+{
+	/**
+	 * Request repainting.
+	 */
+	public void requestRepaint();
+
+	/**
+	 * Start serving repaint requests.
+	 */
+	public void start();
+
+	/**
+	 * Stop serving repaint requests. A running {@code paint()} is completed.
+	 */
+	public void stop();
+}
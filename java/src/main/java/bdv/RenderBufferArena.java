@@ -0,0 +1,491 @@
+package bdv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Pool of the pixel and mask buffers that {@link HeadlessMultiResolutionRenderer}s
+ * render into, shared by all viewers in the JVM.
+ * <p>
+ * Every viewer needs screen images (three full-canvas images when double
+ * buffered), and while rendering more than one source, one full-canvas image
+ * and one mask per visible source. These are acquired here and given back
+ * when a viewer no longer needs them (when it is resized or stopped, and the
+ * per-source buffers whenever a frame is complete). Released buffers are kept
+ * and handed out again for requests of the same kind and size, so that
+ * viewers of equal size reuse each other's buffers instead of allocating new
+ * ones (and producing garbage for full GCs).
+ * <p>
+ * All allocated buffers, in use or kept for reuse, count against a global
+ * {@link #setBudget(long) budget}. If a new buffer would exceed it, buffers
+ * kept for reuse are dropped (least recently released first). If that is not
+ * enough, the request is denied: {@code acquire} returns {@code null}, and the
+ * viewer does not render until memory is released by other viewers. (A
+ * viewer whose buffers alone exceed the budget logs a warning and allocates
+ * them outside the arena instead.) The default budget is unlimited.
+ * <p>
+ * The arena is registered as MBean {@code bdv:type=RenderBufferArena} by
+ * {@link BigDataViewerJni}.
+ */
+public final class RenderBufferArena implements RenderBufferArenaMXBean
+{
+	private static RenderBufferArena instance;
+
+	/**
+	 * Get the JVM-wide instance. It is created on first use.
+	 */
+	public static synchronized RenderBufferArena getInstance()
+	{
+		if ( instance == null )
+			instance = new RenderBufferArena();
+		return instance;
+	}
+
+	/**
+	 * Kinds of buffers.
+	 */
+	private static final int INTS = 0;
+
+	private static final int DIRECT_INTS = 1;
+
+	private static final int BYTES = 2;
+
+	private static final int[] BYTES_PER_ELEMENT = new int[] { 4, 4, 1 };
+
+	/**
+	 * Number of values in {@link #getOccupancy(long[])}.
+	 */
+	public static final int OCCUPANCY_LENGTH = 8;
+
+	private long budget;
+
+	/**
+	 * Bytes of all buffers that were allocated and not dropped (in use or
+	 * idle).
+	 */
+	private long allocatedBytes;
+
+	/**
+	 * Bytes of idle buffers (kept for reuse).
+	 */
+	private long idleBytes;
+
+	private long numAllocated;
+
+	private long numReused;
+
+	private long numDropped;
+
+	private long numDenied;
+
+	/**
+	 * Buffers in use, with their size in bytes.
+	 */
+	private final IdentityHashMap< Object, Long > inUse;
+
+	/**
+	 * Idle buffers by kind and number of elements.
+	 */
+	private final HashMap< Long, ArrayDeque< Idle > > idle;
+
+	/**
+	 * Idle buffers in the order they were released, to drop the least
+	 * recently released first.
+	 */
+	private final LinkedHashSet< Idle > idleOrder;
+
+	/**
+	 * Callbacks to run when buffers are released.
+	 */
+	private final ArrayList< Runnable > releaseCallbacks;
+
+	/**
+	 * Whether buffers were released since the last request was denied.
+	 */
+	private boolean releasedSinceDenied;
+
+	/**
+	 * An idle buffer. (Buffers are wrapped, because {@link ByteBuffer}s
+	 * compare by content.)
+	 */
+	private static final class Idle
+	{
+		final Object buffer;
+
+		final Long key;
+
+		final long bytes;
+
+		Idle( final Object buffer, final Long key, final long bytes )
+		{
+			this.buffer = buffer;
+			this.key = key;
+			this.bytes = bytes;
+		}
+	}
+
+	public RenderBufferArena()
+	{
+		budget = Long.MAX_VALUE;
+		inUse = new IdentityHashMap< Object, Long >();
+		idle = new HashMap< Long, ArrayDeque< Idle > >();
+		idleOrder = new LinkedHashSet< Idle >();
+		releaseCallbacks = new ArrayList< Runnable >();
+	}
+
+	/**
+	 * Acquire an {@code int[]} of exactly {@code size} elements.
+	 *
+	 * @return the array, or {@code null} if the budget is exhausted.
+	 */
+	public int[] acquireInts( final int size )
+	{
+		return ( int[] ) acquire( INTS, size );
+	}
+
+	/**
+	 * Acquire a direct {@link ByteBuffer} in native byte order, for exactly
+	 * {@code size} ints.
+	 *
+	 * @return the buffer, or {@code null} if the budget is exhausted.
+	 */
+	public ByteBuffer acquireDirectInts( final int size )
+	{
+		return ( ByteBuffer ) acquire( DIRECT_INTS, size );
+	}
+
+	/**
+	 * Acquire a {@code byte[]} of exactly {@code size} elements.
+	 *
+	 * @return the array, or {@code null} if the budget is exhausted.
+	 */
+	public byte[] acquireBytes( final int size )
+	{
+		return ( byte[] ) acquire( BYTES, size );
+	}
+
+	/**
+	 * Acquire storage for an image of {@code width} &times; {@code height}
+	 * pixels, backed by a direct buffer or an {@code int[]} array.
+	 *
+	 * @return the image, or {@code null} if the budget is exhausted.
+	 */
+	public ARGBRenderImage acquireImage( final int width, final int height, final boolean direct )
+	{
+		if ( direct )
+		{
+			final ByteBuffer buffer = acquireDirectInts( width * height );
+			return buffer == null ? null : new ARGBRenderImage( width, height, buffer );
+		}
+		else
+		{
+			final int[] data = acquireInts( width * height );
+			return data == null ? null : new ARGBRenderImage( width, height, data );
+		}
+	}
+
+	/**
+	 * Give back the storage of {@code image} (acquired by
+	 * {@link #acquireImage(int, int, boolean)}) for reuse.
+	 */
+	public void release( final ARGBRenderImage image )
+	{
+		release( storage( image ) );
+	}
+
+	/**
+	 * Give back a buffer (acquired from this arena) for reuse. The caller
+	 * must not use it anymore. Buffers that were not acquired here are
+	 * ignored.
+	 */
+	public void release( final Object buffer )
+	{
+		synchronized ( this )
+		{
+			final Long bytes = inUse.remove( buffer );
+			if ( bytes == null )
+				return;
+			final Idle entry = new Idle( buffer, key( buffer ), bytes );
+			ArrayDeque< Idle > buffers = idle.get( entry.key );
+			if ( buffers == null )
+			{
+				buffers = new ArrayDeque< Idle >();
+				idle.put( entry.key, buffers );
+			}
+			buffers.push( entry );
+			idleOrder.add( entry );
+			idleBytes += bytes;
+			releasedSinceDenied = true;
+			drop( 0 );
+		}
+		runReleaseCallbacks();
+	}
+
+	/**
+	 * Stop accounting for a buffer (acquired from this arena) that may still
+	 * be in use elsewhere, e.g., by a client holding a lease on an image. It
+	 * is not reused, and its memory is no longer counted against the budget.
+	 */
+	public void forget( final Object buffer )
+	{
+		synchronized ( this )
+		{
+			final Long bytes = inUse.remove( buffer );
+			if ( bytes == null )
+				return;
+			allocatedBytes -= bytes;
+			releasedSinceDenied = true;
+		}
+		runReleaseCallbacks();
+	}
+
+	/**
+	 * Run {@code callback} (once) the next time a buffer is released or the
+	 * budget is changed. This is used to try again after a request was
+	 * denied. If buffers were released since the last denied request, it is
+	 * run right away. The callback is run on the releasing thread, and must
+	 * not block.
+	 */
+	public void notifyOnRelease( final Runnable callback )
+	{
+		synchronized ( this )
+		{
+			if ( !releasedSinceDenied )
+			{
+				if ( !releaseCallbacks.contains( callback ) )
+					releaseCallbacks.add( callback );
+				return;
+			}
+		}
+		callback.run();
+	}
+
+	/**
+	 * Remove {@code callback} if it was registered by
+	 * {@link #notifyOnRelease(Runnable)} and has not run yet.
+	 */
+	public synchronized void cancelNotifyOnRelease( final Runnable callback )
+	{
+		releaseCallbacks.remove( callback );
+	}
+
+	/**
+	 * Stop accounting for the storage of {@code image} (acquired by
+	 * {@link #acquireImage(int, int, boolean)}). See {@link #forget(Object)}.
+	 */
+	public void forget( final ARGBRenderImage image )
+	{
+		forget( storage( image ) );
+	}
+
+	/**
+	 * Set the maximum number of bytes of all buffers, in use or idle. Idle
+	 * buffers are dropped to meet the new budget. Buffers in use are not
+	 * affected, but no new ones are allocated until the budget is met.
+	 */
+	@Override
+	public void setBudget( final long bytes )
+	{
+		synchronized ( this )
+		{
+			budget = bytes;
+			releasedSinceDenied = true;
+			drop( 0 );
+		}
+		runReleaseCallbacks();
+	}
+
+	@Override
+	public synchronized long getBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * Drop all idle buffers.
+	 */
+	@Override
+	public synchronized void trim()
+	{
+		while ( !idleOrder.isEmpty() )
+			dropLeastRecentlyReleased();
+	}
+
+	/**
+	 * Write the occupancy of the arena to {@code values} (as much as fits):
+	 *
+	 * <pre>
+	 * [0] budget in bytes
+	 * [1] allocated bytes (in use and idle)
+	 * [2] bytes in use
+	 * [3] idle bytes
+	 * [4] number of buffers allocated
+	 * [5] number of requests served with an idle buffer
+	 * [6] number of idle buffers dropped
+	 * [7] number of requests denied
+	 * </pre>
+	 *
+	 * @return the number of values of the full layout,
+	 *         {@link #OCCUPANCY_LENGTH}.
+	 */
+	public synchronized int getOccupancy( final long[] values )
+	{
+		final long[] v = new long[] { budget, allocatedBytes, allocatedBytes - idleBytes, idleBytes, numAllocated, numReused, numDropped, numDenied };
+		System.arraycopy( v, 0, values, 0, Math.min( v.length, values.length ) );
+		return v.length;
+	}
+
+	@Override
+	public synchronized long getAllocatedBytes()
+	{
+		return allocatedBytes;
+	}
+
+	@Override
+	public synchronized long getInUseBytes()
+	{
+		return allocatedBytes - idleBytes;
+	}
+
+	@Override
+	public synchronized long getIdleBytes()
+	{
+		return idleBytes;
+	}
+
+	@Override
+	public synchronized long getNumAllocated()
+	{
+		return numAllocated;
+	}
+
+	@Override
+	public synchronized long getNumReused()
+	{
+		return numReused;
+	}
+
+	@Override
+	public synchronized long getNumDropped()
+	{
+		return numDropped;
+	}
+
+	@Override
+	public synchronized long getNumDenied()
+	{
+		return numDenied;
+	}
+
+	private synchronized Object acquire( final int kind, final int size )
+	{
+		final long bytes = ( long ) size * BYTES_PER_ELEMENT[ kind ];
+		final Long key = key( kind, size );
+		final ArrayDeque< Idle > buffers = idle.get( key );
+		if ( buffers != null )
+		{
+			final Idle entry = buffers.pop();
+			if ( buffers.isEmpty() )
+				idle.remove( key );
+			idleOrder.remove( entry );
+			idleBytes -= bytes;
+			inUse.put( entry.buffer, bytes );
+			++numReused;
+			return entry.buffer;
+		}
+
+		drop( bytes );
+		if ( allocatedBytes + bytes > budget )
+		{
+			++numDenied;
+			releasedSinceDenied = false;
+			return null;
+		}
+
+		final Object buffer;
+		switch ( kind )
+		{
+		case INTS:
+			buffer = new int[ size ];
+			break;
+		case DIRECT_INTS:
+			buffer = ByteBuffer.allocateDirect( 4 * size ).order( ByteOrder.nativeOrder() );
+			break;
+		default:
+			buffer = new byte[ size ];
+			break;
+		}
+		allocatedBytes += bytes;
+		inUse.put( buffer, bytes );
+		++numAllocated;
+		return buffer;
+	}
+
+	/**
+	 * Drop idle buffers until {@code bytes} more can be allocated within the
+	 * budget, or no idle buffers are left.
+	 */
+	private void drop( final long bytes )
+	{
+		while ( allocatedBytes + bytes > budget && !idleOrder.isEmpty() )
+			dropLeastRecentlyReleased();
+	}
+
+	private void dropLeastRecentlyReleased()
+	{
+		final Iterator< Idle > it = idleOrder.iterator();
+		final Idle entry = it.next();
+		it.remove();
+		final ArrayDeque< Idle > buffers = idle.get( entry.key );
+		buffers.remove( entry );
+		if ( buffers.isEmpty() )
+			idle.remove( entry.key );
+		idleBytes -= entry.bytes;
+		allocatedBytes -= entry.bytes;
+		++numDropped;
+	}
+
+	/**
+	 * Run and remove all {@link #releaseCallbacks}, outside the lock (they
+	 * may call back into the arena).
+	 */
+	private void runReleaseCallbacks()
+	{
+		final Runnable[] callbacks;
+		synchronized ( this )
+		{
+			if ( releaseCallbacks.isEmpty() )
+				return;
+			callbacks = releaseCallbacks.toArray( new Runnable[ releaseCallbacks.size() ] );
+			releaseCallbacks.clear();
+		}
+		for ( final Runnable callback : callbacks )
+			callback.run();
+	}
+
+	private static Object storage( final ARGBRenderImage image )
+	{
+		return image.isDirect() ? image.getBuffer() : image.getData();
+	}
+
+	private static Long key( final int kind, final int size )
+	{
+		return ( ( long ) kind << 32 ) | size;
+	}
+
+	private static Long key( final Object buffer )
+	{
+		if ( buffer instanceof int[] )
+			return key( INTS, ( ( int[] ) buffer ).length );
+		else if ( buffer instanceof byte[] )
+			return key( BYTES, ( ( byte[] ) buffer ).length );
+		else
+			return key( DIRECT_INTS, ( ( ByteBuffer ) buffer ).capacity() / 4 );
+	}
+}
@@ -0,0 +1,27 @@
+package bdv;
+
+/**
+ * Management interface of {@link RenderBufferArena}. Sizes are in bytes.
+ */
+public interface RenderBufferArenaMXBean
+{
+	public long getBudget();
+
+	public void setBudget( long bytes );
+
+	public long getAllocatedBytes();
+
+	public long getInUseBytes();
+
+	public long getIdleBytes();
+
+	public long getNumAllocated();
+
+	public long getNumReused();
+
+	public long getNumDropped();
+
+	public long getNumDenied();
+
+	public void trim();
+}
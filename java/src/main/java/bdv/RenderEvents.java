@@ -0,0 +1,111 @@
+package bdv;
+
+/**
+ * Timeline events of the render pipeline (projector creation, rendering
+ * passes, accumulation, prefetching, image publication, JNI calls), for
+ * profiling stalls.
+ * <p>
+ * If the JVM supports JDK Flight Recorder, the events are recorded as JFR
+ * events (see {@code bdv.JfrRenderEvents}, which is in {@code src/main/jfr}
+ * and only compiled on JDK 11 or newer) whenever a recording with them enabled
+ * is running. Otherwise (or if the system property
+ * {@code bdv.jfr.disable} is {@code true}), {@link #begin(int)} returns
+ * {@code null}, which {@link #end(Object, int, int, int)} ignores. Nothing is
+ * allocated for events that are not recorded.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * final Object event = RenderEvents.begin( RenderEvents.MAP );
+ * ... // the work to be timed
+ * RenderEvents.end( event, viewerId, screenScaleIndex, timepoint );
+ * </pre>
+ */
+final class RenderEvents
+{
+	static final int PROJECTOR_CREATION = 0;
+
+	static final int MAP = 1;
+
+	static final int ACCUMULATE = 2;
+
+	static final int PREFETCH = 3;
+
+	static final int PUBLISH = 4;
+
+	static final int FRAME_LISTENERS = 5;
+
+	static final int JNI_CALL = 6;
+
+	/**
+	 * Records events. Implementations must be thread-safe.
+	 */
+	interface Recorder
+	{
+		/**
+		 * Start timing an event of the given type. This should not allocate
+		 * if events of this type are not recorded.
+		 *
+		 * @return an event handle, or {@code null} if events of this type are
+		 *         not recorded.
+		 */
+		Object begin( int type );
+
+		void end( Object event, int viewerId, int screenScaleIndex, int timepoint );
+
+		void endJniCall( Object event, int viewerId, String method );
+	}
+
+	private static final Recorder recorder = createRecorder();
+
+	private RenderEvents()
+	{}
+
+	static Object begin( final int type )
+	{
+		return recorder == null ? null : recorder.begin( type );
+	}
+
+	/**
+	 * Finish and record an event started with {@link #begin(int)}. Does
+	 * nothing if {@code event} is {@code null}.
+	 *
+	 * @param screenScaleIndex
+	 *            screen scale index, or -1 if not applicable.
+	 * @param timepoint
+	 *            timepoint, or -1 if not applicable.
+	 */
+	static void end( final Object event, final int viewerId, final int screenScaleIndex, final int timepoint )
+	{
+		if ( event != null )
+			recorder.end( event, viewerId, screenScaleIndex, timepoint );
+	}
+
+	/**
+	 * Finish and record a {@link #JNI_CALL} event.
+	 */
+	static void endJniCall( final Object event, final int viewerId, final String method )
+	{
+		if ( event != null )
+			recorder.endJniCall( event, viewerId, method );
+	}
+
+	private static Recorder createRecorder()
+	{
+		if ( Boolean.getBoolean( "bdv.jfr.disable" ) )
+			return null;
+		try
+		{
+			Class.forName( "jdk.jfr.Event" );
+			return ( Recorder ) Class.forName( "bdv.JfrRenderEvents" ).newInstance();
+		}
+		catch ( final Exception e )
+		{
+			return null;
+		}
+		catch ( final LinkageError e )
+		{
+			return null;
+		}
+	}
+}
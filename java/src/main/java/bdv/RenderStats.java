@@ -0,0 +1,362 @@
+package bdv;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rendering metrics of a {@link HeadlessMultiResolutionRenderer}. Times are in
+ * nanoseconds and kept in {@link LatencyHistogram}s.
+ * <ul>
+ * <li>render time per screen scale (of each pass that was not
+ * cancelled),</li>
+ * <li>the current {@code maxScreenScaleIndex} (the coarsest screen scale that
+ * is rendered first),</li>
+ * <li>number of new frames and of cancelled passes,</li>
+ * <li>time to first frame and time to complete frame, from the (first) state
+ * change that triggered a new frame until the first image and until a
+ * complete full-resolution image was published,</li>
+ * <li>time that each pass waited for IO (only if the viewer has its own
+ * painter and rendering threads, see
+ * {@link HeadlessMultiResolutionRenderer#setIoTimingPerViewer(boolean)}),</li>
+ * <li>number of full-resolution passes until the image was complete.</li>
+ * </ul>
+ * The cache does not count hits and misses of individual cells. Instead, a
+ * frame whose first full-resolution pass is complete (all data was cached)
+ * counts as a hit, and a frame that needed more passes as a miss.
+ * <p>
+ * Recording happens on the painter thread (only
+ * {@link #changeRequested()} may be called from any thread). Queries may come
+ * from any thread.
+ */
+public final class RenderStats implements RenderStatsMXBean
+{
+	/**
+	 * Number of values in {@link #getStats(long[])} before the per screen scale
+	 * render times.
+	 */
+	public static final int HEADER_LENGTH = 22;
+
+	private final LatencyHistogram[] renderTime;
+
+	private final LatencyHistogram timeToFirstFrame;
+
+	private final LatencyHistogram timeToCompleteFrame;
+
+	private final LatencyHistogram ioWait;
+
+	private final LatencyHistogram passesUntilValid;
+
+	private final AtomicLong numFrames;
+
+	private final AtomicLong numCancelled;
+
+	private final AtomicLong numCompleteOnFirstPass;
+
+	private final AtomicLong numIncompleteOnFirstPass;
+
+	private volatile int maxScreenScaleIndex;
+
+	/**
+	 * Time of the first state change that is not yet being rendered, or 0.
+	 */
+	private final AtomicLong pendingChangeNanos;
+
+	/**
+	 * Time of the state change that the current frame renders, or -1 if the
+	 * frame was completed already. Painter thread only.
+	 */
+	private long frameChangeNanos;
+
+	private boolean firstImagePublished;
+
+	private int fullResolutionPasses;
+
+	public RenderStats( final int numScreenScales )
+	{
+		renderTime = new LatencyHistogram[ numScreenScales ];
+		for ( int i = 0; i < numScreenScales; ++i )
+			renderTime[ i ] = new LatencyHistogram();
+		timeToFirstFrame = new LatencyHistogram();
+		timeToCompleteFrame = new LatencyHistogram();
+		ioWait = new LatencyHistogram();
+		passesUntilValid = new LatencyHistogram();
+		numFrames = new AtomicLong();
+		numCancelled = new AtomicLong();
+		numCompleteOnFirstPass = new AtomicLong();
+		numIncompleteOnFirstPass = new AtomicLong();
+		maxScreenScaleIndex = numScreenScales - 1;
+		pendingChangeNanos = new AtomicLong();
+		frameChangeNanos = -1;
+	}
+
+	/**
+	 * Called when the state changed and a new frame was requested. Only the
+	 * first change before the frame starts counts.
+	 */
+	void changeRequested()
+	{
+		pendingChangeNanos.compareAndSet( 0, System.nanoTime() );
+	}
+
+	/**
+	 * Called on the painter thread when rendering of a new frame starts.
+	 */
+	void frameStarted()
+	{
+		final long t = pendingChangeNanos.getAndSet( 0 );
+		frameChangeNanos = t != 0 ? t : System.nanoTime();
+		firstImagePublished = false;
+		fullResolutionPasses = 0;
+	}
+
+	/**
+	 * Called on the painter thread after each rendering pass.
+	 *
+	 * @param screenScaleIndex
+	 *            screen scale of the pass.
+	 * @param newImage
+	 *            whether the pass rendered a new image (or updated the current
+	 *            one).
+	 * @param success
+	 *            whether the pass was not cancelled.
+	 * @param complete
+	 *            whether the image is complete at full resolution.
+	 * @param renderNanos
+	 *            render time of the pass.
+	 * @param ioNanos
+	 *            time the pass waited for IO, or -1 if it is not known.
+	 */
+	void passRendered( final int screenScaleIndex, final boolean newImage, final boolean success, final boolean complete, final long renderNanos, final long ioNanos )
+	{
+		if ( ioNanos >= 0 )
+			ioWait.record( ioNanos );
+		if ( !success )
+		{
+			numCancelled.incrementAndGet();
+			return;
+		}
+		renderTime[ screenScaleIndex ].record( renderNanos );
+		if ( newImage )
+			numFrames.incrementAndGet();
+
+		if ( frameChangeNanos < 0 )
+			return;
+		final long now = System.nanoTime();
+		if ( !firstImagePublished )
+		{
+			timeToFirstFrame.record( now - frameChangeNanos );
+			firstImagePublished = true;
+		}
+		if ( screenScaleIndex == 0 )
+		{
+			++fullResolutionPasses;
+			if ( complete )
+			{
+				timeToCompleteFrame.record( now - frameChangeNanos );
+				passesUntilValid.record( fullResolutionPasses );
+				if ( fullResolutionPasses == 1 )
+					numCompleteOnFirstPass.incrementAndGet();
+				else
+					numIncompleteOnFirstPass.incrementAndGet();
+				frameChangeNanos = -1;
+			}
+		}
+	}
+
+	void setMaxScreenScaleIndex( final int index )
+	{
+		maxScreenScaleIndex = index;
+	}
+
+	public int getNumScreenScales()
+	{
+		return renderTime.length;
+	}
+
+	/**
+	 * @return the number of values written by {@link #getStats(long[])}.
+	 */
+	public int getStatsLength()
+	{
+		return HEADER_LENGTH + 4 * renderTime.length;
+	}
+
+	/**
+	 * Write all metrics to {@code stats} (as much as fits). Histograms are
+	 * summarized as {@code count, p50, p99, max}. The layout is
+	 *
+	 * <pre>
+	 * [0]  number of new frames
+	 * [1]  number of cancelled passes
+	 * [2]  maxScreenScaleIndex
+	 * [3]  frames complete on the first full-resolution pass (cache hits)
+	 * [4]  frames that needed more passes (cache misses)
+	 * [5]  time to first frame (4 values)
+	 * [9]  time to complete frame (4 values)
+	 * [13] IO wait per pass (4 values)
+	 * [17] full-resolution passes until complete (4 values)
+	 * [21] number of screen scales n
+	 * [22] render time per pass for screen scale 0 .. n-1 (4 values each)
+	 * </pre>
+	 *
+	 * @return the number of values of the full layout,
+	 *         {@link #getStatsLength()}.
+	 */
+	public int getStats( final long[] stats )
+	{
+		final long[] values = new long[ getStatsLength() ];
+		values[ 0 ] = numFrames.get();
+		values[ 1 ] = numCancelled.get();
+		values[ 2 ] = maxScreenScaleIndex;
+		values[ 3 ] = numCompleteOnFirstPass.get();
+		values[ 4 ] = numIncompleteOnFirstPass.get();
+		timeToFirstFrame.summarize( values, 5 );
+		timeToCompleteFrame.summarize( values, 9 );
+		ioWait.summarize( values, 13 );
+		passesUntilValid.summarize( values, 17 );
+		values[ 21 ] = renderTime.length;
+		for ( int i = 0; i < renderTime.length; ++i )
+			renderTime[ i ].summarize( values, HEADER_LENGTH + 4 * i );
+		System.arraycopy( values, 0, stats, 0, Math.min( values.length, stats.length ) );
+		return values.length;
+	}
+
+	public LatencyHistogram getRenderTime( final int screenScaleIndex )
+	{
+		return renderTime[ screenScaleIndex ];
+	}
+
+	public LatencyHistogram getTimeToFirstFrame()
+	{
+		return timeToFirstFrame;
+	}
+
+	public LatencyHistogram getTimeToCompleteFrame()
+	{
+		return timeToCompleteFrame;
+	}
+
+	public LatencyHistogram getIoWait()
+	{
+		return ioWait;
+	}
+
+	public LatencyHistogram getPassesUntilValid()
+	{
+		return passesUntilValid;
+	}
+
+	@Override
+	public long getNumFrames()
+	{
+		return numFrames.get();
+	}
+
+	@Override
+	public long getNumCancelled()
+	{
+		return numCancelled.get();
+	}
+
+	@Override
+	public int getMaxScreenScaleIndex()
+	{
+		return maxScreenScaleIndex;
+	}
+
+	@Override
+	public long getNumCompleteOnFirstPass()
+	{
+		return numCompleteOnFirstPass.get();
+	}
+
+	@Override
+	public long getNumIncompleteOnFirstPass()
+	{
+		return numIncompleteOnFirstPass.get();
+	}
+
+	@Override
+	public long getTimeToFirstFrameP50()
+	{
+		return timeToFirstFrame.getPercentile( 50 );
+	}
+
+	@Override
+	public long getTimeToFirstFrameP99()
+	{
+		return timeToFirstFrame.getPercentile( 99 );
+	}
+
+	@Override
+	public long getTimeToCompleteFrameP50()
+	{
+		return timeToCompleteFrame.getPercentile( 50 );
+	}
+
+	@Override
+	public long getTimeToCompleteFrameP99()
+	{
+		return timeToCompleteFrame.getPercentile( 99 );
+	}
+
+	@Override
+	public long getIoWaitP50()
+	{
+		return ioWait.getPercentile( 50 );
+	}
+
+	@Override
+	public long getIoWaitP99()
+	{
+		return ioWait.getPercentile( 99 );
+	}
+
+	@Override
+	public long getPassesUntilValidP50()
+	{
+		return passesUntilValid.getPercentile( 50 );
+	}
+
+	@Override
+	public long getPassesUntilValidP99()
+	{
+		return passesUntilValid.getPercentile( 99 );
+	}
+
+	@Override
+	public long[] getRenderTimeP50()
+	{
+		final long[] p = new long[ renderTime.length ];
+		for ( int i = 0; i < p.length; ++i )
+			p[ i ] = renderTime[ i ].getPercentile( 50 );
+		return p;
+	}
+
+	@Override
+	public long[] getRenderTimeP99()
+	{
+		final long[] p = new long[ renderTime.length ];
+		for ( int i = 0; i < p.length; ++i )
+			p[ i ] = renderTime[ i ].getPercentile( 99 );
+		return p;
+	}
+
+	/**
+	 * Clear all histograms and counters (except the current
+	 * {@code maxScreenScaleIndex}).
+	 */
+	@Override
+	public void reset()
+	{
+		for ( final LatencyHistogram h : renderTime )
+			h.reset();
+		timeToFirstFrame.reset();
+		timeToCompleteFrame.reset();
+		ioWait.reset();
+		passesUntilValid.reset();
+		numFrames.set( 0 );
+		numCancelled.set( 0 );
+		numCompleteOnFirstPass.set( 0 );
+		numIncompleteOnFirstPass.set( 0 );
+	}
+}
@@ -0,0 +1,45 @@
+package bdv;
+
+/**
+ * Management interface of {@link RenderStats}. Times are in nanoseconds.
+ */
+public interface RenderStatsMXBean
+{
+	public long getNumFrames();
+
+	public long getNumCancelled();
+
+	public int getMaxScreenScaleIndex();
+
+	public long getNumCompleteOnFirstPass();
+
+	public long getNumIncompleteOnFirstPass();
+
+	public long getTimeToFirstFrameP50();
+
+	public long getTimeToFirstFrameP99();
+
+	public long getTimeToCompleteFrameP50();
+
+	public long getTimeToCompleteFrameP99();
+
+	public long getIoWaitP50();
+
+	public long getIoWaitP99();
+
+	public long getPassesUntilValidP50();
+
+	public long getPassesUntilValidP99();
+
+	/**
+	 * @return median render time per screen scale.
+	 */
+	public long[] getRenderTimeP50();
+
+	/**
+	 * @return 99th percentile render time per screen scale.
+	 */
+	public long[] getRenderTimeP99();
+
+	public void reset();
+}
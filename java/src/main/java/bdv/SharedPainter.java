@@ -0,0 +1,195 @@
+package bdv;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.ui.PainterThread;
+
+/**
+ * An event loop that paints many viewers on a small, fixed number of threads,
+ * instead of one {@link PainterThread} per viewer. Idle viewers cost no
+ * thread. Each viewer obtains a {@link Painter} by
+ * {@link #newPainter(PainterThread.Paintable)}.
+ * <p>
+ * Viewers with pending repaint requests are served in the order of their
+ * requests. A viewer that requests another repaint while it is painted (as
+ * the renderer does to refine an image) goes to the back of the queue, so
+ * that every active viewer makes progress.
+ */
+public final class SharedPainter
+{
+	private static SharedPainter instance;
+
+	/**
+	 * Get the JVM-wide instance, with one thread per available processor. It
+	 * is created on first use.
+	 */
+	public static synchronized SharedPainter getInstance()
+	{
+		if ( instance == null )
+			instance = new SharedPainter( Runtime.getRuntime().availableProcessors() );
+		return instance;
+	}
+
+	/**
+	 * Guards {@link #ready} and the state of all {@link SharedPainterHandle}s.
+	 */
+	private final Object lock = new Object();
+
+	/**
+	 * Viewers that requested a repaint and are not currently painted.
+	 */
+	private final ArrayDeque< SharedPainterHandle > ready = new ArrayDeque< SharedPainterHandle >();
+
+	private final AtomicInteger threadNumber = new AtomicInteger( 1 );
+
+	public SharedPainter( final int numThreads )
+	{
+		for ( int i = 0; i < numThreads; ++i )
+		{
+			final Thread t = new Thread( SharedRenderingExecutor.getThreadGroup(), new Loop(), "shared-painter-" + threadNumber.getAndIncrement() );
+			t.setDaemon( true );
+			t.start();
+		}
+	}
+
+	/**
+	 * Create a {@link Painter} for one viewer, that paints on the threads of
+	 * this {@link SharedPainter}.
+	 */
+	public Painter newPainter( final PainterThread.Paintable paintable )
+	{
+		return new SharedPainterHandle( paintable );
+	}
+
+	private final class Loop implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			while ( true )
+			{
+				final SharedPainterHandle handle;
+				synchronized ( lock )
+				{
+					while ( ready.isEmpty() )
+					{
+						try
+						{
+							lock.wait();
+						}
+						catch ( final InterruptedException e )
+						{
+							return;
+						}
+					}
+					handle = ready.poll();
+					handle.isQueued = false;
+					handle.isPainting = true;
+					handle.pleaseRepaint = false;
+				}
+				try
+				{
+					handle.paintable.paint();
+				}
+				catch ( final Throwable e )
+				{
+					// This thread is shared by all viewers, so it must survive
+					// errors of a single one, too.
+					System.err.println( Thread.currentThread().getName() + ": uncaught " + e );
+					e.printStackTrace();
+				}
+				finally
+				{
+					synchronized ( lock )
+					{
+						handle.isPainting = false;
+						if ( handle.pleaseRepaint )
+							handle.enqueue();
+					}
+				}
+			}
+		}
+	}
+
+	private final class SharedPainterHandle implements Painter
+	{
+		final PainterThread.Paintable paintable;
+
+		/**
+		 * Whether this handle is in the {@link SharedPainter#ready} queue.
+		 */
+		boolean isQueued = false;
+
+		/**
+		 * Whether a thread is currently running {@link #paintable}.
+		 */
+		boolean isPainting = false;
+
+		/**
+		 * Whether a repaint was requested while painting.
+		 */
+		boolean pleaseRepaint = false;
+
+		boolean isStarted = false;
+
+		boolean isStopped = false;
+
+		SharedPainterHandle( final PainterThread.Paintable paintable )
+		{
+			this.paintable = paintable;
+		}
+
+		@Override
+		public void requestRepaint()
+		{
+			synchronized ( lock )
+			{
+				if ( isStopped )
+					return;
+				pleaseRepaint = true;
+				if ( isStarted && !isPainting )
+					enqueue();
+			}
+		}
+
+		@Override
+		public void start()
+		{
+			synchronized ( lock )
+			{
+				isStarted = true;
+				if ( pleaseRepaint && !isPainting )
+					enqueue();
+			}
+		}
+
+		@Override
+		public void stop()
+		{
+			synchronized ( lock )
+			{
+				isStopped = true;
+				pleaseRepaint = false;
+				if ( isQueued )
+				{
+					isQueued = false;
+					ready.remove( this );
+				}
+			}
+		}
+
+		/**
+		 * Must be called with the {@link SharedPainter#lock} held.
+		 */
+		void enqueue()
+		{
+			if ( !isQueued && !isStopped )
+			{
+				isQueued = true;
+				ready.add( this );
+				lock.notifyAll();
+			}
+		}
+	}
+}
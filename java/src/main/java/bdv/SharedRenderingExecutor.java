@@ -0,0 +1,255 @@
+package bdv;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed pool of rendering threads that is shared by many viewers. Each
+ * viewer obtains its own {@link ExecutorService} by
+ * {@link #newViewerExecutor()}, which is passed to the projectors instead of
+ * a per-viewer thread pool.
+ * <p>
+ * Tasks are queued per viewer. Idle workers take the next task from the
+ * viewers with pending tasks in round-robin order, so that a viewer that
+ * renders a large image does not starve viewers rendering small ones.
+ * <p>
+ * Projectors submit their tasks with {@code invokeAll()} from the painter
+ * thread and tasks do not submit further tasks, so a bounded pool cannot
+ * deadlock.
+ */
+public final class SharedRenderingExecutor
+{
+	private static SharedRenderingExecutor instance;
+
+	private static final ThreadGroup threadGroup = new ThreadGroup( "bdv-shared" );
+
+	/**
+	 * Get the thread group of the threads of the {@link SharedRenderingExecutor}
+	 * and the {@link SharedPainter}. The cache measures IO time (and applies
+	 * the IO time budget) per thread group, so this is shared by all viewers
+	 * that use them.
+	 */
+	public static ThreadGroup getThreadGroup()
+	{
+		return threadGroup;
+	}
+
+	/**
+	 * Get the JVM-wide instance, with one worker thread per available
+	 * processor. It is created on first use.
+	 */
+	public static synchronized SharedRenderingExecutor getInstance()
+	{
+		if ( instance == null )
+			instance = new SharedRenderingExecutor( Runtime.getRuntime().availableProcessors() );
+		return instance;
+	}
+
+	/**
+	 * Guards {@link #ready} and the task queues of all {@link ViewerExecutor}s.
+	 */
+	private final Object lock = new Object();
+
+	/**
+	 * Viewers with pending tasks, in the order they will be served.
+	 */
+	private final ArrayDeque< ViewerExecutor > ready = new ArrayDeque< ViewerExecutor >();
+
+	private final int numThreads;
+
+	public SharedRenderingExecutor( final int numThreads )
+	{
+		this.numThreads = numThreads;
+		final ThreadFactory threadFactory = new RenderThreadFactory();
+		for ( int i = 0; i < numThreads; ++i )
+			threadFactory.newThread( new Worker() ).start();
+	}
+
+	/**
+	 * @return the number of worker threads.
+	 */
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * Create a new {@link ExecutorService} for one viewer. Shutting it down
+	 * does not affect the shared worker threads.
+	 */
+	public ExecutorService newViewerExecutor()
+	{
+		return new ViewerExecutor();
+	}
+
+	private final class Worker implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			while ( true )
+			{
+				final ViewerExecutor viewer;
+				final Runnable task;
+				synchronized ( lock )
+				{
+					while ( ready.isEmpty() )
+					{
+						try
+						{
+							lock.wait();
+						}
+						catch ( final InterruptedException e )
+						{
+							return;
+						}
+					}
+					viewer = ready.poll();
+					task = viewer.tasks.poll();
+					if ( viewer.tasks.isEmpty() )
+						viewer.isReady = false;
+					else
+						ready.add( viewer );
+					++viewer.numRunning;
+				}
+				try
+				{
+					task.run();
+				}
+				catch ( final Throwable e )
+				{
+					// This thread is shared by all viewers, so it must survive
+					// errors of a single one, too.
+					System.err.println( Thread.currentThread().getName() + ": uncaught " + e );
+					e.printStackTrace();
+				}
+				finally
+				{
+					synchronized ( lock )
+					{
+						--viewer.numRunning;
+						if ( viewer.isTerminated() )
+							lock.notifyAll();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The {@link ExecutorService} of one viewer.
+	 */
+	private final class ViewerExecutor extends AbstractExecutorService
+	{
+		final ArrayDeque< Runnable > tasks = new ArrayDeque< Runnable >();
+
+		/**
+		 * Whether this viewer is in the {@link #ready} queue.
+		 */
+		boolean isReady = false;
+
+		int numRunning = 0;
+
+		boolean isShutdown = false;
+
+		@Override
+		public void execute( final Runnable command )
+		{
+			synchronized ( lock )
+			{
+				if ( isShutdown )
+					throw new RejectedExecutionException();
+				tasks.add( command );
+				if ( !isReady )
+				{
+					isReady = true;
+					ready.add( this );
+				}
+				lock.notifyAll();
+			}
+		}
+
+		@Override
+		public void shutdown()
+		{
+			synchronized ( lock )
+			{
+				isShutdown = true;
+				lock.notifyAll();
+			}
+		}
+
+		@Override
+		public List< Runnable > shutdownNow()
+		{
+			synchronized ( lock )
+			{
+				isShutdown = true;
+				final ArrayList< Runnable > pending = new ArrayList< Runnable >( tasks );
+				tasks.clear();
+				if ( isReady )
+				{
+					isReady = false;
+					ready.remove( this );
+				}
+				lock.notifyAll();
+				return pending;
+			}
+		}
+
+		@Override
+		public boolean isShutdown()
+		{
+			synchronized ( lock )
+			{
+				return isShutdown;
+			}
+		}
+
+		@Override
+		public boolean isTerminated()
+		{
+			synchronized ( lock )
+			{
+				return isShutdown && tasks.isEmpty() && numRunning == 0;
+			}
+		}
+
+		@Override
+		public boolean awaitTermination( final long timeout, final TimeUnit unit ) throws InterruptedException
+		{
+			final long deadline = System.nanoTime() + unit.toNanos( timeout );
+			synchronized ( lock )
+			{
+				while ( !isTerminated() )
+				{
+					final long remainingMillis = ( deadline - System.nanoTime() ) / 1000000l;
+					if ( remainingMillis <= 0 )
+						return false;
+					lock.wait( remainingMillis );
+				}
+				return true;
+			}
+		}
+	}
+
+	private static final class RenderThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger( 1 );
+
+		@Override
+		public Thread newThread( final Runnable r )
+		{
+			final Thread t = new Thread( threadGroup, r, "shared-rendering-" + threadNumber.getAndIncrement() );
+			t.setDaemon( true );
+			return t;
+		}
+	}
+}
@@ -0,0 +1,445 @@
+package bdv;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import bdv.img.cache.CacheArrayLoader;
+import bdv.img.cache.CacheHints;
+import bdv.img.cache.CachedCellImg;
+import bdv.img.cache.LoadingStrategy;
+import bdv.img.cache.VolatileGlobalCellCache;
+import bdv.img.cache.VolatileImgCells;
+import bdv.img.cache.VolatileImgCells.CellCache;
+import bdv.spimdata.SequenceDescriptionMinimal;
+import bdv.spimdata.SpimDataMinimal;
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.TimePoints;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.util.Fraction;
+
+/**
+ * A {@link ViewerImgLoader} for procedurally generated 16-bit data, to
+ * benchmark and stress the renderer and cache without any files or servers.
+ * <p>
+ * Every setup and timepoint is a multi-resolution volume of the same
+ * {@link Options#dimensions(long[]) size}, downsampled by 2 per mipmap level.
+ * Images are {@link CachedCellImg}s backed by a
+ * {@link VolatileGlobalCellCache}, exactly like HDF5 datasets, so rendering
+ * goes through the same loading, budgeting and prefetching paths. Cells are
+ * generated on the fetcher threads from a pattern of blobs that depends on
+ * setup and timepoint only, so the data is the same on every run. Loading a
+ * cell can be slowed down by an artificial
+ * {@link Options#cellLatencyNanos(long) latency} to simulate slow storage.
+ * <p>
+ * Use {@link #createSpimData(Options)} to create a dataset, which can be
+ * opened with {@link HeadlessBigDataViewer#open(mpicbg.spim.data.generic.AbstractSpimData, HeadlessViewerPanel.Options)}.
+ * {@link HeadlessBigDataViewer#open(String, HeadlessViewerPanel.Options)}
+ * (and so {@code BigDataViewerJni.construct()} and the native tools) accept a
+ * {@link #isSpec(String) spec} like {@code synthetic:setups=2,latency=500}
+ * instead of a file name.
+ */
+public final class SyntheticImgLoader implements ViewerImgLoader
+{
+	/**
+	 * Optional parameters for {@link SyntheticImgLoader}.
+	 */
+	public static class Options
+	{
+		private long[] dimensions = new long[] { 1024, 1024, 256 };
+
+		private int[] cellDimensions = new int[] { 32, 32, 32 };
+
+		private int numSetups = 1;
+
+		private int numTimepoints = 1;
+
+		private int numLevels = 4;
+
+		private long cellLatencyNanos = 0;
+
+		private int numFetcherThreads = 1;
+
+		/**
+		 * Size of each volume at full resolution.
+		 */
+		public Options dimensions( final long[] d )
+		{
+			dimensions = d;
+			return this;
+		}
+
+		public Options cellDimensions( final int[] c )
+		{
+			cellDimensions = c;
+			return this;
+		}
+
+		public Options numSetups( final int n )
+		{
+			numSetups = n;
+			return this;
+		}
+
+		public Options numTimepoints( final int n )
+		{
+			numTimepoints = n;
+			return this;
+		}
+
+		/**
+		 * Number of mipmap levels, including full resolution.
+		 */
+		public Options numLevels( final int n )
+		{
+			numLevels = n;
+			return this;
+		}
+
+		/**
+		 * How long loading each cell should take at least, in nanoseconds.
+		 * Default is 0.
+		 */
+		public Options cellLatencyNanos( final long l )
+		{
+			cellLatencyNanos = l;
+			return this;
+		}
+
+		public Options numFetcherThreads( final int n )
+		{
+			numFetcherThreads = n;
+			return this;
+		}
+	}
+
+	/**
+	 * Prefix of {@link #isSpec(String) dataset specs}.
+	 */
+	public static final String SPEC_PREFIX = "synthetic";
+
+	/**
+	 * Whether {@code name} specifies a synthetic dataset instead of naming a
+	 * file: {@code synthetic}, or {@code synthetic:} followed by
+	 * comma-separated {@code key=value} pairs (see {@link #parseSpec(String)}).
+	 */
+	public static boolean isSpec( final String name )
+	{
+		return name.equals( SPEC_PREFIX ) || name.startsWith( SPEC_PREFIX + ":" );
+	}
+
+	/**
+	 * Parse a {@link #isSpec(String) dataset spec}. Keys are
+	 * <ul>
+	 * <li>{@code size}: {@link Options#dimensions(long[]) dimensions}, e.g.,
+	 * {@code 1024x1024x256},</li>
+	 * <li>{@code cells}: {@link Options#cellDimensions(int[]) cell
+	 * dimensions}, e.g., {@code 32x32x32},</li>
+	 * <li>{@code setups}, {@code timepoints}, {@code levels}, {@code fetchers}:
+	 * number of setups, timepoints, mipmap levels, and fetcher threads,</li>
+	 * <li>{@code latency}: {@link Options#cellLatencyNanos(long) latency} per
+	 * cell, in microseconds.</li>
+	 * </ul>
+	 * Keys that are not given keep their defaults.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if {@code spec} is malformed.
+	 */
+	public static Options parseSpec( final String spec )
+	{
+		if ( !isSpec( spec ) )
+			throw new IllegalArgumentException( "not a synthetic dataset spec: " + spec );
+		final Options options = options();
+		if ( spec.length() <= SPEC_PREFIX.length() + 1 )
+			return options;
+		for ( final String pair : spec.substring( SPEC_PREFIX.length() + 1 ).split( "," ) )
+		{
+			final int eq = pair.indexOf( '=' );
+			if ( eq < 0 )
+				throw new IllegalArgumentException( "expected key=value in synthetic dataset spec: " + pair );
+			final String key = pair.substring( 0, eq ).trim();
+			final String value = pair.substring( eq + 1 ).trim();
+			try
+			{
+				if ( key.equals( "size" ) )
+				{
+					final int[] d = parseDimensions( value );
+					options.dimensions( new long[] { d[ 0 ], d[ 1 ], d[ 2 ] } );
+				}
+				else if ( key.equals( "cells" ) )
+					options.cellDimensions( parseDimensions( value ) );
+				else if ( key.equals( "setups" ) )
+					options.numSetups( Integer.parseInt( value ) );
+				else if ( key.equals( "timepoints" ) )
+					options.numTimepoints( Integer.parseInt( value ) );
+				else if ( key.equals( "levels" ) )
+					options.numLevels( Integer.parseInt( value ) );
+				else if ( key.equals( "fetchers" ) )
+					options.numFetcherThreads( Integer.parseInt( value ) );
+				else if ( key.equals( "latency" ) )
+					options.cellLatencyNanos( Long.parseLong( value ) * 1000 );
+				else
+					throw new IllegalArgumentException( "unknown key in synthetic dataset spec: " + key );
+			}
+			catch ( final NumberFormatException e )
+			{
+				throw new IllegalArgumentException( "malformed value in synthetic dataset spec: " + pair );
+			}
+		}
+		return options;
+	}
+
+	private static int[] parseDimensions( final String value )
+	{
+		final String[] parts = value.split( "x" );
+		if ( parts.length != 3 )
+			throw new NumberFormatException( value );
+		final int[] d = new int[ 3 ];
+		for ( int i = 0; i < 3; ++i )
+		{
+			d[ i ] = Integer.parseInt( parts[ i ] );
+			if ( d[ i ] <= 0 )
+				throw new NumberFormatException( value );
+		}
+		return d;
+	}
+
+	/**
+	 * Create default {@link Options}.
+	 * @return default {@link Options}.
+	 */
+	public static Options options()
+	{
+		return new Options();
+	}
+
+	/**
+	 * Create a dataset with a {@link SyntheticImgLoader}. All views are
+	 * registered with the identity transform, so setups overlap like channels.
+	 */
+	public static SpimDataMinimal createSpimData( final Options options )
+	{
+		final SyntheticImgLoader imgLoader = new SyntheticImgLoader( options );
+
+		final ArrayList< TimePoint > timepoints = new ArrayList< TimePoint >();
+		for ( int t = 0; t < options.numTimepoints; ++t )
+			timepoints.add( new TimePoint( t ) );
+
+		final HashMap< Integer, BasicViewSetup > setups = new HashMap< Integer, BasicViewSetup >();
+		for ( int s = 0; s < options.numSetups; ++s )
+			setups.put( s, new BasicViewSetup( s, "synthetic " + s, new FinalDimensions( options.dimensions ), new FinalVoxelDimensions( "px", 1, 1, 1 ) ) );
+
+		final HashMap< ViewId, ViewRegistration > registrations = new HashMap< ViewId, ViewRegistration >();
+		for ( int t = 0; t < options.numTimepoints; ++t )
+			for ( int s = 0; s < options.numSetups; ++s )
+				registrations.put( new ViewId( t, s ), new ViewRegistration( t, s, new AffineTransform3D() ) );
+
+		final SequenceDescriptionMinimal seq = new SequenceDescriptionMinimal( new TimePoints( timepoints ), setups, imgLoader, null );
+		return new SpimDataMinimal( null, seq, new ViewRegistrations( registrations ) );
+	}
+
+	private final VolatileGlobalCellCache cache;
+
+	private final HashMap< Integer, SetupImgLoader > setupImgLoaders;
+
+	private final int numLevels;
+
+	private final long[][] levelDimensions;
+
+	private final int[] cellDimensions;
+
+	private final double[][] mipmapResolutions;
+
+	private final AffineTransform3D[] mipmapTransforms;
+
+	private final ArrayLoader loader;
+
+	public SyntheticImgLoader( final Options options )
+	{
+		numLevels = options.numLevels;
+		cellDimensions = options.cellDimensions.clone();
+		levelDimensions = new long[ numLevels ][ 3 ];
+		mipmapResolutions = new double[ numLevels ][];
+		mipmapTransforms = new AffineTransform3D[ numLevels ];
+		for ( int l = 0; l < numLevels; ++l )
+		{
+			final int f = 1 << l;
+			for ( int d = 0; d < 3; ++d )
+				levelDimensions[ l ][ d ] = Math.max( 1, ( options.dimensions[ d ] + f - 1 ) / f );
+			mipmapResolutions[ l ] = new double[] { f, f, f };
+			final AffineTransform3D t = new AffineTransform3D();
+			t.set(
+					f, 0, 0, 0.5 * ( f - 1 ),
+					0, f, 0, 0.5 * ( f - 1 ),
+					0, 0, f, 0.5 * ( f - 1 ) );
+			mipmapTransforms[ l ] = t;
+		}
+
+		cache = new VolatileGlobalCellCache( options.numTimepoints, options.numSetups, numLevels, options.numFetcherThreads );
+		loader = new ArrayLoader( options.cellLatencyNanos );
+		setupImgLoaders = new HashMap< Integer, SetupImgLoader >();
+		for ( int s = 0; s < options.numSetups; ++s )
+			setupImgLoaders.put( s, new SetupImgLoader( s ) );
+	}
+
+	@Override
+	public SetupImgLoader getSetupImgLoader( final int setupId )
+	{
+		return setupImgLoaders.get( setupId );
+	}
+
+	@Override
+	public VolatileGlobalCellCache getCache()
+	{
+		return cache;
+	}
+
+	public final class SetupImgLoader extends AbstractViewerSetupImgLoader< UnsignedShortType, VolatileUnsignedShortType >
+	{
+		private final int setupId;
+
+		SetupImgLoader( final int setupId )
+		{
+			super( new UnsignedShortType(), new VolatileUnsignedShortType() );
+			this.setupId = setupId;
+		}
+
+		@Override
+		public RandomAccessibleInterval< UnsignedShortType > getImage( final int timepointId, final int level, final ImgLoaderHint... hints )
+		{
+			final CachedCellImg< UnsignedShortType, VolatileShortArray > img = prepareCachedImage( timepointId, level, LoadingStrategy.BLOCKING );
+			final UnsignedShortType linkedType = new UnsignedShortType( img );
+			img.setLinkedType( linkedType );
+			return img;
+		}
+
+		@Override
+		public RandomAccessibleInterval< VolatileUnsignedShortType > getVolatileImage( final int timepointId, final int level, final ImgLoaderHint... hints )
+		{
+			final CachedCellImg< VolatileUnsignedShortType, VolatileShortArray > img = prepareCachedImage( timepointId, level, LoadingStrategy.VOLATILE );
+			final VolatileUnsignedShortType linkedType = new VolatileUnsignedShortType( img );
+			img.setLinkedType( linkedType );
+			return img;
+		}
+
+		@Override
+		public double[][] getMipmapResolutions()
+		{
+			return mipmapResolutions;
+		}
+
+		@Override
+		public AffineTransform3D[] getMipmapTransforms()
+		{
+			return mipmapTransforms;
+		}
+
+		@Override
+		public int numMipmapLevels()
+		{
+			return numLevels;
+		}
+
+		/**
+		 * (Almost) create a {@link CachedCellImg} backed by the cache. The
+		 * created image needs a linked type before it can be used. The type
+		 * should be either {@link UnsignedShortType} or
+		 * {@link VolatileUnsignedShortType}.
+		 */
+		private < T extends NativeType< T > > CachedCellImg< T, VolatileShortArray > prepareCachedImage( final int timepointId, final int level, final LoadingStrategy loadingStrategy )
+		{
+			final int priority = numLevels - 1 - level;
+			final CacheHints cacheHints = new CacheHints( loadingStrategy, priority, false );
+			final CellCache< VolatileShortArray > c = cache.new VolatileCellCache< VolatileShortArray >( timepointId, setupId, level, cacheHints, loader );
+			final VolatileImgCells< VolatileShortArray > cells = new VolatileImgCells< VolatileShortArray >( c, new Fraction(), levelDimensions[ level ], cellDimensions );
+			final CachedCellImg< T, VolatileShortArray > img = new CachedCellImg< T, VolatileShortArray >( cells );
+			return img;
+		}
+	}
+
+	/**
+	 * Generates cells of a pattern of blobs. The blob spacing depends on the
+	 * setup, and the blobs move along X over time.
+	 */
+	private static final class ArrayLoader implements CacheArrayLoader< VolatileShortArray >
+	{
+		private final long cellLatencyNanos;
+
+		private VolatileShortArray theEmptyArray;
+
+		public ArrayLoader( final long cellLatencyNanos )
+		{
+			this.cellLatencyNanos = cellLatencyNanos;
+			theEmptyArray = new VolatileShortArray( 1, false );
+		}
+
+		@Override
+		public int getBytesPerElement()
+		{
+			return 2;
+		}
+
+		@Override
+		public VolatileShortArray loadArray( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+		{
+			final long startNanos = System.nanoTime();
+
+			final int f = 1 << level;
+			final double period = 64 + 16 * setup;
+			final double s = 2 * Math.PI / period;
+			final double[][] sines = new double[ 3 ][];
+			for ( int d = 0; d < 3; ++d )
+			{
+				final double shift = d == 0 ? 4 * timepoint : 0;
+				sines[ d ] = new double[ dimensions[ d ] ];
+				for ( int i = 0; i < dimensions[ d ]; ++i )
+				{
+					// center of the voxel in full resolution coordinates
+					final double x = f * ( min[ d ] + i ) + 0.5 * ( f - 1 );
+					sines[ d ][ i ] = Math.sin( s * ( x + shift ) );
+				}
+			}
+
+			final short[] data = new short[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
+			int i = 0;
+			for ( int z = 0; z < dimensions[ 2 ]; ++z )
+				for ( int y = 0; y < dimensions[ 1 ]; ++y )
+				{
+					final double syz = sines[ 1 ][ y ] * sines[ 2 ][ z ];
+					for ( int x = 0; x < dimensions[ 0 ]; ++x )
+					{
+						final double v = sines[ 0 ][ x ] * syz;
+						data[ i++ ] = ( short ) ( v > 0 ? v * 65535 : 0 );
+					}
+				}
+
+			final long remainingNanos = cellLatencyNanos - ( System.nanoTime() - startNanos );
+			if ( remainingNanos > 0 )
+				Thread.sleep( remainingNanos / 1000000, ( int ) ( remainingNanos % 1000000 ) );
+
+			return new VolatileShortArray( data, true );
+		}
+
+		@Override
+		public VolatileShortArray emptyArray( final int[] dimensions )
+		{
+			int numEntities = 1;
+			for ( int i = 0; i < dimensions.length; ++i )
+				numEntities *= dimensions[ i ];
+			if ( theEmptyArray.getCurrentStorageArray().length < numEntities )
+				theEmptyArray = new VolatileShortArray( numEntities, false );
+			return theEmptyArray;
+		}
+	}
+}
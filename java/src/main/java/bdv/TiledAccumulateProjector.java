@@ -0,0 +1,495 @@
+package bdv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bdv.viewer.render.AccumulateProjectorARGB;
+import bdv.viewer.render.VolatileHierarchyProjector;
+import bdv.viewer.render.VolatileProjector;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.Volatile;
+import net.imglib2.converter.Converter;
+import net.imglib2.type.numeric.ARGBType;
+
+/**
+ * Renders several sources and sums them into the target (like
+ * {@link AccumulateProjectorARGB}), one tile of the target at a time. For each
+ * tile, every source is rendered into a tile-sized scratch buffer and added to
+ * the tile's sums, which are then written to the target. Scratch memory is
+ * proportional to the number of threads times the tile size, independent of
+ * the number of sources. (Rendering each source into a full-size image first
+ * needs memory proportional to the number of sources times the target size.)
+ * <p>
+ * Like {@link VolatileHierarchyProjector}, each source is given as a list of
+ * mipmap levels, best first. Each pixel is taken from the best level that has
+ * valid data. A tile is done when all its pixels are rendered from the best
+ * level of every source. Done tiles are skipped in later {@link #map(boolean)
+ * passes}. Unlike {@link VolatileHierarchyProjector}, pixels of tiles that are
+ * not done are rendered again from the best level in each pass (there are no
+ * per-pixel masks, because those would need memory proportional to the number
+ * of sources again).
+ * <p>
+ * Tiles are rendered in row order, or nearest first to a
+ * {@link #setFocus(double, double) focus point}. With
+ * {@link #setPartialUpdates(int, PartialUpdateListener) partial updates}, a
+ * pass is split into waves of tiles, and a listener is notified after each
+ * wave (but the last), so that the tiles rendered so far can be shown.
+ */
+public class TiledAccumulateProjector implements VolatileProjector
+{
+	/**
+	 * Default tile width and height.
+	 */
+	public static final int DEFAULT_TILE_SIZE = 64;
+
+	/**
+	 * A source to render: its mipmap levels (transformed to target
+	 * coordinates), in the order in which they are tried (best first), and a
+	 * converter to ARGB.
+	 */
+	public static final class SourceLevels< T >
+	{
+		private final List< RandomAccessible< T > > levels;
+
+		private final Converter< ? super T, ARGBType > converter;
+
+		public SourceLevels( final List< RandomAccessible< T > > levels, final Converter< ? super T, ARGBType > converter )
+		{
+			this.levels = levels;
+			this.converter = converter;
+		}
+
+		SourceTileRenderer< T > createRenderer()
+		{
+			return new SourceTileRenderer< T >( this );
+		}
+	}
+
+	/**
+	 * Notified of partial updates during {@link #map(boolean)}.
+	 */
+	public interface PartialUpdateListener
+	{
+		/**
+		 * Called on the thread that called {@link #map(boolean)}, after a
+		 * wave of tiles was rendered (and before the next wave starts).
+		 */
+		void partialUpdate();
+	}
+
+	private final ArrayList< SourceLevels< ? > > sources;
+
+	private final RandomAccessibleInterval< ARGBType > target;
+
+	private final int tileSize;
+
+	private final int numTilesX;
+
+	private final int numTiles;
+
+	/**
+	 * Whether each tile is rendered from the best level of every source.
+	 */
+	private final boolean[] tileDone;
+
+	/**
+	 * Tile indices in the order in which they are rendered.
+	 */
+	private final int[] tileOrder;
+
+	/**
+	 * Into how many waves a pass is split for {@link #partialUpdateListener}.
+	 */
+	private int numWaves;
+
+	private PartialUpdateListener partialUpdateListener;
+
+	/**
+	 * Tasks render tiles {@code tileOrder[ nextTile ]} until
+	 * {@code nextTile == waveEnd}.
+	 */
+	private int waveEnd;
+
+	/**
+	 * Number of tiles that were rendered (not skipped) in the current wave.
+	 */
+	private final AtomicInteger numRenderedInWave;
+
+	/**
+	 * Number of tasks (with their own scratch buffers) that render tiles in
+	 * parallel.
+	 */
+	private final int numTasks;
+
+	private final ExecutorService executorService;
+
+	/**
+	 * Scratch buffers, one per task. Created on first {@link #map(boolean)}
+	 * and kept for later passes.
+	 */
+	private final ArrayList< TileTask > tasks;
+
+	/**
+	 * Index of the next tile to render, shared by all tasks.
+	 */
+	private final AtomicInteger nextTile;
+
+	private final AtomicBoolean interrupted;
+
+	private long lastFrameRenderNanoTime;
+
+	private boolean valid;
+
+	/**
+	 * @param sources
+	 *            the sources to render and sum.
+	 * @param target
+	 *            the target image.
+	 * @param tileSize
+	 *            width and height of tiles.
+	 * @param numThreads
+	 *            number of tasks that render tiles in parallel.
+	 * @param executorService
+	 *            runs the tasks. If {@code null}, tiles are rendered on the
+	 *            calling thread.
+	 */
+	public TiledAccumulateProjector(
+			final List< ? extends SourceLevels< ? > > sources,
+			final RandomAccessibleInterval< ARGBType > target,
+			final int tileSize,
+			final int numThreads,
+			final ExecutorService executorService )
+	{
+		this.sources = new ArrayList< SourceLevels< ? > >( sources );
+		this.target = target;
+		this.tileSize = tileSize;
+		final int w = ( int ) target.dimension( 0 );
+		final int h = ( int ) target.dimension( 1 );
+		numTilesX = ( w + tileSize - 1 ) / tileSize;
+		numTiles = numTilesX * ( ( h + tileSize - 1 ) / tileSize );
+		tileDone = new boolean[ numTiles ];
+		tileOrder = new int[ numTiles ];
+		for ( int t = 0; t < numTiles; ++t )
+			tileOrder[ t ] = t;
+		numWaves = 1;
+		numTasks = executorService == null ? 1 : Math.max( 1, Math.min( numThreads, numTiles ) );
+		this.executorService = executorService;
+		tasks = new ArrayList< TileTask >();
+		nextTile = new AtomicInteger();
+		numRenderedInWave = new AtomicInteger();
+		interrupted = new AtomicBoolean();
+		lastFrameRenderNanoTime = -1;
+	}
+
+	/**
+	 * Render tiles nearest to the given point (in target coordinates) first.
+	 */
+	public void setFocus( final double x, final double y )
+	{
+		final double[] distances = new double[ numTiles ];
+		for ( int t = 0; t < numTiles; ++t )
+		{
+			final double dx = target.min( 0 ) + ( t % numTilesX + 0.5 ) * tileSize - x;
+			final double dy = target.min( 1 ) + ( t / numTilesX + 0.5 ) * tileSize - y;
+			distances[ t ] = dx * dx + dy * dy;
+		}
+		// sort tile indices by distance (insertion order of equal distances
+		// is kept, so ties are in row order)
+		final Integer[] order = new Integer[ numTiles ];
+		for ( int t = 0; t < numTiles; ++t )
+			order[ t ] = t;
+		Arrays.sort( order, new Comparator< Integer >()
+		{
+			@Override
+			public int compare( final Integer t1, final Integer t2 )
+			{
+				return Double.compare( distances[ t1 ], distances[ t2 ] );
+			}
+		} );
+		for ( int t = 0; t < numTiles; ++t )
+			tileOrder[ t ] = order[ t ];
+	}
+
+	/**
+	 * Split each pass into {@code numWaves} waves of (about) equally many
+	 * tiles, and notify {@code listener} after each wave but the last. Waves
+	 * in which all tiles were already done are not reported.
+	 *
+	 * @param listener
+	 *            the listener, or {@code null} to render each pass in one go.
+	 */
+	public void setPartialUpdates( final int numWaves, final PartialUpdateListener listener )
+	{
+		this.numWaves = listener == null ? 1 : Math.max( 1, Math.min( numWaves, numTiles ) );
+		partialUpdateListener = listener;
+	}
+
+	@Override
+	public void cancel()
+	{
+		interrupted.set( true );
+	}
+
+	@Override
+	public long getLastFrameRenderNanoTime()
+	{
+		return lastFrameRenderNanoTime;
+	}
+
+	@Override
+	public boolean isValid()
+	{
+		return valid;
+	}
+
+	/**
+	 * Render all tiles that are not done. Pixels of these tiles are always
+	 * written, so {@code clearUntouchedTargetPixels} is ignored.
+	 *
+	 * @return {@code true} if rendering was completed (all tiles that were
+	 *         not done have been rendered), {@code false} if it was
+	 *         interrupted.
+	 */
+	@Override
+	public boolean map( final boolean clearUntouchedTargetPixels )
+	{
+		interrupted.set( false );
+		final long startTime = System.nanoTime();
+
+		if ( tasks.isEmpty() )
+			for ( int i = 0; i < numTasks; ++i )
+				tasks.add( new TileTask() );
+
+		boolean success = true;
+		for ( int wave = 0; wave < numWaves && success; ++wave )
+		{
+			nextTile.set( ( int ) ( ( long ) numTiles * wave / numWaves ) );
+			waveEnd = ( int ) ( ( long ) numTiles * ( wave + 1 ) / numWaves );
+			numRenderedInWave.set( 0 );
+			success = renderWave();
+			if ( success && wave < numWaves - 1 && numRenderedInWave.get() > 0 && !interrupted.get() )
+				partialUpdateListener.partialUpdate();
+		}
+
+		lastFrameRenderNanoTime = System.nanoTime() - startTime;
+		if ( success && !interrupted.get() )
+		{
+			boolean allDone = true;
+			for ( final boolean done : tileDone )
+				allDone &= done;
+			valid = allDone;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Render the tiles of the current wave with all {@link #tasks}. An
+	 * exception thrown by a task is rethrown, as when rendering on the
+	 * calling thread.
+	 *
+	 * @return whether all tasks completed.
+	 */
+	private boolean renderWave()
+	{
+		if ( executorService == null )
+			return tasks.get( 0 ).call();
+
+		boolean success = true;
+		try
+		{
+			final List< Future< Boolean > > futures = executorService.invokeAll( tasks );
+			for ( final Future< Boolean > future : futures )
+				success &= future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			success = false;
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof RuntimeException )
+				throw ( RuntimeException ) cause;
+			if ( cause instanceof Error )
+				throw ( Error ) cause;
+			throw new RuntimeException( cause );
+		}
+		return success;
+	}
+
+	/**
+	 * Renders tiles taken from {@link #nextTile} until the end of the wave or
+	 * until rendering is {@link #cancel() cancelled}. Holds the scratch
+	 * buffers.
+	 */
+	private final class TileTask implements Callable< Boolean >
+	{
+		private final int[] sourcePixels;
+
+		private final byte[] mask;
+
+		private final int[] aSum;
+
+		private final int[] rSum;
+
+		private final int[] gSum;
+
+		private final int[] bSum;
+
+		private final ArrayList< SourceTileRenderer< ? > > renderers;
+
+		TileTask()
+		{
+			final int n = tileSize * tileSize;
+			sourcePixels = new int[ n ];
+			mask = new byte[ n ];
+			aSum = new int[ n ];
+			rSum = new int[ n ];
+			gSum = new int[ n ];
+			bSum = new int[ n ];
+			renderers = new ArrayList< SourceTileRenderer< ? > >();
+			for ( final SourceLevels< ? > source : sources )
+				renderers.add( source.createRenderer() );
+		}
+
+		@Override
+		public Boolean call()
+		{
+			// A new access in each wave, in case the target was switched to
+			// other storage in between.
+			final RandomAccess< ARGBType > targetAccess = target.randomAccess();
+			final long targetMinX = target.min( 0 );
+			final long targetMinY = target.min( 1 );
+			final int targetW = ( int ) target.dimension( 0 );
+			final int targetH = ( int ) target.dimension( 1 );
+			for ( int k = nextTile.getAndIncrement(); k < waveEnd; k = nextTile.getAndIncrement() )
+			{
+				if ( interrupted.get() )
+					return false;
+				final int t = tileOrder[ k ];
+				if ( tileDone[ t ] )
+					continue;
+				numRenderedInWave.incrementAndGet();
+
+				final int x0 = ( t % numTilesX ) * tileSize;
+				final int y0 = ( t / numTilesX ) * tileSize;
+				final int w = Math.min( tileSize, targetW - x0 );
+				final int h = Math.min( tileSize, targetH - y0 );
+				final int n = w * h;
+
+				Arrays.fill( aSum, 0, n, 0 );
+				Arrays.fill( rSum, 0, n, 0 );
+				Arrays.fill( gSum, 0, n, 0 );
+				Arrays.fill( bSum, 0, n, 0 );
+				boolean done = true;
+				for ( final SourceTileRenderer< ? > renderer : renderers )
+				{
+					done &= renderer.render( targetMinX + x0, targetMinY + y0, w, h, sourcePixels, mask );
+					for ( int i = 0; i < n; ++i )
+					{
+						final int value = sourcePixels[ i ];
+						aSum[ i ] += ARGBType.alpha( value );
+						rSum[ i ] += ARGBType.red( value );
+						gSum[ i ] += ARGBType.green( value );
+						bSum[ i ] += ARGBType.blue( value );
+					}
+				}
+
+				for ( int y = 0; y < h; ++y )
+				{
+					targetAccess.setPosition( targetMinX + x0, 0 );
+					targetAccess.setPosition( targetMinY + y0 + y, 1 );
+					for ( int x = 0, i = y * w; x < w; ++x, ++i )
+					{
+						targetAccess.get().set( ARGBType.rgba(
+								Math.min( rSum[ i ], 255 ),
+								Math.min( gSum[ i ], 255 ),
+								Math.min( bSum[ i ], 255 ),
+								Math.min( aSum[ i ], 255 ) ) );
+						targetAccess.fwd( 0 );
+					}
+				}
+				tileDone[ t ] = done;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Renders tiles of one source, on one task.
+	 */
+	static final class SourceTileRenderer< T >
+	{
+		private final ArrayList< RandomAccess< T > > accesses;
+
+		private final Converter< ? super T, ARGBType > converter;
+
+		private final ARGBType argb;
+
+		SourceTileRenderer( final SourceLevels< T > source )
+		{
+			accesses = new ArrayList< RandomAccess< T > >();
+			for ( final RandomAccessible< T > level : source.levels )
+				accesses.add( level.randomAccess() );
+			converter = source.converter;
+			argb = new ARGBType();
+		}
+
+		/**
+		 * Render the tile of {@code w} &times; {@code h} pixels at
+		 * ({@code minX}, {@code minY}) into {@code pixels} (row by row).
+		 * Pixels that have no valid data on any level are 0.
+		 *
+		 * @param mask
+		 *            scratch space for marking pixels that are rendered.
+		 * @return whether all pixels were rendered from the best level.
+		 */
+		boolean render( final long minX, final long minY, final int w, final int h, final int[] pixels, final byte[] mask )
+		{
+			final int n = w * h;
+			Arrays.fill( pixels, 0, n, 0 );
+			Arrays.fill( mask, 0, n, ( byte ) 0 );
+			int numRendered = 0;
+			boolean bestLevelComplete = false;
+			for ( int l = 0; l < accesses.size() && numRendered < n; ++l )
+			{
+				final RandomAccess< T > access = accesses.get( l );
+				for ( int y = 0; y < h; ++y )
+				{
+					access.setPosition( minX, 0 );
+					access.setPosition( minY + y, 1 );
+					for ( int x = 0, i = y * w; x < w; ++x, ++i )
+					{
+						if ( mask[ i ] == 0 )
+						{
+							final T value = access.get();
+							if ( !( value instanceof Volatile ) || ( ( Volatile< ? > ) value ).isValid() )
+							{
+								converter.convert( value, argb );
+								pixels[ i ] = argb.get();
+								mask[ i ] = 1;
+								++numRendered;
+							}
+						}
+						access.fwd( 0 );
+					}
+				}
+				if ( l == 0 )
+					bestLevelComplete = numRendered == n;
+			}
+			return bestLevelComplete;
+		}
+	}
+}
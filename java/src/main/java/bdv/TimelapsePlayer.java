@@ -0,0 +1,284 @@
+package bdv;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Plays back the timepoints of a {@link HeadlessViewerPanel} at a fixed frame
+ * rate, looping over a range of timepoints, forward or backward.
+ * <p>
+ * Timepoints are advanced on a pacing thread with
+ * {@link HeadlessViewerPanel#postTimepoint(int)}, so playback never waits for
+ * rendering. The next {@link #setReadAhead(int) few} timepoints are prefetched
+ * for the current view whenever a new frame is rendered. A timepoint for which
+ * no complete image was rendered before the next timepoint is due counts as a
+ * dropped frame.
+ */
+public final class TimelapsePlayer
+{
+	private final HeadlessViewerPanel viewer;
+
+	private volatile double fps;
+
+	private volatile boolean forward;
+
+	private volatile int firstTimepoint;
+
+	/**
+	 * Last timepoint of the loop range (inclusive), or -1 to use the last
+	 * timepoint of the dataset.
+	 */
+	private volatile int lastTimepoint;
+
+	private volatile int readAhead;
+
+	private final AtomicLong numFramesShown;
+
+	private final AtomicLong numFramesDropped;
+
+	/**
+	 * The timepoint of the latest complete image, or -1.
+	 */
+	private volatile int completedTimepoint;
+
+	private final FrameListener completionListener;
+
+	/**
+	 * The pacing thread, or {@code null} if not playing.
+	 */
+	private Thread thread;
+
+	public TimelapsePlayer( final HeadlessViewerPanel viewer )
+	{
+		this.viewer = viewer;
+		fps = 10;
+		forward = true;
+		firstTimepoint = 0;
+		lastTimepoint = -1;
+		readAhead = 4;
+		numFramesShown = new AtomicLong();
+		numFramesDropped = new AtomicLong();
+		completedTimepoint = -1;
+		completionListener = new FrameListener()
+		{
+			@Override
+			public void frameAvailable( final ARGBRenderImage image, final AffineTransform3D transform )
+			{
+				// Called on the painter thread after painting, so the snapshot
+				// still shows the timepoint that was rendered.
+				if ( image.isComplete() )
+					completedTimepoint = viewer.getStateSnapshot().getCurrentTimepoint();
+			}
+		};
+		thread = null;
+	}
+
+	/**
+	 * Start playback at the current timepoint (or at the start of the loop
+	 * range, if the current timepoint is outside of it). Does nothing if
+	 * already playing.
+	 */
+	public synchronized void start()
+	{
+		if ( thread != null )
+			return;
+		viewer.addFrameListener( completionListener );
+		thread = new Thread( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				play();
+			}
+		}, "TimelapsePlayer" );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	/**
+	 * Stop playback, and wait for the pacing thread to finish. The current
+	 * timepoint stays where playback stopped.
+	 */
+	public synchronized void stop()
+	{
+		if ( thread == null )
+			return;
+		thread.interrupt();
+		try
+		{
+			thread.join();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+		viewer.removeFrameListener( completionListener );
+		viewer.setReadAheadTimepoints( new int[ 0 ] );
+	}
+
+	public synchronized boolean isPlaying()
+	{
+		return thread != null;
+	}
+
+	/**
+	 * Set the playback speed in timepoints per second (default 10).
+	 */
+	public void setFps( final double fps )
+	{
+		if ( fps <= 0 )
+			throw new IllegalArgumentException( "fps must be positive" );
+		this.fps = fps;
+	}
+
+	public double getFps()
+	{
+		return fps;
+	}
+
+	/**
+	 * Set whether to play forward (default) or backward.
+	 */
+	public void setForward( final boolean forward )
+	{
+		this.forward = forward;
+	}
+
+	public boolean isForward()
+	{
+		return forward;
+	}
+
+	/**
+	 * Set the range of timepoints to loop over.
+	 *
+	 * @param first
+	 *            first timepoint.
+	 * @param last
+	 *            last timepoint (inclusive), or -1 for the last timepoint of
+	 *            the dataset.
+	 */
+	public void setLoopRange( final int first, final int last )
+	{
+		firstTimepoint = first;
+		lastTimepoint = last;
+	}
+
+	/**
+	 * Set how many upcoming timepoints to prefetch (default 4). 0 disables
+	 * read-ahead.
+	 */
+	public void setReadAhead( final int readAhead )
+	{
+		this.readAhead = readAhead;
+	}
+
+	public int getReadAhead()
+	{
+		return readAhead;
+	}
+
+	/**
+	 * @return number of timepoints for which a complete image was rendered in
+	 *         time.
+	 */
+	public long getNumFramesShown()
+	{
+		return numFramesShown.get();
+	}
+
+	/**
+	 * @return number of timepoints for which no complete image was rendered
+	 *         in time.
+	 */
+	public long getNumFramesDropped()
+	{
+		return numFramesDropped.get();
+	}
+
+	public void resetStatistics()
+	{
+		numFramesShown.set( 0 );
+		numFramesDropped.set( 0 );
+	}
+
+	private void play()
+	{
+		int timepoint = viewer.getStateSnapshot().getCurrentTimepoint();
+		int shownTimepoint = -1;
+		long nextNanos = System.nanoTime();
+		while ( !Thread.currentThread().isInterrupted() )
+		{
+			final int first = Math.max( 0, firstTimepoint );
+			final int last = getLastTimepoint();
+			if ( timepoint < first || timepoint > last )
+				timepoint = forward ? first : last;
+
+			if ( shownTimepoint >= 0 )
+			{
+				if ( completedTimepoint == shownTimepoint )
+					numFramesShown.incrementAndGet();
+				else
+					numFramesDropped.incrementAndGet();
+			}
+
+			if ( timepoint != shownTimepoint )
+			{
+				completedTimepoint = -1;
+				viewer.setReadAheadTimepoints( getReadAheadTimepoints( timepoint, first, last ) );
+				viewer.postTimepoint( timepoint );
+				shownTimepoint = timepoint;
+			}
+			timepoint = step( timepoint, first, last );
+
+			final long periodNanos = ( long ) ( 1e9 / fps );
+			nextNanos += periodNanos;
+			final long now = System.nanoTime();
+			if ( nextNanos < now - periodNanos )
+				// fell behind by more than a frame, don't try to catch up
+				nextNanos = now;
+			final long sleepNanos = nextNanos - now;
+			if ( sleepNanos > 0 )
+			{
+				try
+				{
+					Thread.sleep( sleepNanos / 1000000, ( int ) ( sleepNanos % 1000000 ) );
+				}
+				catch ( final InterruptedException e )
+				{
+					break;
+				}
+			}
+		}
+	}
+
+	private int getLastTimepoint()
+	{
+		final int numTimepoints = viewer.getStateSnapshot().getNumTimepoints();
+		final int last = lastTimepoint;
+		return ( last < 0 || last >= numTimepoints ) ? numTimepoints - 1 : last;
+	}
+
+	private int step( final int timepoint, final int first, final int last )
+	{
+		if ( forward )
+			return timepoint >= last ? first : timepoint + 1;
+		else
+			return timepoint <= first ? last : timepoint - 1;
+	}
+
+	private int[] getReadAheadTimepoints( final int timepoint, final int first, final int last )
+	{
+		final int n = Math.max( 0, Math.min( readAhead, last - first ) );
+		final int[] timepoints = new int[ n ];
+		int t = timepoint;
+		for ( int i = 0; i < n; ++i )
+		{
+			t = step( t, first, last );
+			timepoints[ i ] = t;
+		}
+		return timepoints;
+	}
+}
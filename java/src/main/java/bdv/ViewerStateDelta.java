@@ -0,0 +1,169 @@
+package bdv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * A batch of changes to the state of a {@link HeadlessViewerPanel}, applied
+ * at once by {@link HeadlessViewerPanel#applyState(ViewerStateDelta, java.util.List)}.
+ * <p>
+ * The packed (binary) representation matches {@code BigDataViewerStateDelta}
+ * and {@code BigDataViewerSourceUpdate} in {@code bdvlib.h}, in native byte
+ * order:
+ *
+ * <pre>
+ * header (HEADER_SIZE bytes):
+ *   int32     flags             (SET_TRANSFORM | SET_TIMEPOINT | SET_INTERPOLATION)
+ *   int32     timepoint
+ *   int32     interpolation     (0 = nearest-neighbor, 1 = linear)
+ *   int32     numSourceUpdates
+ *   double[12] transform        (row-packed 3x4 viewer transform)
+ * followed by numSourceUpdates source updates (SOURCE_UPDATE_SIZE bytes each):
+ *   int32     source
+ *   int32     flags             (SET_VISIBLE | SET_PARAMS)
+ *   int32     visible
+ *   int32     min
+ *   int32     max
+ *   int32     argb
+ * </pre>
+ */
+public final class ViewerStateDelta
+{
+	public static final int SET_TRANSFORM = 1;
+
+	public static final int SET_TIMEPOINT = 2;
+
+	public static final int SET_INTERPOLATION = 4;
+
+	public static final int SET_VISIBLE = 1;
+
+	public static final int SET_PARAMS = 2;
+
+	public static final int HEADER_SIZE = 4 * 4 + 12 * 8;
+
+	public static final int SOURCE_UPDATE_SIZE = 6 * 4;
+
+	/**
+	 * Changes to a single source.
+	 */
+	public static final class SourceUpdate
+	{
+		final int source;
+
+		final int flags;
+
+		final boolean visible;
+
+		final int min;
+
+		final int max;
+
+		final int argb;
+
+		public SourceUpdate( final int source, final int flags, final boolean visible, final int min, final int max, final int argb )
+		{
+			this.source = source;
+			this.flags = flags;
+			this.visible = visible;
+			this.min = min;
+			this.max = max;
+			this.argb = argb;
+		}
+
+		boolean setVisible()
+		{
+			return ( flags & SET_VISIBLE ) != 0;
+		}
+
+		boolean setParams()
+		{
+			return ( flags & SET_PARAMS ) != 0;
+		}
+	}
+
+	final int flags;
+
+	final AffineTransform3D transform;
+
+	final int timepoint;
+
+	final boolean linearInterpolation;
+
+	final SourceUpdate[] sourceUpdates;
+
+	public ViewerStateDelta( final int flags, final AffineTransform3D transform, final int timepoint, final boolean linearInterpolation, final SourceUpdate[] sourceUpdates )
+	{
+		this.flags = flags;
+		this.transform = transform;
+		this.timepoint = timepoint;
+		this.linearInterpolation = linearInterpolation;
+		this.sourceUpdates = sourceUpdates;
+	}
+
+	/**
+	 * Decode the packed representation (see class description).
+	 *
+	 * @param packed
+	 *            buffer containing the packed delta, starting at index 0. The
+	 *            byte order of the buffer is ignored, native order is used.
+	 * @return the decoded delta.
+	 * @throws IllegalArgumentException
+	 *             if the buffer is too small for the number of source updates
+	 *             given in the header.
+	 */
+	public static ViewerStateDelta decode( final ByteBuffer packed )
+	{
+		final ByteBuffer b = packed.duplicate().order( ByteOrder.nativeOrder() );
+		if ( b.capacity() < HEADER_SIZE )
+			throw new IllegalArgumentException( "packed delta too small" );
+
+		final int flags = b.getInt( 0 );
+		final int timepoint = b.getInt( 4 );
+		final int interpolation = b.getInt( 8 );
+		final int numSourceUpdates = b.getInt( 12 );
+		if ( numSourceUpdates < 0 || b.capacity() < HEADER_SIZE + numSourceUpdates * SOURCE_UPDATE_SIZE )
+			throw new IllegalArgumentException( "packed delta too small for " + numSourceUpdates + " source updates" );
+
+		AffineTransform3D transform = null;
+		if ( ( flags & SET_TRANSFORM ) != 0 )
+		{
+			final double[] m3x4 = new double[ 12 ];
+			for ( int i = 0; i < 12; ++i )
+				m3x4[ i ] = b.getDouble( 16 + 8 * i );
+			transform = new AffineTransform3D();
+			transform.set( m3x4 );
+		}
+
+		final SourceUpdate[] sourceUpdates = new SourceUpdate[ numSourceUpdates ];
+		for ( int i = 0; i < numSourceUpdates; ++i )
+		{
+			final int o = HEADER_SIZE + i * SOURCE_UPDATE_SIZE;
+			sourceUpdates[ i ] = new SourceUpdate(
+					b.getInt( o ),
+					b.getInt( o + 4 ),
+					b.getInt( o + 8 ) != 0,
+					b.getInt( o + 12 ),
+					b.getInt( o + 16 ),
+					b.getInt( o + 20 ) );
+		}
+
+		return new ViewerStateDelta( flags, transform, timepoint, interpolation != 0, sourceUpdates );
+	}
+
+	boolean setTransform()
+	{
+		return ( flags & SET_TRANSFORM ) != 0;
+	}
+
+	boolean setTimepoint()
+	{
+		return ( flags & SET_TIMEPOINT ) != 0;
+	}
+
+	boolean setInterpolation()
+	{
+		return ( flags & SET_INTERPOLATION ) != 0;
+	}
+}
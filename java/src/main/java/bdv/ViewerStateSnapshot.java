@@ -0,0 +1,118 @@
+package bdv;
+
+import java.util.List;
+
+import net.imglib2.realtransform.AffineTransform3D;
+import bdv.viewer.Interpolation;
+import bdv.viewer.state.ViewerState;
+
+/**
+ * Immutable snapshot of the parts of a {@link ViewerState} that clients query
+ * frequently (viewer transform, timepoint, interpolation, number of sources,
+ * source visibility). {@link HeadlessViewerPanel} publishes a new snapshot
+ * after every change, so it can be read without locking and without copying
+ * the {@link ViewerState}.
+ */
+public final class ViewerStateSnapshot
+{
+	private final double[] transform;
+
+	private final int numTimepoints;
+
+	private final int currentTimepoint;
+
+	private final Interpolation interpolation;
+
+	private final boolean[] visibleSources;
+
+	private ViewerStateSnapshot(
+			final double[] transform,
+			final int numTimepoints,
+			final int currentTimepoint,
+			final Interpolation interpolation,
+			final boolean[] visibleSources )
+	{
+		this.transform = transform;
+		this.numTimepoints = numTimepoints;
+		this.currentTimepoint = currentTimepoint;
+		this.interpolation = interpolation;
+		this.visibleSources = visibleSources;
+	}
+
+	/**
+	 * Create a snapshot of the current {@code state}.
+	 */
+	public static ViewerStateSnapshot of( final ViewerState state )
+	{
+		synchronized ( state )
+		{
+			final AffineTransform3D t = new AffineTransform3D();
+			state.getViewerTransform( t );
+			final double[] transform = new double[ 12 ];
+			t.toArray( transform );
+
+			final boolean[] visibleSources = new boolean[ state.numSources() ];
+			final List< Integer > visibleSourceIndices = state.getVisibleSourceIndices();
+			for ( final int i : visibleSourceIndices )
+				visibleSources[ i ] = true;
+
+			return new ViewerStateSnapshot(
+					transform,
+					state.getNumTimePoints(),
+					state.getCurrentTimepoint(),
+					state.getInterpolation(),
+					visibleSources );
+		}
+	}
+
+	/**
+	 * Get the viewer transform.
+	 *
+	 * @param t
+	 *            is set to the viewer transform.
+	 */
+	public void getViewerTransform( final AffineTransform3D t )
+	{
+		t.set( transform );
+	}
+
+	/**
+	 * Get the viewer transform as row-packed 3x4 matrix.
+	 *
+	 * @param m3x4
+	 *            array of at least 12 elements, is set to the viewer transform.
+	 */
+	public void getViewerTransform( final double[] m3x4 )
+	{
+		System.arraycopy( transform, 0, m3x4, 0, 12 );
+	}
+
+	public int getNumTimepoints()
+	{
+		return numTimepoints;
+	}
+
+	public int getCurrentTimepoint()
+	{
+		return currentTimepoint;
+	}
+
+	public Interpolation getInterpolation()
+	{
+		return interpolation;
+	}
+
+	public int numSources()
+	{
+		return visibleSources.length;
+	}
+
+	/**
+	 * Whether the source with the given index is visible (taking into account
+	 * the display mode).
+	 */
+	public boolean isSourceVisible( final int index )
+	{
+		return index >= 0 && index < visibleSources.length && visibleSources[ index ];
+	}
+}
@@ -0,0 +1,150 @@
+package bdv;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * {@link RenderEvents.Recorder} that records JDK Flight Recorder events. This
+ * class is only loaded (reflectively, by {@link RenderEvents}) if the JVM
+ * provides {@code jdk.jfr}.
+ * <p>
+ * All events are in category "BigDataViewer" and carry the viewer id (the id
+ * assigned by {@link BigDataViewerJni}, or -1), the screen scale index, and
+ * the timepoint (-1 if not applicable). Enable them in a recording, e.g., with
+ * {@code jcmd <pid> JFR.start settings=profile} and a settings file that
+ * enables {@code bdv.*}.
+ */
+final class JfrRenderEvents implements RenderEvents.Recorder
+{
+	@Category( "BigDataViewer" )
+	abstract static class RenderEvent extends Event
+	{
+		@Label( "Viewer Id" )
+		int viewerId;
+
+		@Label( "Screen Scale Index" )
+		int screenScaleIndex;
+
+		@Label( "Timepoint" )
+		int timepoint;
+	}
+
+	@Name( "bdv.ProjectorCreation" )
+	@Label( "Projector Creation" )
+	static final class ProjectorCreationEvent extends RenderEvent
+	{}
+
+	@Name( "bdv.Map" )
+	@Label( "Rendering Pass" )
+	static final class MapEvent extends RenderEvent
+	{}
+
+	@Name( "bdv.Accumulate" )
+	@Label( "Accumulation" )
+	static final class AccumulateEvent extends RenderEvent
+	{}
+
+	@Name( "bdv.Prefetch" )
+	@Label( "Prefetch" )
+	static final class PrefetchEvent extends RenderEvent
+	{}
+
+	@Name( "bdv.Publish" )
+	@Label( "Image Publication" )
+	static final class PublishEvent extends RenderEvent
+	{}
+
+	@Name( "bdv.FrameListeners" )
+	@Label( "Frame Listeners" )
+	static final class FrameListenersEvent extends RenderEvent
+	{}
+
+	@Name( "bdv.JniCall" )
+	@Label( "JNI Call" )
+	static final class JniCallEvent extends RenderEvent
+	{
+		@Label( "Method" )
+		String method;
+	}
+
+	/**
+	 * One instance of each event type, indexed by type, to check whether the
+	 * type is enabled without allocating an event. {@link Event#isEnabled()}
+	 * does not depend on the instance.
+	 */
+	private final RenderEvent[] probes = new RenderEvent[] {
+			new ProjectorCreationEvent(),
+			new MapEvent(),
+			new AccumulateEvent(),
+			new PrefetchEvent(),
+			new PublishEvent(),
+			new FrameListenersEvent(),
+			new JniCallEvent() };
+
+	@Override
+	public Object begin( final int type )
+	{
+		if ( type < 0 || type >= probes.length )
+			throw new IllegalArgumentException( "unknown event type " + type );
+		if ( !probes[ type ].isEnabled() )
+			return null;
+		final RenderEvent event;
+		switch ( type )
+		{
+		case RenderEvents.PROJECTOR_CREATION:
+			event = new ProjectorCreationEvent();
+			break;
+		case RenderEvents.MAP:
+			event = new MapEvent();
+			break;
+		case RenderEvents.ACCUMULATE:
+			event = new AccumulateEvent();
+			break;
+		case RenderEvents.PREFETCH:
+			event = new PrefetchEvent();
+			break;
+		case RenderEvents.PUBLISH:
+			event = new PublishEvent();
+			break;
+		case RenderEvents.FRAME_LISTENERS:
+			event = new FrameListenersEvent();
+			break;
+		default:
+			event = new JniCallEvent();
+			break;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void end( final Object e, final int viewerId, final int screenScaleIndex, final int timepoint )
+	{
+		final RenderEvent event = ( RenderEvent ) e;
+		event.end();
+		if ( event.shouldCommit() )
+		{
+			event.viewerId = viewerId;
+			event.screenScaleIndex = screenScaleIndex;
+			event.timepoint = timepoint;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void endJniCall( final Object e, final int viewerId, final String method )
+	{
+		final JniCallEvent event = ( JniCallEvent ) e;
+		event.end();
+		if ( event.shouldCommit() )
+		{
+			event.viewerId = viewerId;
+			event.screenScaleIndex = -1;
+			event.timepoint = -1;
+			event.method = method;
+			event.commit();
+		}
+	}
+}